@@ -21,7 +21,7 @@ public class Main {
             // ----- Models & Views -----
             LevelsManager levelsManager = new LevelsManager();
             MenuView  menuView   = new MenuView();
-            LevelsView levelsView = new LevelsView(levelsManager.getLevelConfigs());
+            LevelsView levelsView = new LevelsView(levelsManager.getLevelNames());
             JPanel settingsView  = new JPanel(); // stub
             JPanel shopView      = new JPanel(); // stub
 
@@ -38,7 +38,7 @@ public class Main {
 
             // Simple callbacks for MenuController; all progress logic stays outside MenuController.
             Runnable onNewGame = () -> {
-                LevelsManager.gameStatus.resetNewGame(levelsManager.getLevelConfigs());
+                LevelsManager.gameStatus.resetNewGame(levelsManager.getLevelNames());
                 LevelsManager.gameStatus.save();
                 levelsController.refreshLocks();
             };
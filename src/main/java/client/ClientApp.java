@@ -232,8 +232,8 @@ public final class ClientApp {
     private static String[] listLevelNames() {
         try {
             LevelsManager lm = new LevelsManager();
-            // getLevelConfigs() is a List (not a Map)
-            java.util.List<?> cfgs = lm.getLevelConfigs();
+            // names come from the level index; no level is parsed here
+            java.util.List<String> cfgs = lm.getLevelNames();
             java.util.List<String> names = new java.util.ArrayList<>();
 
             if (cfgs != null && !cfgs.isEmpty()) {
@@ -35,6 +35,8 @@ public final class GameClient implements Closeable, MessageDispatcher.Runtime {
     private final MacChain mac = new MacChain();
     private final CommandBacklog backlog = new CommandBacklog();
     private final HeartbeatService hb = new HeartbeatService();
+    private final LatencyTracer tracer = new LatencyTracer();
+    private volatile boolean traceCommands = Boolean.getBoolean("phase3.trace");   // opt-in; F3 turns it on too
 
     // ---- session/state ----
     private volatile String sid = null;
@@ -119,6 +121,9 @@ public final class GameClient implements Closeable, MessageDispatcher.Runtime {
 
         // 1) Sign and wrap
         MacChain.MacResult signed = mac.signCommand(cmd);
+        if (traceCommands) {   // outside the MAC'd "cmd": the server stamps and echoes it, nothing else
+            signed.data().putObject("trace").put("cs", tracer.onSend(signed.seq()));
+        }
 
         // 2) Journal (best-effort)
         try {
@@ -159,7 +164,12 @@ public final class GameClient implements Closeable, MessageDispatcher.Runtime {
 
     @Override public void initHmacKey(byte[] key) { mac.initKey(key); }
     @Override public void adoptChain(long lastSeq, byte[] lastMac) { mac.adopt(lastSeq, lastMac); }
-    @Override public void resetBaseline() { mac.resetBaseline(); }
+    /** Fresh HELLO_S: seqs restart at 0, so the journal (segments named by seq, ack watermark) starts over too. */
+    @Override public void resetBaseline() {
+        mac.resetBaseline();
+        try { if (journal != null) journal.reset(); }
+        catch (Exception ex) { onError.accept("Journal reset failed: " + ex.getMessage()); }
+    }
     @Override public long lastSeq() { return mac.lastSeq(); }
     @Override public byte[] lastMac() { return mac.lastMac(); }
 
@@ -170,9 +180,13 @@ public final class GameClient implements Closeable, MessageDispatcher.Runtime {
     }
 
     @Override public void startHeartbeat() {
-        hb.start(() -> sendEnvelope(Wire.of("PING", sid, Map.of("ts", System.currentTimeMillis()))));
+        hb.start(() -> sendEnvelope(Wire.of("PING", sid,
+                Map.of("ts", System.currentTimeMillis(), "cs", common.util.MicroClock.nowUs()))));
     }
 
+    @Override public void onPong(com.fasterxml.jackson.databind.JsonNode data) { tracer.onPong(data); }
+    @Override public void onCmdAck(long seq, com.fasterxml.jackson.databind.JsonNode trace) { tracer.onAck(seq, trace); }
+
     @Override
     public void onSnapshot(NetSnapshotDTO dto) {
         if (dto == null || dto.info() == null) return;
@@ -193,6 +207,7 @@ public final class GameClient implements Closeable, MessageDispatcher.Runtime {
         lastTick = t;
 
         this.phase = dto.info().state().name();
+        if (dto.ui() != null) tracer.onSnapshotTrace(dto.ui().get("trace"));
         onSnapshot.accept(dto);
         if ("BUILD".equalsIgnoreCase(phase)) replayBacklogAsync();
     }
@@ -260,4 +275,7 @@ public final class GameClient implements Closeable, MessageDispatcher.Runtime {
     public String  getSide() { return mySide; }
     public boolean isOpen()  { return transport.isOpen(); }
     public String phase() { return phase; }
+    public LatencyTracer tracer() { return tracer; }
+    /** Attach trace metadata to outgoing COMMANDs (off by default). */
+    public void setTracing(boolean on) { this.traceCommands = on; }
 }
@@ -0,0 +1,108 @@
+package client.net;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import common.util.MicroClock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Client half of command tracing: client send → server receive → drain → apply → SNAPSHOT → client.
+ *  – Server stamps are on the server's clock; the offset comes from PING/PONG (cs = client send µs,
+ *    st = server µs), taking the lowest-RTT sample of the last {@link #OFFSET_SAMPLES} as the estimate.
+ *  – Each stage keeps the last {@link #RING} samples; {@link #hudLines()} reports p50/p95/max in ms.
+ */
+public final class LatencyTracer {
+    private static final int RING = 128;
+    private static final int OFFSET_SAMPLES = 8;
+    private static final long PENDING_TTL_US = 60_000_000L;
+
+    public enum Stage { UPLINK, QUEUE, APPLY, SNAPSHOT, DOWNLINK, TOTAL, ACK_RTT }
+    private static final Stage[] STAGES = Stage.values();
+
+    private final Map<Long, Long> pending = new ConcurrentHashMap<>();   // seq → client send µs
+    private final long[][] rings = new long[STAGES.length][RING];
+    private final int[] written = new int[STAGES.length];
+
+    // offset estimation (server µs − client µs)
+    private final long[] rtt = new long[OFFSET_SAMPLES], off = new long[OFFSET_SAMPLES];
+    private int pongs;
+    private volatile long offsetUs;
+    private volatile boolean synced;
+
+    /** Stamp an outgoing COMMAND; returns the client send time to put in its "trace". */
+    public long onSend(long seq) {
+        long now = MicroClock.nowUs();
+        pending.put(seq, now);
+        if (pending.size() > 4 * RING) pending.values().removeIf(cs -> now - cs > PENDING_TTL_US);
+        return now;
+    }
+
+    /** PONG echoing our "cs" plus the server's "st". */
+    public synchronized void onPong(JsonNode d) {
+        if (d == null || !d.has("cs") || !d.has("st")) return;
+        long cr = MicroClock.nowUs(), cs = d.path("cs").asLong(), st = d.path("st").asLong();
+        long r = cr - cs;
+        if (r < 0) return;
+        int k = pongs++ % OFFSET_SAMPLES;
+        rtt[k] = r;
+        off[k] = st - (cs + r / 2);
+        int n = Math.min(pongs, OFFSET_SAMPLES), best = 0;
+        for (int i = 1; i < n; i++) if (rtt[i] < rtt[best]) best = i;
+        offsetUs = off[best];
+        synced = true;
+    }
+
+    /** CMD_ACK with a "trace" object: uplink and queue stages are known now. */
+    public void onAck(long seq, JsonNode tr) {
+        Long cs = pending.get(seq);
+        if (cs == null || tr == null || tr.isMissingNode()) return;
+        long rx = tr.path("rx").asLong(), dq = tr.path("dq").asLong();
+        add(Stage.ACK_RTT, MicroClock.nowUs() - cs);
+        if (synced) add(Stage.UPLINK, rx - offsetUs - cs);
+        add(Stage.QUEUE, dq - rx);
+    }
+
+    /** SNAPSHOT ui.trace entries (seq, rx, dq, ap, sn): the rest of the breakdown. */
+    public void onSnapshotTrace(Object list) {
+        if (!(list instanceof List<?> entries)) return;
+        long cr = MicroClock.nowUs();
+        for (Object o : entries) {
+            if (!(o instanceof Map<?, ?> e)) continue;
+            Long cs = pending.remove(num(e.get("seq")));
+            if (cs == null) continue;
+            long dq = num(e.get("dq")), ap = num(e.get("ap")), sn = num(e.get("sn"));
+            add(Stage.APPLY, ap - dq);
+            add(Stage.SNAPSHOT, sn - ap);
+            if (synced) add(Stage.DOWNLINK, cr + offsetUs - sn);
+            add(Stage.TOTAL, cr - cs);
+        }
+    }
+
+    private static long num(Object v) { return (v instanceof Number n) ? n.longValue() : -1L; }
+
+    private synchronized void add(Stage s, long us) {
+        int i = s.ordinal();
+        rings[i][written[i]++ % RING] = Math.max(0, us);
+    }
+
+    // ---- reporting ----
+    public long offsetUs() { return offsetUs; }
+
+    /** One line per stage with samples: "uplink  p50 1.2  p95 3.4  max 5.6 ms (n=42)". */
+    public synchronized List<String> hudLines() {
+        List<String> out = new ArrayList<>();
+        out.add(synced ? String.format("clock offset %+.1f ms", offsetUs / 1000.0) : "clock offset: no PONG yet");
+        for (Stage s : STAGES) {
+            int n = Math.min(written[s.ordinal()], RING);
+            if (n == 0) continue;
+            long[] v = Arrays.copyOf(rings[s.ordinal()], n);
+            Arrays.sort(v);
+            out.add(String.format("%-8s p50 %6.1f  p95 %6.1f  max %6.1f ms (n=%d)", s.name().toLowerCase(),
+                    v[(n - 1) / 2] / 1000.0, v[(int) Math.ceil(0.95 * n) - 1] / 1000.0, v[n - 1] / 1000.0, n));
+        }
+        return out;
+    }
+}
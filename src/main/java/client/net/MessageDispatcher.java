@@ -40,6 +40,10 @@ public final class MessageDispatcher {
         void onSnapshot(common.NetSnapshotDTO dto);
         void onStart(String side);
         boolean wantResume();
+
+        // latency tracing
+        void onPong(com.fasterxml.jackson.databind.JsonNode data);
+        void onCmdAck(long seq, com.fasterxml.jackson.databind.JsonNode trace);
     }
 
 
@@ -113,7 +117,9 @@ public final class MessageDispatcher {
                 if (seqAck >= 0 && !dup) {
                     rt.compactJournal(seqAck);
                 }
+                if (seqAck >= 0 && env.data.has("trace")) rt.onCmdAck(seqAck, env.data.get("trace"));
             }
+            case "PONG" -> rt.onPong(env.data);
             case "RESUMED" -> {
                 long serverLastSeq = env.data != null ? env.data.path("serverLastSeq").asLong(-1) : -1;
                 String lastMacHex  = env.data != null ? env.data.path("serverLastMac").asText("") : "";
@@ -3,25 +3,102 @@ package client.storage;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import common.jfr.Phase3Events;
+import common.util.RecordLog;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/** Client command journal: one JSON entry per {@link RecordLog} frame (length + CRC32C, sync markers).
+ *  – Entries go into small segments named by the first seq they hold: cmd-&lt;firstSeq&gt;.log.
+ *  – cmd.ack holds the "acked up to" watermark; it is the truncation marker: entries at or below it
+ *    are never replayed, and a segment is deleted once the next segment starts at or below ack+1.
+ *  – Group commit: {@link #append} only queues the entry; a flusher thread writes and fsyncs the queue
+ *    every fsyncMs or once fsyncEvery entries are waiting (fsyncMs = 0: write + fsync inside append).
+ *  – {@link #readAfter} only returns what has been fsynced, i.e. exactly what a crash would leave.
+ *  – Each segment has a sparse seq → offset index (cmd-&lt;firstSeq&gt;.idx once sealed, rebuilt on first use
+ *    if missing), so readAfter seeks to the first relevant record instead of parsing the segment from the start.
+ *  – Seqs are only comparable within one MAC baseline: the owner calls {@link #reset} whenever the chain
+ *    restarts (fresh HELLO_S), otherwise ack and segment names from an older run would shadow the new seqs.
+ */
 public final class Journal implements Closeable {
     private static final ObjectMapper M = new ObjectMapper();
+    private static final String PREFIX = "cmd-", LOG = ".log", IDX = ".idx";
+    private static final int INDEX_EVERY_BYTES = 4096;          // one index point per ~4 KiB of records
 
     private final Path dir;
-    private final Path file;        // .../cmd.journal
-    private final Path tmpFile;     // .../cmd.journal.tmp
-    private final Path bakFile;     // .../cmd.journal.bak
+    private final Path ackFile;     // .../cmd.ack   (8-byte watermark)
+    private final Path single;      // .../cmd.log   (one-file RecordLog journal, becomes the first segment)
+    private final Path legacy;      // .../cmd.journal (old NDJSON journal, imported once)
+    private final long segmentBytes = Long.getLong("phase3.journal.segmentBytes", 256 * 1024);
+    private final long fsyncMs;     // durability window; 0 = synchronous
+    private final int  fsyncEvery;  // flush early once this many entries wait
+
+    private final ConcurrentSkipListMap<Long, Path> segments = new ConcurrentSkipListMap<>();   // firstSeq → file
+    private final ConcurrentHashMap<Path, SeqIndex> indexes = new ConcurrentHashMap<>();        // loaded lazily
+
+    /** Sparse, ascending (seq, offset) points of one segment. */
+    private static final class SeqIndex {
+        private long[] seqs = new long[16], offs = new long[16];
+        private int n;
+
+        synchronized void add(long seq, long off) {
+            if (n > 0 && (seq <= seqs[n - 1] || off - offs[n - 1] < INDEX_EVERY_BYTES)) return;
+            if (n == seqs.length) { seqs = Arrays.copyOf(seqs, n * 2); offs = Arrays.copyOf(offs, n * 2); }
+            seqs[n] = seq; offs[n] = off; n++;
+        }
+        /** Offset of the last indexed record with seq ≤ {@code seq}, or 0. */
+        synchronized long floorOffset(long seq) {
+            int lo = 0, hi = n - 1, at = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (seqs[mid] <= seq) { at = mid; lo = mid + 1; } else hi = mid - 1;
+            }
+            return at < 0 ? 0 : offs[at];
+        }
+        synchronized byte[] toBytes() {
+            ByteBuffer b = ByteBuffer.allocate(n * 16);
+            for (int i = 0; i < n; i++) b.putLong(seqs[i]).putLong(offs[i]);
+            return b.array();
+        }
+        static SeqIndex fromBytes(byte[] raw) {
+            SeqIndex idx = new SeqIndex();
+            ByteBuffer b = ByteBuffer.wrap(raw);
+            while (b.remaining() >= 16) { long s = b.getLong(), o = b.getLong(); idx.put(s, o); }
+            return idx;
+        }
+        private void put(long seq, long off) {             // load path: keep every point as written
+            if (n == seqs.length) { seqs = Arrays.copyOf(seqs, n * 2); offs = Arrays.copyOf(offs, n * 2); }
+            seqs[n] = seq; offs[n] = off; n++;
+        }
+    }
 
-    private RandomAccessFile raf;
-    private FileChannel channel;
-    private BufferedWriter appender;
+    // ---- file state, guarded by io (flusher, open/reset/close) ----
+    private final Object io = new Object();
+    private FileChannel active;      // last segment; null until the first flush after open/reset
+    private RecordLog.Framer framer;
+    private FileChannel ackChannel;
+    private volatile long acked = -1;
+
+    /** Fsynced extent of the active segment; everything in sealed segments is durable. */
+    private record Durable(Path path, long position) {}
+    private volatile Durable durable = new Durable(null, 0);
+
+    // ---- queued entries, guarded by this ----
+    private ArrayList<Entry>  queued = new ArrayList<>();
+    private ArrayList<byte[]> queuedPayloads = new ArrayList<>();
+    private Thread flusher;
+    private volatile boolean running;
 
     public static final class Entry {
         public final long seq;
@@ -33,170 +110,320 @@ public final class Journal implements Closeable {
         }
     }
 
+    /** Durability window from -Dphase3.journal.fsyncMs (default 5) and -Dphase3.journal.fsyncEvery (default 32). */
     public Journal(Path dir) {
+        this(dir, Long.getLong("phase3.journal.fsyncMs", 5), Integer.getInteger("phase3.journal.fsyncEvery", 32));
+    }
+    public Journal(Path dir, long fsyncMs, int fsyncEvery) {
         this.dir = dir;
-        this.file = dir.resolve("cmd.journal");
-        this.tmpFile = dir.resolve("cmd.journal.tmp");
-        this.bakFile = dir.resolve("cmd.journal.bak");
+        this.ackFile = dir.resolve("cmd.ack");
+        this.single = dir.resolve("cmd.log");
+        this.legacy = dir.resolve("cmd.journal");
+        this.fsyncMs = Math.max(0, fsyncMs);
+        this.fsyncEvery = Math.max(1, fsyncEvery);
     }
 
     public void open() throws IOException {
-        Files.createDirectories(dir);
-        if (!Files.exists(file)) Files.createFile(file);
+        synchronized (io) {
+            Files.createDirectories(dir);
+            migrate();
+
+            segments.clear();
+            indexes.clear();
+            try (Stream<Path> s = Files.list(dir)) {
+                s.filter(p -> { String n = p.getFileName().toString(); return n.startsWith(PREFIX) && n.endsWith(LOG); })
+                 .forEach(p -> segments.put(firstSeq(p), p));
+            }
 
-        // Open low-level handles first
-        raf = new RandomAccessFile(file.toFile(), "rw");
-        channel = raf.getChannel();
+            ackChannel = FileChannel.open(ackFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer b = ByteBuffer.allocate(8);
+            acked = (ackChannel.read(b, 0) == 8) ? b.flip().getLong() : -1;
+
+            Map.Entry<Long, Path> last = segments.lastEntry();
+            if (last != null) {
+                active = FileChannel.open(last.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                // Cut any torn/corrupt tail from a previous crash; only the bytes after the last sync marker are read.
+                framer = new RecordLog.Framer(RecordLog.recover(active));
+                durable = new Durable(last.getValue(), framer.position());
+            } else {
+                durable = new Durable(null, 0);
+            }
+        }
+        if (fsyncMs > 0) {
+            running = true;
+            flusher = new Thread(this::flushLoop, "JournalFlusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
 
-        // Sanitize any torn/partial last line from a previous crash,
-        // then position to end for appends.
-        sanitizeTail();
-        raf.seek(raf.length());
+    /** Older layouts (cmd.journal NDJSON, single cmd.log) become the first segment. */
+    private void migrate() throws IOException {
+        Path tmp = dir.resolve("cmd.log.tmp");
+        if (!Files.exists(single) && Files.exists(legacy)) {
+            RecordLog.importNdjson(legacy, tmp);
+            Files.move(tmp, single, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(legacy);
+        }
+        if (!Files.exists(single)) return;
+        long[] first = {-1};
+        try (FileChannel ch = FileChannel.open(single, StandardOpenOption.READ)) {
+            RecordLog.scan(ch, 0, (off, payload) -> {
+                if (first[0] < 0) { Entry e = decode(payload); if (e != null) first[0] = Math.max(0, e.seq); }
+            });
+        }
+        if (first[0] < 0) Files.delete(single);
+        else Files.move(single, segmentPath(first[0]), StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(dir.resolve("cmd.log.bak"));
+    }
 
-        // Create the high-level appender AFTER sanitization/truncation
-        appender = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    private Path segmentPath(long firstSeq) { return dir.resolve(String.format("%s%019d%s", PREFIX, firstSeq, LOG)); }
+    private static Path indexPath(Path log) {
+        String n = log.getFileName().toString();
+        return log.resolveSibling(n.substring(0, n.length() - LOG.length()) + IDX);
     }
 
-    /**
-     * Truncate the journal at the first invalid JSON line.
-     * Streams line-by-line and computes the exact byte length using the same newline we write with.
-     */
-    private void sanitizeTail() throws IOException {
-        final String nl = System.lineSeparator();
-        long goodBytes = 0;
-
-        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
-            String ln;
-            while ((ln = br.readLine()) != null) {
-                try {
-                    M.readTree(ln); // validate JSON line
-                    // Count the bytes we actually wrote: line + newline
-                    goodBytes += (ln.getBytes(StandardCharsets.UTF_8).length + nl.getBytes(StandardCharsets.UTF_8).length);
-                } catch (Exception bad) {
-                    break; // stop at first bad/torn line
-                }
+    /** Index of a segment: cached, else its .idx (sealed segments), else rebuilt by one scan. */
+    private SeqIndex indexFor(Path log) throws IOException {
+        SeqIndex idx = indexes.get(log);
+        if (idx != null) return idx;
+        Path ip = indexPath(log);
+        if (Files.exists(ip)) {
+            idx = SeqIndex.fromBytes(Files.readAllBytes(ip));
+        } else {
+            SeqIndex built = new SeqIndex();
+            try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ)) {
+                RecordLog.scan(ch, 0, (off, payload) -> built.add(peekSeq(payload), off));
             }
+            idx = built;
         }
-
-        if (goodBytes < raf.length()) {
-            channel.truncate(goodBytes);
-            channel.force(true);
-        }
+        SeqIndex raced = indexes.putIfAbsent(log, idx);
+        return raced != null ? raced : idx;
+    }
+    private static long firstSeq(Path p) {
+        String n = p.getFileName().toString();
+        return Long.parseLong(n.substring(PREFIX.length(), n.length() - LOG.length()));
     }
 
-    /** Append one entry and fsync. */
-    public synchronized void append(Entry e) throws IOException {
+    /** Queue one entry; it is durable after the next flush (immediately if fsyncMs = 0). */
+    public void append(Entry e) throws IOException {
         ObjectNode line = M.createObjectNode();
         line.put("seq", e.seq);
         line.put("mac", e.macHex);
         line.set("cmd", e.cmdNode);
+        byte[] payload = M.writeValueAsBytes(line);
 
-        String s = line.toString();
-        appender.write(s);
-        appender.write(System.lineSeparator());
-        appender.flush();
+        synchronized (this) {
+            queued.add(e);
+            queuedPayloads.add(payload);
+            if (queued.size() >= fsyncEvery) notifyAll();
+        }
+        if (!running) flush();
+    }
 
-        // Durability: we write via 'appender' but fsync via the underlying channel.
-        // It's the same inode; force(true) ensures metadata + data hit disk.
-        channel.force(true);
+    /** Write and fsync everything queued so far (the flusher does this every fsyncMs). */
+    public void flush() throws IOException {
+        synchronized (io) {
+            ArrayList<Entry> entries;
+            ArrayList<byte[]> payloads;
+            synchronized (this) {
+                if (queued.isEmpty()) return;
+                entries = queued;          queued = new ArrayList<>();
+                payloads = queuedPayloads; queuedPayloads = new ArrayList<>();
+            }
+            if (ackChannel == null) throw new IOException("journal closed");
+
+            int from = 0;
+            while (from < entries.size()) {
+                if (active == null || framer.position() >= segmentBytes) rotate(entries.get(from).seq);
+                // fill the active segment up to its size budget, then rotate for the rest
+                int to = from;
+                long room = segmentBytes - framer.position();
+                do { room -= RecordLog.HEADER + payloads.get(to).length; to++; }
+                while (to < entries.size() && room > 0);
+                long[] offsets = write(payloads.subList(from, to));
+                SeqIndex idx = indexFor(durable.path());
+                for (int i = 0; i < offsets.length; i++) idx.add(entries.get(from + i).seq, offsets[i]);
+                from = to;
+            }
+            active.force(false);
+            durable = new Durable(durable.path(), framer.position());
+        }
     }
 
-    /** Read entries with seq > fromSeq (exclusive). Tolerates bad lines. */
-    public List<Entry> readAfter(long fromSeq) throws IOException {
-        List<Entry> out = new ArrayList<>();
-        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
-            String ln;
-            while ((ln = br.readLine()) != null) {
-                final JsonNode n;
-                try {
-                    n = M.readTree(ln);
-                } catch (Exception bad) {
-                    // skip malformed/torn lines, keep going
-                    continue;
-                }
+    /** Frame and write one batch into the active segment; returns each record's offset. */
+    private long[] write(List<byte[]> batch) throws IOException {
+        long[] offsets = new long[batch.size()];
+        long at = framer.position();
+        ByteBuffer buf = framer.frame(batch, offsets);
+        try {
+            while (buf.hasRemaining()) at += active.write(buf, at);
+        } catch (IOException io) {
+            framer = new RecordLog.Framer(RecordLog.recover(active));   // drop the partial batch
+            throw io;
+        }
+        return offsets;
+    }
 
-                long seq = n.path("seq").asLong(-1);
-                if (seq <= fromSeq) continue;
+    /** Start a new segment whose first entry is {@code seq}; the old one is forced first so it is fully durable. */
+    private void rotate(long seq) throws IOException {
+        if (active != null) {
+            active.force(false);
+            active.close();
+            Path sealed = durable.path();
+            SeqIndex idx = indexes.get(sealed);
+            if (idx != null) Files.write(indexPath(sealed), idx.toBytes());   // best effort: rebuilt if lost
+        }
+        Path p = segmentPath(Math.max(0, seq));
+        active = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        framer = new RecordLog.Framer(RecordLog.recover(active));
+        durable = new Durable(p, framer.position());
+        segments.put(firstSeq(p), p);
+        indexes.putIfAbsent(p, new SeqIndex());
+    }
 
-                String mac = n.path("mac").asText("");
-                JsonNode cmdNode = n.get("cmd");
-                if (cmdNode == null || !cmdNode.isObject()) {
-                    // malformed entry; skip
-                    continue;
+    private void flushLoop() {
+        while (running) {
+            try {
+                synchronized (this) {
+                    if (queued.size() < fsyncEvery) wait(fsyncMs);
                 }
-
-                out.add(new Entry(seq, mac, (ObjectNode) cmdNode));
+                flush();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                System.err.println("[Journal] flush failed: " + e.getMessage());
             }
         }
+    }
+
+    /** Read durable entries with seq > fromSeq (exclusive) that are not acked yet. Stops at a torn tail; skips invalid entries. */
+    public List<Entry> readAfter(long fromSeq) throws IOException {
+        List<Entry> out = new ArrayList<>();
+        readAfter(fromSeq, out::add);
         return out;
     }
 
-    /**
-     * Compact journal to keep only entries with seq > keepAfter (exclusive).
-     * Windows-safe: we close all writers/channels BEFORE doing atomic moves.
-     */
-    public synchronized void compact(long keepAfter) throws IOException {
-        // Build the compacted temp file first
-        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8);
-             BufferedWriter bw = Files.newBufferedWriter(
-                     tmpFile, StandardCharsets.UTF_8,
-                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-
-            String ln;
-            while ((ln = br.readLine()) != null) {
-                JsonNode n;
-                try {
-                    n = M.readTree(ln);
-                } catch (Exception ignore) {
-                    continue; // skip malformed lines
-                }
-                long seq = n.path("seq").asLong(-1);
-                if (seq > keepAfter) {
-                    bw.write(ln);
-                    bw.write(System.lineSeparator());
-                }
-            }
+    /** Streaming form of {@link #readAfter(long)}: entries go to {@code sink} in seq order as they are read. */
+    public void readAfter(long fromSeq, Consumer<Entry> sink) throws IOException {
+        final long from = Math.max(fromSeq, acked);
+        final Durable d = durable;
+        Long start = segments.floorKey(from + 1);
+        for (Path p : (start == null ? segments : segments.tailMap(start)).values()) {
+            boolean isActive = p.equals(d.path());
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                long seek = indexFor(p).floorOffset(from + 1);
+                RecordLog.scan(ch, seek, isActive ? d.position() : Long.MAX_VALUE, (off, payload) -> {
+                    if (peekSeq(payload) <= from) return;                 // skipped without a JSON parse
+                    Entry e = decode(payload);
+                    if (e != null && e.seq > from) sink.accept(e);
+                });
+            } catch (NoSuchFileException gone) { /* compacted meanwhile: everything in it was acked */ }
+            if (isActive) break;                                   // later segments are not durable yet
         }
+    }
 
-        // Close open handles BEFORE moving files (important on Windows)
-        closeInternal();
+    /** Seq of an entry, read from the {"seq":N,... prefix append writes; falls back to a full parse. */
+    private static long peekSeq(byte[] p) {
+        final byte[] head = {'{', '"', 's', 'e', 'q', '"', ':'};
+        if (p.length > head.length && Arrays.equals(p, 0, head.length, head, 0, head.length)) {
+            int i = head.length;
+            boolean neg = p[i] == '-';
+            if (neg) i++;
+            long v = 0;
+            int digits = 0;
+            while (i < p.length && p[i] >= '0' && p[i] <= '9' && digits < 18) { v = v * 10 + (p[i++] - '0'); digits++; }
+            if (digits > 0 && i < p.length && (p[i] == ',' || p[i] == '}')) return neg ? -v : v;
+        }
+        Entry e = decode(p);
+        return e == null ? Long.MIN_VALUE : e.seq;
+    }
 
-        // Backup old, then replace with tmp
-        if (Files.exists(bakFile)) Files.delete(bakFile);
-        Files.move(file, bakFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    private static Entry decode(byte[] payload) {
+        final JsonNode n;
+        try { n = M.readTree(payload); }
+        catch (Exception bad) { return null; }
+        long seq = n.path("seq").asLong(-1);
+        JsonNode cmdNode = n.get("cmd");
+        if (cmdNode == null || !cmdNode.isObject()) return null;   // malformed entry
+        return new Entry(seq, n.path("mac").asText(""), (ObjectNode) cmdNode);
+    }
 
-        // Reopen appender/channel/raf at end of file
-        open();
+    /**
+     * Mark everything up to {@code keepAfter} as acked: the watermark is overwritten in place (no fsync; losing it
+     * only replays entries the server reports as dup) and segments whose successor starts at or below
+     * keepAfter + 1 are deleted. The active segment is never deleted.
+     */
+    public void compact(long keepAfter) throws IOException {
+        synchronized (io) {
+            if (keepAfter <= acked || ackChannel == null) return;
+            Phase3Events.JournalCompact jfr = null;
+            if (Phase3Events.JOURNAL_COMPACT.isEnabled()) { jfr = new Phase3Events.JournalCompact(); jfr.begin(); }
+            ackChannel.write(ByteBuffer.allocate(8).putLong(0, keepAfter), 0);
+            acked = keepAfter;
+
+            int deleted = 0;
+            while (segments.size() > 1) {
+                Map.Entry<Long, Path> head = segments.firstEntry();
+                Long next = segments.higherKey(head.getKey());
+                if (next == null || next > keepAfter + 1) break;
+                segments.remove(head.getKey());
+                indexes.remove(head.getValue());
+                Files.deleteIfExists(head.getValue());
+                Files.deleteIfExists(indexPath(head.getValue()));
+                deleted++;
+            }
+            if (jfr != null) { jfr.keepAfter = keepAfter; jfr.segmentsDeleted = deleted; jfr.commit(); }
+        }
     }
 
-    /** Reset fully (e.g., after RESUME_RESET). */
-    public synchronized void reset() throws IOException {
-        closeInternal();
-        Files.deleteIfExists(file);
-        Files.deleteIfExists(tmpFile);
-        Files.deleteIfExists(bakFile);
+    public long acked() { return acked; }
+
+    /** Reset fully (e.g., after RESUME_RESET); queued entries are dropped. */
+    public void reset() throws IOException {
+        stopFlusher();
+        synchronized (io) {
+            synchronized (this) { queued.clear(); queuedPayloads.clear(); }
+            closeInternal();
+            for (Path p : segments.values()) { Files.deleteIfExists(p); Files.deleteIfExists(indexPath(p)); }
+            segments.clear();
+            indexes.clear();
+            Files.deleteIfExists(ackFile);
+            Files.deleteIfExists(single);
+            Files.deleteIfExists(legacy);
+        }
         open();
     }
 
+    /** Flushes what is queued, then closes the files. */
     @Override
     public void close() throws IOException {
-        closeInternal();
+        stopFlusher();
+        synchronized (io) {
+            try { flush(); }
+            finally { closeInternal(); }
+        }
+    }
+
+    private void stopFlusher() {
+        running = false;
+        Thread t = flusher;
+        flusher = null;
+        if (t == null) return;
+        synchronized (this) { notifyAll(); }
+        try { t.join(1_000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
     }
 
     private void closeInternal() throws IOException {
         IOException first = null;
-        try { if (appender != null) appender.close(); }
-        catch (IOException ex) { first = (first == null ? ex : first); }
-        finally { appender = null; }
-
-        try { if (channel != null) channel.close(); }
-        catch (IOException ex) { first = (first == null ? ex : first); }
-        finally { channel = null; }
+        try { if (active != null) { active.force(false); active.close(); } }
+        catch (IOException ex) { first = ex; }
+        finally { active = null; framer = null; }
 
-        try { if (raf != null) raf.close(); }
+        try { if (ackChannel != null) ackChannel.close(); }
         catch (IOException ex) { first = (first == null ? ex : first); }
-        finally { raf = null; }
+        finally { ackChannel = null; }
 
         if (first != null) throw first;
     }
@@ -0,0 +1,80 @@
+package common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/** JDK Flight Recorder events for the hot paths.
+ *  – All are @Enabled(false): a recording has to ask for them (phase3.jfr=on does, or a .jfc with
+ *    phase3.*#enabled=true). Call sites check the EventType first, so with no recording nothing is allocated.
+ *  – Usage: {@code X ev = null; if (X_TYPE.isEnabled()) { ev = new X(); ev.begin(); } … if (ev != null) { …; ev.commit(); }}
+ */
+public final class Phase3Events {
+    private Phase3Events() {}
+
+    @Name("phase3.RoomTick") @Label("Room Tick") @Category({"Phase3", "Server"})
+    @Enabled(false) @StackTrace(false)
+    public static final class RoomTick extends Event {
+        @Label("Room") public String roomId;
+        @Label("Tick") public long tick;
+        @Label("Commands") public int commands;
+        @Label("Packets") public int packets;
+    }
+
+    @Name("phase3.SnapshotEncode") @Label("Snapshot Encode") @Category({"Phase3", "Server"})
+    @Enabled(false) @StackTrace(false)
+    public static final class SnapshotEncode extends Event {
+        @Label("Session") public String sid;
+        @Label("Size") @DataAmount public int bytes;
+    }
+
+    @Name("phase3.CommandApply") @Label("Command Apply") @Category({"Phase3", "Server"})
+    @Enabled(false) @StackTrace(false)
+    public static final class CommandApply extends Event {
+        @Label("Type") public String type;
+        @Label("Seq") public long seq;
+        @Label("Outcome") public String outcome;     // ok | error | ignored
+    }
+
+    @Name("phase3.StoreAppend") @Label("Store Append") @Category({"Phase3", "Storage"})
+    @Enabled(false) @StackTrace(false)
+    public static final class StoreAppend extends Event {
+        @Label("Events") public int events;
+        @Label("Size") @DataAmount public long bytes;
+        @Label("Oldest Wait") @Timespan public long oldestWaitNs;   // enqueue of the batch's first event → write
+    }
+
+    @Name("phase3.JournalCompact") @Label("Journal Compact") @Category({"Phase3", "Client"})
+    @Enabled(false) @StackTrace(false)
+    public static final class JournalCompact extends Event {
+        @Label("Keep After Seq") public long keepAfter;
+        @Label("Segments Deleted") public int segmentsDeleted;
+    }
+
+    @Name("phase3.TickOverrun") @Label("Tick Overrun") @Category({"Phase3", "Server"})
+    @Enabled(false) @StackTrace(false)
+    public static final class TickOverrun extends Event {
+        @Label("Duration") @Timespan public long tickNs;
+        @Label("Threshold") @Timespan public long thresholdNs;
+        @Label("Rooms") public int rooms;
+        @Label("Dumped") public boolean dumped;
+    }
+
+    public static final EventType ROOM_TICK       = EventType.getEventType(RoomTick.class);
+    public static final EventType SNAPSHOT_ENCODE = EventType.getEventType(SnapshotEncode.class);
+    public static final EventType COMMAND_APPLY   = EventType.getEventType(CommandApply.class);
+    public static final EventType STORE_APPEND    = EventType.getEventType(StoreAppend.class);
+    public static final EventType JOURNAL_COMPACT = EventType.getEventType(JournalCompact.class);
+    public static final EventType TICK_OVERRUN    = EventType.getEventType(TickOverrun.class);
+
+    /** Every event class, for recordings that enable the whole set. */
+    public static final java.util.List<Class<? extends Event>> ALL = java.util.List.of(
+            RoomTick.class, SnapshotEncode.class, CommandApply.class, StoreAppend.class,
+            JournalCompact.class, TickOverrun.class);
+}
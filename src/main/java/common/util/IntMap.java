@@ -0,0 +1,103 @@
+package common.util;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Open-addressing map from primitive int keys to objects (linear probing, no boxing).
+ * Not thread-safe; meant for single-threaded sim state such as id lookups.
+ */
+public final class IntMap<V> {
+    private static final int FREE = Integer.MIN_VALUE;  // reserved: cannot be used as a key
+
+    private int[]    keys;
+    private Object[] vals;
+    private int      size;
+    private int      mask;
+
+    public IntMap() { this(16); }
+    public IntMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new int[cap];
+        vals = new Object[cap];
+        mask = cap - 1;
+        Arrays.fill(keys, FREE);
+    }
+
+    public int size()        { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int i = slot(key);
+        return keys[i] == key ? (V) vals[i] : null;
+    }
+
+    public boolean containsKey(int key) { return keys[slot(key)] == key; }
+
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (key == FREE) throw new IllegalArgumentException("reserved key " + key);
+        int i = slot(key);
+        if (keys[i] == key) { V old = (V) vals[i]; vals[i] = value; return old; }
+        keys[i] = key; vals[i] = value;
+        if (++size * 2 > keys.length) rehash(keys.length << 1);
+        return null;
+    }
+
+    public V computeIfAbsent(int key, IntFunction<? extends V> fn) {
+        V v = get(key);
+        if (v == null) { v = fn.apply(key); put(key, v); }
+        return v;
+    }
+
+    /** Removes with backward-shift deletion so probe chains stay intact (no tombstones). */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int i = slot(key);
+        if (keys[i] != key) return null;
+        V old = (V) vals[i];
+        int hole = i;
+        for (int j = (hole + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+            int home = mix(keys[j]) & mask;
+            // move j into the hole unless its home lies cyclically in (hole, j]
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j]; vals[hole] = vals[j]; hole = j;
+            }
+        }
+        keys[hole] = FREE; vals[hole] = null;
+        size--;
+        return old;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        Arrays.fill(vals, null);
+        size = 0;
+    }
+
+    /** Visit every entry; the map must not be modified during the walk. */
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<? super V> v) {
+        for (int i = 0; i < keys.length; i++) if (keys[i] != FREE) v.accept(keys[i], (V) vals[i]);
+    }
+    @FunctionalInterface
+    public interface Visitor<V> { void accept(int key, V value); }
+
+    // ---------- internals ----------
+    private int slot(int key) {
+        int i = mix(key) & mask;
+        while (keys[i] != FREE && keys[i] != key) i = (i + 1) & mask;
+        return i;
+    }
+    private static int mix(int k) { int h = k * 0x9E3779B9; return h ^ (h >>> 16); }
+
+    private void rehash(int cap) {
+        int[] ok = keys; Object[] ov = vals;
+        keys = new int[cap]; vals = new Object[cap]; mask = cap - 1; size = 0;
+        Arrays.fill(keys, FREE);
+        for (int i = 0; i < ok.length; i++) if (ok[i] != FREE) {
+            int j = slot(ok[i]); keys[j] = ok[i]; vals[j] = ov[i]; size++;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package common.util;
+
+/** Epoch microseconds that never step backwards: wall time sampled once, then advanced by nanoTime.
+ *  Client and server each run their own; command tracing corrects the offset between them (PING/PONG). */
+public final class MicroClock {
+    private static final long BASE_US = System.currentTimeMillis() * 1_000L;
+    private static final long BASE_NS = System.nanoTime();
+
+    private MicroClock() {}
+
+    public static long nowUs() { return toUs(System.nanoTime()); }
+
+    /** Convert an earlier {@link System#nanoTime()} reading. */
+    public static long toUs(long nanoTime) { return BASE_US + (nanoTime - BASE_NS) / 1_000L; }
+}
@@ -0,0 +1,214 @@
+package common.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Length-prefixed, checksummed append-only record format shared by the server Store and the client Journal.
+ * <pre>
+ *   record : int len | int crc32c(len, payload) | payload[len]
+ *   sync   : int -1  | int SYNC_MAGIC          | long offsetOfThisMarker
+ * </pre>
+ * A sync marker is written before the first record that starts at least {@link #SYNC_EVERY} bytes after the
+ * previous one, so crash recovery only scans back to the last marker and validates forward from there.
+ */
+public final class RecordLog {
+    public static final int HEADER     = 8;
+    public static final int SYNC_LEN   = 16;
+    public static final int SYNC_MAGIC = 0x53594E43;          // "SYNC"
+    public static final int SYNC_EVERY = 64 * 1024;
+    public static final int MAX_RECORD = 16 << 20;
+
+    private RecordLog() {}
+
+    @FunctionalInterface
+    public interface Visitor { void accept(long offset, byte[] payload) throws IOException; }
+
+    // ---------- writing ----------
+
+    /** Frames payloads for appending at a known file offset and decides where sync markers go. */
+    public static final class Framer {
+        private long position;
+        private long lastSync;
+
+        public Framer(long position) { this.position = position; this.lastSync = position; }
+
+        public long position() { return position; }
+
+        /** One buffer (flipped, ready to write at {@link #position()} before the call) for all payloads. */
+        public ByteBuffer frame(List<byte[]> payloads) { return frame(payloads, null); }
+
+        /** As {@link #frame(List)}, also storing each record's file offset into {@code offsets} (may be null). */
+        public ByteBuffer frame(List<byte[]> payloads, long[] offsets) {
+            int cap = SYNC_LEN;
+            for (byte[] p : payloads) cap += HEADER + p.length + SYNC_LEN;
+            ByteBuffer out = ByteBuffer.allocate(cap);
+            for (int i = 0; i < payloads.size(); i++) {
+                byte[] p = payloads.get(i);
+                if (p.length > MAX_RECORD) throw new IllegalArgumentException("record too large: " + p.length);
+                if (position - lastSync >= SYNC_EVERY) {
+                    out.putInt(-1).putInt(SYNC_MAGIC).putLong(position);
+                    lastSync = position;
+                    position += SYNC_LEN;
+                }
+                if (offsets != null) offsets[i] = position;
+                out.putInt(p.length).putInt(crc(p.length, p)).put(p);
+                position += HEADER + p.length;
+            }
+            return out.flip();
+        }
+    }
+
+    public static int crc(int len, byte[] payload) {
+        CRC32C c = new CRC32C();
+        c.update(len >>> 24); c.update(len >>> 16); c.update(len >>> 8); c.update(len);
+        c.update(payload, 0, payload.length);
+        return (int) c.getValue();
+    }
+
+    // ---------- reading ----------
+
+    /** Visit every valid record from {@code start}; returns the offset just past the last valid one. */
+    public static long scan(FileChannel ch, long start, Visitor v) throws IOException {
+        return scan(ch, start, ch.size(), v);
+    }
+
+    /** As {@link #scan(FileChannel, long, Visitor)}, ignoring bytes at or past {@code limit}. */
+    public static long scan(FileChannel ch, long start, long limit, Visitor v) throws IOException {
+        limit = Math.min(limit, ch.size());
+        ch.position(start);
+        InputStream raw = Channels.newInputStream(ch);          // not closed: that would close ch
+        return scan(new DataInputStream(new BufferedInputStream(raw, 64 * 1024)), start, limit, v);
+    }
+
+    /** Stream variant: {@code limit} is the absolute offset where the data ends. */
+    public static long scan(DataInputStream in, long start, long limit, Visitor v) throws IOException {
+        long pos = start;
+        try {
+            while (pos + HEADER <= limit) {
+                int len = in.readInt();
+                int crc = in.readInt();
+                if (len == -1) {
+                    if (crc != SYNC_MAGIC || pos + SYNC_LEN > limit || in.readLong() != pos) break;
+                    pos += SYNC_LEN;
+                    continue;
+                }
+                if (len < 0 || len > MAX_RECORD || pos + HEADER + len > limit) break;
+                byte[] payload = new byte[len];
+                in.readFully(payload);
+                if (crc(len, payload) != crc) break;
+                if (v != null) v.accept(pos, payload);
+                pos += HEADER + len;
+            }
+        } catch (EOFException torn) { /* stop at the last complete record */ }
+        return pos;
+    }
+
+    /** Decode the record at {@code offset} of a mapped/whole-file buffer; null if it is not a valid record. */
+    public static byte[] readAt(ByteBuffer file, long offset) {
+        if (offset < 0 || offset + HEADER > file.limit()) return null;
+        int at = (int) offset;
+        int len = file.getInt(at), crc = file.getInt(at + 4);
+        if (len < 0 || len > MAX_RECORD || (long) at + HEADER + len > file.limit()) return null;
+        byte[] payload = new byte[len];
+        file.get(at + HEADER, payload);
+        return crc(len, payload) == crc ? payload : null;
+    }
+
+    // ---------- recovery ----------
+
+    /**
+     * Truncate a torn/corrupt tail. Looks backwards for the last sync marker (or the file start),
+     * validates records forward from it and cuts the file after the last good one. Cost is O(tail).
+     */
+    public static long recover(FileChannel ch) throws IOException {
+        long size = ch.size();
+        long from = lastSyncBefore(ch, size);
+        long good = scan(ch, from, null);
+        if (good < size) {
+            ch.truncate(good);
+            ch.force(true);
+        }
+        ch.position(good);
+        return good;
+    }
+
+    /** Offset of the last sync marker at or before {@code end}, or 0 if there is none. */
+    public static long lastSyncBefore(FileChannel ch, long end) throws IOException {
+        final int chunk = SYNC_EVERY;
+        ByteBuffer buf = ByteBuffer.allocate(chunk + SYNC_LEN);
+        long hi = end;
+        while (hi > 0) {
+            long lo = Math.max(0, hi - chunk);
+            int n = (int) Math.min(end - lo, buf.capacity());     // overlap so a marker spanning chunks is seen
+            buf.clear().limit(n);
+            while (buf.hasRemaining() && ch.read(buf, lo + buf.position()) > 0) { /* fill */ }
+            n = buf.position();
+            for (int i = n - SYNC_LEN; i >= 0; i--) {
+                if (buf.getInt(i) == -1 && buf.getInt(i + 4) == SYNC_MAGIC && buf.getLong(i + 8) == lo + i) return lo + i;
+            }
+            hi = lo;
+        }
+        return 0;
+    }
+
+    // ---------- NDJSON interop (legacy import, tools.LogTool) ----------
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    /** Write every parseable JSON line of {@code ndjson} as a record into a new file {@code out}; returns the count. */
+    public static long importNdjson(Path ndjson, Path out) throws IOException {
+        long n = 0;
+        try (BufferedReader br = Files.newBufferedReader(ndjson, StandardCharsets.UTF_8);
+             FileChannel ch = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                               StandardOpenOption.WRITE)) {
+            Framer framer = new Framer(0);
+            ArrayList<byte[]> batch = new ArrayList<>();
+            String ln;
+            while ((ln = br.readLine()) != null) {
+                if (ln.isBlank()) continue;
+                try { JSON.readTree(ln); } catch (Exception torn) { continue; }
+                batch.add(ln.getBytes(StandardCharsets.UTF_8));
+                if (batch.size() == 512) { n += writeAll(ch, framer, batch); batch.clear(); }
+            }
+            n += writeAll(ch, framer, batch);
+            ch.force(true);
+        }
+        return n;
+    }
+    private static int writeAll(FileChannel ch, Framer framer, List<byte[]> batch) throws IOException {
+        ByteBuffer buf = framer.frame(batch);
+        while (buf.hasRemaining()) ch.write(buf);
+        return batch.size();
+    }
+
+    /** Write each valid record's payload of {@code log} as one line to {@code out}; returns the count. */
+    public static long exportNdjson(Path log, Writer out) throws IOException {
+        long[] n = {0};
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ)) {
+            scan(ch, 0, (off, payload) -> {
+                out.write(new String(payload, StandardCharsets.UTF_8));
+                out.write('\n');
+                n[0]++;
+            });
+        }
+        out.flush();
+        return n[0];
+    }
+}
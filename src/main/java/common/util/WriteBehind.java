@@ -0,0 +1,104 @@
+package common.util;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Background writer for whole-file snapshots (gameConfig.json, levels.json, gameStatus.json).
+ * – {@link #save} only records "this path should contain what {@code encode} returns"; the encoder runs
+ *   on the writer thread, so callers hand over immutable snapshots and never touch the disk themselves.
+ * – Saves of the same path coalesce: a newer request replaces a pending one, only the last state is written.
+ * – Each file is replaced atomically (temp file in the same directory + move), so a crash leaves the old or
+ *   the new content, never a torn file.
+ * – {@link #flush()} blocks until everything requested so far is on disk; it also runs from a shutdown hook.
+ */
+public final class WriteBehind {
+    private static WriteBehind instance;
+
+    private final LinkedHashMap<Path, Callable<byte[]>> pending = new LinkedHashMap<>();
+    private long requested, written;          // request sequence numbers, guarded by this
+    private long coalesced;
+
+    private WriteBehind() {
+        Thread t = new Thread(this::run, "WriteBehind");
+        t.setDaemon(true);
+        t.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "WriteBehind-flush"));
+    }
+
+    public static synchronized WriteBehind getInstance() {
+        if (instance == null) instance = new WriteBehind();
+        return instance;
+    }
+
+    /** Queue a replacement of {@code path}; {@code encode} is called later, on the writer thread. */
+    public synchronized void save(Path path, Callable<byte[]> encode) {
+        if (pending.put(path.toAbsolutePath().normalize(), encode) != null) coalesced++;
+        requested++;
+        notifyAll();
+    }
+
+    /** Wait until every save requested before this call has been written (or has failed). */
+    public synchronized void flush() {
+        long target = requested;
+        boolean interrupted = false;
+        while (written < target) {
+            try { wait(); } catch (InterruptedException e) { interrupted = true; }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /** Saves that were superseded before they reached the disk. */
+    public synchronized long coalesced() { return coalesced; }
+
+    // ---------- writer thread ----------
+
+    private void run() {
+        while (true) {
+            List<Path> paths;
+            List<Callable<byte[]>> jobs;
+            long upTo;
+            synchronized (this) {
+                while (pending.isEmpty()) {
+                    try { wait(); } catch (InterruptedException e) { return; }
+                }
+                paths = new ArrayList<>(pending.keySet());
+                jobs  = new ArrayList<>(pending.values());
+                pending.clear();
+                upTo = requested;
+            }
+            for (int i = 0; i < paths.size(); i++) write(paths.get(i), jobs.get(i));
+            synchronized (this) {
+                written = upTo;
+                notifyAll();
+            }
+        }
+    }
+
+    private static void write(Path path, Callable<byte[]> encode) {
+        try {
+            byte[] bytes = encode.call();
+            if (bytes == null) return;
+            Path dir = path.getParent();
+            if (dir != null) Files.createDirectories(dir);
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.write(tmp, bytes);
+            try {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.err.println("[WriteBehind] save " + path + " failed: " + e.getMessage());
+        } catch (Exception e) {
+            System.err.println("[WriteBehind] encoding " + path + " failed: " + e);
+        }
+    }
+}
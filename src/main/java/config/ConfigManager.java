@@ -66,26 +66,35 @@ package config;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.*;
-import java.nio.file.attribute.FileTime;
 import java.util.List;
-
+import java.util.Set;
+
+/** Current level configs as one immutable {@link Snapshot}.
+ *  – Readers only do a volatile read; whoever keeps a snapshot (e.g. a room's level template) keeps using it.
+ *  – The menu level pack is held as a {@link LevelIndex} (names + byte ranges); levels are parsed on demand.
+ *  – A background WatchService thread reloads when levels.json / gameConfig.json change on disk: it parses
+ *    off-thread, validates every level, and swaps the snapshot atomically. A file that fails to parse or
+ *    validate is rejected and the previous snapshot stays.
+ */
 public final class ConfigManager {
     private static final Path LEVELS_PATH = Paths.get("levels.json");
     private static final Path GAME_PATH   = Paths.get("gameConfig.json");
+    /** Quiet period after the last change event before reloading (editors write in several steps). */
+    private static final long SETTLE_MS = Long.getLong("phase3.config.settleMs", 150);
 
-    private static ConfigManager instance;
-
-    private volatile List<GameConfig> allLevels = List.of();
-    private volatile GameConfig config;
+    /** Main level (parsed) + menu levels (indexed), loaded together. */
+    public record Snapshot(GameConfig config, LevelIndex levels, long version) {}
 
-    private volatile FileTime levelsLastMod = FileTime.fromMillis(0);
-    private volatile FileTime gameLastMod   = FileTime.fromMillis(0);
+    private static ConfigManager instance;
 
+    private volatile Snapshot snapshot;
     private final Object reloadLock = new Object();
 
     private ConfigManager() {
         forceReload();
+        startWatcher();
     }
 
     public static synchronized ConfigManager getInstance() {
@@ -95,79 +104,116 @@ public final class ConfigManager {
 
     /** Public manual reload if you want a button/menu item to refresh. */
     public void forceReload() {
-        synchronized (reloadLock) {
-            try {
-                // ---- Load main level (the one being played) ----
-                List<GameConfig> mainLevels = loadLevelsPreferringDiskThenClasspath(GAME_PATH, "gameConfig.json");
-                if (mainLevels.isEmpty()) {
-                    throw new IllegalStateException("No levels found in gameConfig.json (disk or classpath).");
-                }
-                config = mainLevels.get(0); // avoid getFirst() for wider Java compatibility
-
-                // ---- Build menu list (all levels) ----
-                List<GameConfig> menuLevels;
-                if (Files.exists(LEVELS_PATH)) {
-                    menuLevels = ConfigLoader.loadLevels(LEVELS_PATH);
-                    levelsLastMod = Files.getLastModifiedTime(LEVELS_PATH);
-                } else if (mainLevels.size() > 1) {
-                    // If gameConfig.json contains a wrapper with multiple levels, use it
-                    menuLevels = mainLevels;
-                } else {
-                    // Finally, try classpath levels.json
-                    try (InputStream in = resource("levels.json")) {
-                        menuLevels = (in != null) ? ConfigLoader.loadLevels(in) : mainLevels;
-                    }
-                }
-                allLevels = List.copyOf(menuLevels);
-
-                // Record timestamps for hot-reload checks
-                if (Files.exists(GAME_PATH))   gameLastMod   = Files.getLastModifiedTime(GAME_PATH);
-                if (Files.exists(LEVELS_PATH)) levelsLastMod = Files.getLastModifiedTime(LEVELS_PATH);
-
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to load configuration", e);
-            }
+        try {
+            swapIn(load(false));
+        } catch (Exception e) {
+            if (snapshot == null) throw new RuntimeException("Failed to load configuration", e);
+            System.err.println("[Config] reload rejected, keeping v" + snapshot.version() + ": " + e.getMessage());
         }
     }
 
-    public GameConfig getConfig() {
-        reloadIfChanged();
-        return config;
-    }
+    public Snapshot snapshot()           { return snapshot; }
+    public GameConfig getConfig()        { return snapshot.config(); }
+    public LevelIndex getLevelIndex()    { return snapshot.levels(); }
 
+    /** Every menu level, parsed now (a full pass over the pack; prefer {@link #getLevelIndex()}). */
     public List<GameConfig> getAllLevels() {
-        reloadIfChanged();
-        return allLevels;
+        try { return snapshot.levels().loadAll(); }
+        catch (IOException e) { throw new UncheckedIOException(e); }
     }
 
     // ---------- Internals ----------
 
-    private void reloadIfChanged() {
-        try {
-            boolean changed = false;
+    /** Scan both files into a new snapshot. Strict (hot reload): a broken disk file fails instead of
+     *  falling back to the classpath copy, and every level is parsed and validated before the swap. */
+    private Snapshot load(boolean strict) throws Exception {
+        // ---- Load main level (the one being played) ----
+        LevelIndex main = strict && Files.exists(GAME_PATH)
+                ? LevelIndex.scan(Files.readAllBytes(GAME_PATH))
+                : indexPreferringDiskThenClasspath(GAME_PATH, "gameConfig.json");
+        if (main == null || main.size() == 0) {
+            throw new IllegalStateException("No levels found in gameConfig.json (disk or classpath).");
+        }
 
-            if (Files.exists(LEVELS_PATH)) {
-                FileTime t = Files.getLastModifiedTime(LEVELS_PATH);
-                if (t.compareTo(levelsLastMod) > 0) changed = true;
+        // ---- Menu list (all levels) ----
+        LevelIndex menu;
+        if (Files.exists(LEVELS_PATH)) {
+            menu = LevelIndex.scan(Files.readAllBytes(LEVELS_PATH));
+        } else if (main.size() > 1) {
+            // If gameConfig.json contains a wrapper with multiple levels, use it
+            menu = main;
+        } else {
+            // Finally, try classpath levels.json
+            try (InputStream in = resource("levels.json")) {
+                menu = (in != null) ? LevelIndex.scan(in.readAllBytes()) : main;
             }
+        }
 
-            if (Files.exists(GAME_PATH)) {
-                FileTime t = Files.getLastModifiedTime(GAME_PATH);
-                if (t.compareTo(gameLastMod) > 0) changed = true;
+        GameConfig cfg = main.load(0);
+        if (strict) menu.loadAll();            // parse + validate everything before it goes live
+        return new Snapshot(cfg, menu, 0);
+    }
+
+    private void swapIn(Snapshot loaded) {
+        synchronized (reloadLock) {
+            long v = (snapshot == null) ? 1 : snapshot.version() + 1;
+            snapshot = new Snapshot(loaded.config(), loaded.levels(), v);
+        }
+    }
+
+    private void startWatcher() {
+        Path dir = LEVELS_PATH.toAbsolutePath().getParent();
+        WatchService ws;
+        try {
+            ws = dir.getFileSystem().newWatchService();
+            dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("[Config] hot reload disabled: " + e.getMessage());
+            return;
+        }
+        Thread t = new Thread(() -> watch(ws), "ConfigWatcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void watch(WatchService ws) {
+        Set<Path> names = Set.of(LEVELS_PATH.getFileName(), GAME_PATH.getFileName());
+        try {
+            while (true) {
+                boolean relevant = drain(ws.take(), names);
+                if (!relevant) continue;
+                // let the writer finish: keep absorbing events until SETTLE_MS pass without one
+                WatchKey k;
+                while ((k = ws.poll(SETTLE_MS, java.util.concurrent.TimeUnit.MILLISECONDS)) != null) drain(k, names);
+                try {
+                    swapIn(load(true));
+                    System.out.println("[Config] reloaded v" + snapshot.version()
+                            + " (" + snapshot.levels().size() + " levels)");
+                } catch (Exception e) {
+                    System.err.println("[Config] reload rejected, keeping v" + snapshot.version() + ": " + e.getMessage());
+                }
             }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // exit
+        }
+    }
 
-            if (changed) forceReload();
-        } catch (IOException e) {
-            // Non-fatal: keep old config and log
-            e.printStackTrace();
+    private static boolean drain(WatchKey key, Set<Path> names) {
+        boolean relevant = false;
+        for (WatchEvent<?> ev : key.pollEvents()) {
+            if (ev.kind() == StandardWatchEventKinds.OVERFLOW || names.contains((Path) ev.context())) relevant = true;
         }
+        key.reset();
+        return relevant;
     }
 
-    private static List<GameConfig> loadLevelsPreferringDiskThenClasspath(Path diskPath, String resourceName) {
+    private static LevelIndex indexPreferringDiskThenClasspath(Path diskPath, String resourceName) {
         // Prefer the editable file on disk
         if (Files.exists(diskPath)) {
             try {
-                return ConfigLoader.loadLevels(diskPath); // may throw Exception
+                LevelIndex idx = LevelIndex.scan(Files.readAllBytes(diskPath));
+                idx.load(0);                                    // the first level must at least parse
+                return idx;
             } catch (Exception e) {
                 System.err.println("[Config] Failed to load levels from disk: " + diskPath);
                 e.printStackTrace();
@@ -179,7 +225,7 @@ public final class ConfigManager {
         try (InputStream in = resource(resourceName)) {
             if (in != null) {
                 try {
-                    return ConfigLoader.loadLevels(in); // may throw Exception
+                    return LevelIndex.scan(in.readAllBytes());
                 } catch (Exception e) {
                     System.err.println("[Config] Failed to load levels from classpath: " + resourceName);
                     e.printStackTrace();
@@ -191,7 +237,7 @@ public final class ConfigManager {
         }
 
         // Final fallback: no levels found here
-        return List.of();
+        return null;
     }
 
 
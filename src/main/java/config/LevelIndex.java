@@ -0,0 +1,129 @@
+package config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Names and byte ranges of the levels in one level-pack file, found with a streaming scan.
+ *  – Accepts the same shapes as {@link ConfigLoader}: {"levels":[…]}, a bare array, or one level object.
+ *  – The scan tokenizes the whole file (so syntax errors surface here) but only keeps each level's
+ *    name and where its object starts and ends; {@link #load} databinds one level on demand.
+ *  – Immutable; holds the file bytes it was scanned from.
+ */
+public final class LevelIndex {
+    private static final JsonFactory F = new JsonFactory();
+    private static final ObjectMapper M = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final byte[] data;
+    private final List<String> names;
+    private final int[] offsets, lengths;
+    private final Map<String, Integer> byName = new HashMap<>();
+
+    private LevelIndex(byte[] data, List<String> names, int[] offsets, int[] lengths) {
+        this.data = data;
+        this.names = List.copyOf(names);
+        this.offsets = offsets;
+        this.lengths = lengths;
+        for (int i = names.size() - 1; i >= 0; i--) byName.put(names.get(i), i);   // first occurrence wins
+    }
+
+    public static LevelIndex scan(byte[] data) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<int[]> ranges = new ArrayList<>();
+        try (JsonParser p = F.createParser(data)) {
+            JsonToken t = p.nextToken();
+            if (t == JsonToken.START_ARRAY) {
+                scanArray(p, names, ranges);
+            } else if (t == JsonToken.START_OBJECT) {
+                int start = (int) p.currentTokenLocation().getByteOffset();
+                String single = null;
+                boolean wrapper = false;
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = p.currentName();
+                    JsonToken v = p.nextToken();
+                    if ("levels".equals(field) && v == JsonToken.START_ARRAY) { scanArray(p, names, ranges); wrapper = true; }
+                    else if ("levelName".equals(field) && v.isScalarValue()) single = p.getValueAsString();
+                    else p.skipChildren();
+                }
+                if (!wrapper || names.isEmpty()) {                        // a single level object
+                    names.clear(); ranges.clear();
+                    names.add(single == null ? "" : single);
+                    ranges.add(new int[]{start, (int) p.currentLocation().getByteOffset() - start});
+                }
+            } else {
+                throw new IOException("level pack must be a JSON object or array");
+            }
+        }
+        int[] off = new int[ranges.size()], len = new int[ranges.size()];
+        for (int i = 0; i < off.length; i++) { off[i] = ranges.get(i)[0]; len[i] = ranges.get(i)[1]; }
+        return new LevelIndex(data, names, off, len);
+    }
+
+    private static void scanArray(JsonParser p, List<String> names, List<int[]> ranges) throws IOException {
+        JsonToken t;
+        while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (t != JsonToken.START_OBJECT) { p.skipChildren(); continue; }
+            int start = (int) p.currentTokenLocation().getByteOffset();
+            String name = "";
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken v = p.nextToken();
+                if ("levelName".equals(field) && v.isScalarValue()) name = p.getValueAsString();
+                else p.skipChildren();
+            }
+            names.add(name);
+            ranges.add(new int[]{start, (int) p.currentLocation().getByteOffset() - start});
+        }
+    }
+
+    public int size()                 { return names.size(); }
+    public List<String> names()       { return names; }
+    public String name(int i)         { return names.get(i); }
+    public int indexOf(String name)   { Integer i = byName.get(name); return i == null ? -1 : i; }
+
+    /** Parse and validate level i. */
+    public GameConfig load(int i) throws IOException {
+        GameConfig cfg = M.readValue(data, offsets[i], lengths[i], GameConfig.class);
+        validate(cfg);
+        return cfg;
+    }
+
+    /** Parse every level (a full pass; only for whole-pack operations like saving or a strict reload). */
+    public List<GameConfig> loadAll() throws IOException {
+        List<GameConfig> out = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) out.add(load(i));
+        return out;
+    }
+
+    /** Structural checks the model builders rely on. */
+    static void validate(GameConfig cfg) {
+        String name = (cfg == null) ? null : cfg.levelName();
+        if (name == null || name.isBlank()) throw new IllegalStateException("level without a name");
+        if (cfg.systems() == null) throw new IllegalStateException(name + ": no systems list");
+        Set<Integer> ids = new HashSet<>();
+        for (GameConfig.SystemConfig sc : cfg.systems()) {
+            if (sc == null || sc.position() == null || sc.inputPorts() == null
+                    || sc.outputPorts() == null || sc.initialPackets() == null)
+                throw new IllegalStateException(name + ": incomplete system " + (sc == null ? "null" : sc.id()));
+            if (!ids.add(sc.id())) throw new IllegalStateException(name + ": duplicate system id " + sc.id());
+            for (GameConfig.PacketConfig pc : sc.initialPackets())
+                if (pc == null || pc.type() == null || pc.count() < 0)
+                    throw new IllegalStateException(name + ": bad initial packets in system " + sc.id());
+        }
+        if (cfg.lines() != null)
+            for (GameConfig.LineConfig lc : cfg.lines())
+                if (lc == null || !ids.contains(lc.startSystemId()) || !ids.contains(lc.endSystemId()))
+                    throw new IllegalStateException(name + ": line to an unknown system");
+    }
+}
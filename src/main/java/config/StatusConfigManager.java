@@ -2,6 +2,7 @@
 package config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import common.util.WriteBehind;
 
 import java.io.InputStream;
 import java.nio.file.Files;
@@ -55,22 +56,17 @@ public final class StatusConfigManager {
         return status;
     }
 
-    /** Persist a DTO as ./gamestatus.json (pretty). */
+    /** Persist a DTO as ./gamestatus.json (pretty). Returns at once; the write is coalesced and done by
+     *  {@link WriteBehind}, call {@code WriteBehind.getInstance().flush()} to wait for it. */
     public void save(StatusConfig cfg) {
-        try {
-            Path out = Paths.get(fileName);
-            Files.createDirectories(out.getParent() == null ? Paths.get(".") : out.getParent());
-            byte[] json = mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(cfg);
-            Files.write(out, json);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to save " + fileName, e);
-        }
+        WriteBehind.getInstance().save(Paths.get(fileName),
+                () -> mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(cfg));
     }
-    public StatusConfig newGameDefaults(List<GameConfig> levels) {
+    public StatusConfig newGameDefaults(List<String> levelNames) {
         var levelStatuses = new java.util.ArrayList<StatusConfig.LevelStatus>();
-        for (var lv : levels) {
+        for (String name : levelNames) {
             // choose sensible default wire budgets (or read from config if present)
-            float defaultWire = switch (lv.levelName()) {
+            float defaultWire = switch (name) {
                 case "Level 1" -> 5000f;
                 case "Level 2" -> 20500f;
                 case "Level 3" -> 30500f;
@@ -78,7 +74,7 @@ public final class StatusConfigManager {
                 case "Level 5" -> 50500f;
                 default -> 5000f;
             };
-            levelStatuses.add(new StatusConfig.LevelStatus(lv.levelName(), 0, defaultWire, false));
+            levelStatuses.add(new StatusConfig.LevelStatus(name, 0, defaultWire, false));
         }
         return new StatusConfig(100, levelStatuses); // totalCoin = 100
     }
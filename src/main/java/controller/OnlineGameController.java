@@ -75,10 +75,13 @@ public final class OnlineGameController {
 //                    }
 //                })
 //        );
+        // F3 overlay on ⇒ trace commands (phase3.trace=true traces regardless)
+        panel.setDebugHudListener(on -> { if (on || !Boolean.getBoolean("phase3.trace")) this.client.setTracing(on); });
         this.client.setSnapshotHandler(snap ->
                 SwingUtilities.invokeLater(() -> {
                     panel.setSnapshotReplace(snap.state());
                     panel.setUiData(snap.ui());
+                    if (panel.isDebugHud()) panel.setDebugLines(this.client.tracer().hudLines());
                     var ui = snap.ui();
                     if (ui != null) {
                         final String my  = this.client.getSide();
@@ -56,7 +56,7 @@ public class LevelsController {
 
         // a lightweight mirror SystemManager used only for hit-tests/IDs on the client
         // seed/name can come from your level config; it's not simulated locally
-        String levelName = levelsManager.getLevelConfigs().get(idx).levelName();
+        String levelName = levelsManager.getLevelName(idx);
         SystemManager mirror = new SystemManager(null, levelName);
 
 //        onlineGame = new OnlineGameController(mirror, cards, netClient);
@@ -1,5 +1,23 @@
 package model;
+
+/** Per-simulation packet id allocator. Ids are dense (1..high-water) and released ids are reused LIFO. */
 public final class IdGenerator {
-    private int next = 1;
-    public int nextPacketId() { return next++; }
+    private int   next = 1;
+    private int[] free = new int[16];
+    private int   freeCount = 0;
+
+    public int nextPacketId() {
+        return (freeCount > 0) ? free[--freeCount] : next++;
+    }
+
+    /** Return an id to the pool; the caller guarantees nothing in the sim still refers to it. */
+    public void release(int id) {
+        if (id <= 0 || id >= next) return;
+        if (freeCount == free.length) free = java.util.Arrays.copyOf(free, freeCount * 2);
+        free[freeCount++] = id;
+    }
+
+    /** One past the largest id handed out so far; sizes id-indexed arrays. */
+    public int highWater() { return next; }
+    public int liveCount() { return next - 1 - freeCount; }
 }
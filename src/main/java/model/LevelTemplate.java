@@ -0,0 +1,193 @@
+package model;
+
+import config.GameConfig;
+import config.GameConfig.PacketConfig;
+import config.GameConfig.SystemConfig;
+import model.Loader.GameStatus;
+import model.packets.*;
+import model.ports.InputPort;
+import model.ports.OutputPort;
+import model.ports.inputs.*;
+import model.ports.outputs.*;
+import model.systems.*;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A level compiled once from its {@link GameConfig} into flat, immutable build steps.
+ * – Type names are resolved to constructors, port centres are precomputed, and invalid lines are dropped.
+ * – Line bends are stored already oriented and sorted, together with the sampled path and its length.
+ * – {@link #instantiate} creates a fresh model by replaying those steps. The result is identical to
+ *   {@link LevelsManager#build} (same systems, packet order and rng draws) but has its own SimulationContext,
+ *   packet ids and objects.
+ */
+public final class LevelTemplate {
+    @FunctionalInterface interface SystemKind { System create(Point loc, List<InputPort> in, List<OutputPort> out, SystemManager sm, int id); }
+    @FunctionalInterface interface InKind     { InputPort  create(System sys, Point centre); }
+    @FunctionalInterface interface OutKind    { OutputPort create(System sys, Point centre); }
+    @FunctionalInterface interface PacketKind { Packet create(SystemManager sm); }
+
+    private record SystemStep(int id, SystemKind kind, int x, int y,
+                              InKind[] ins, int[] inXY, OutKind[] outs, int[] outXY, PacketKind[] packets) {}
+    /** bends: 6 ints (start, middle, end) per bend, in path order. */
+    private record LineStep(int fromSys, int outIdx, int toSys, int inIdx, int[] bends,
+                            int[] geomX, int[] geomY, int lengthPx) {}
+
+    private static final Map<String, SystemKind> SYSTEMS = new HashMap<>();
+    static {
+        SYSTEMS.put("ReferenceSystem",    ReferenceSystem::new);
+        SYSTEMS.put("NormalSystem",       NormalSystem::new);
+        SYSTEMS.put("SpySystem",          SpySystem::new);
+        SYSTEMS.put("VpnSystem",          VpnSystem::new);
+        SYSTEMS.put("AntiTrojanSystem",   AntiTrojanSystem::new);
+        SYSTEMS.put("DestroyerSystem",    DestroyerSystem::new);
+        SYSTEMS.put("DistributionSystem", DistributionSystem::new);
+        SYSTEMS.put("MergerSystem",       MergerSystem::new);
+    }
+
+    private final String levelName;
+    private final SystemStep[] systems;
+    private final LineStep[] lines;
+    private final int packetCount;
+
+    private LevelTemplate(String levelName, SystemStep[] systems, LineStep[] lines) {
+        this.levelName = levelName;
+        this.systems = systems;
+        this.lines = lines;
+        int n = 0;
+        for (SystemStep s : systems) n += s.packets.length;
+        this.packetCount = n;
+    }
+
+    public String levelName() { return levelName; }
+
+    /** Compile a level; throws IllegalArgumentException for unknown packet types (as building it would). */
+    public static LevelTemplate compile(GameConfig cfg) {
+        // One reference build supplies everything that depends on geometry (port centres, bend order, paths).
+        SystemManager proto = LevelsManager.build(cfg, null, SystemManager.DEFAULT_SEED);
+        List<System> protoSystems = proto.getAllSystems();
+
+        SystemStep[] steps = new SystemStep[cfg.systems().size()];
+        Map<System, Integer> index = new HashMap<>();
+        for (int i = 0; i < steps.length; i++) {
+            SystemConfig sc = cfg.systems().get(i);
+            System ps = protoSystems.get(i);
+            index.put(ps, i);
+
+            InKind[] ins = new InKind[sc.inputPorts().size()];
+            int[] inXY = new int[ins.length * 2];
+            for (int j = 0; j < ins.length; j++) {
+                ins[j] = inKind(sc.inputPorts().get(j));
+                Point c = ps.getInputPorts().get(j).getCenter();
+                inXY[2 * j] = c.x; inXY[2 * j + 1] = c.y;
+            }
+            OutKind[] outs = new OutKind[sc.outputPorts().size()];
+            int[] outXY = new int[outs.length * 2];
+            for (int j = 0; j < outs.length; j++) {
+                outs[j] = outKind(sc.outputPorts().get(j));
+                Point c = ps.getOutputPorts().get(j).getCenter();
+                outXY[2 * j] = c.x; outXY[2 * j + 1] = c.y;
+            }
+            List<PacketKind> packets = new ArrayList<>();
+            for (PacketConfig pc : sc.initialPackets()) {
+                PacketKind k = packetKind(pc);
+                for (int n = 0; n < pc.count(); n++) packets.add(k);
+            }
+            steps[i] = new SystemStep(sc.id(), SYSTEMS.getOrDefault(sc.type(), ReferenceSystem::new),
+                    sc.position().x(), sc.position().y(), ins, inXY, outs, outXY, packets.toArray(PacketKind[]::new));
+        }
+
+        LineStep[] lineSteps = new LineStep[proto.allLines.size()];
+        for (int i = 0; i < lineSteps.length; i++) {
+            Line l = proto.allLines.get(i);
+            System a = l.getStart().getParentSystem(), b = l.getEnd().getParentSystem();
+            List<BendPoint> bps = l.getBendPoints();
+            int[] bends = new int[bps.size() * 6];
+            for (int j = 0; j < bps.size(); j++) {
+                BendPoint bp = bps.get(j);
+                bends[6 * j]     = bp.getStart().x;  bends[6 * j + 1] = bp.getStart().y;
+                bends[6 * j + 2] = bp.getMiddle().x; bends[6 * j + 3] = bp.getMiddle().y;
+                bends[6 * j + 4] = bp.getEnd().x;    bends[6 * j + 5] = bp.getEnd().y;
+            }
+            lineSteps[i] = new LineStep(index.get(a), a.getOutputPorts().indexOf(l.getStart()),
+                    index.get(b), b.getInputPorts().indexOf(l.getEnd()), bends,
+                    l.geometryX(), l.geometryY(), l.lengthPx());
+        }
+        return new LevelTemplate(cfg.levelName(), steps, lineSteps);
+    }
+
+    /** A fresh, independent model of this level. */
+    public SystemManager instantiate(GameStatus status, long seed) {
+        SystemManager sm = new SystemManager(status, levelName, seed);
+        sm.reserve(systems.length, packetCount, lines.length);
+        System[] built = new System[systems.length];
+        for (int i = 0; i < systems.length; i++) {
+            SystemStep st = systems[i];
+            List<InputPort>  in  = new ArrayList<>(st.ins.length);
+            List<OutputPort> out = new ArrayList<>(st.outs.length);
+            System sys = st.kind.create(new Point(st.x, st.y), in, out, sm, st.id);
+            for (int j = 0; j < st.ins.length; j++)
+                in.add(st.ins[j].create(sys, new Point(st.inXY[2 * j], st.inXY[2 * j + 1])));
+            for (int j = 0; j < st.outs.length; j++)
+                out.add(st.outs[j].create(sys, new Point(st.outXY[2 * j], st.outXY[2 * j + 1])));
+            sm.addSystem(sys);
+
+            for (PacketKind k : st.packets) {
+                Packet p = k.create(sm);
+                sys.addPacket(p);
+                sm.addPacket(p);
+                sm.addToFirstCountPacket();
+            }
+            built[i] = sys;
+        }
+
+        for (LineStep ls : lines) {
+            OutputPort op = built[ls.fromSys].getOutputPorts().get(ls.outIdx);
+            InputPort  ip = built[ls.toSys].getInputPorts().get(ls.inIdx);
+            Line wire = new Line(op, ip);
+            op.setLine(wire);
+            ip.setLine(wire);
+            int[] b = ls.bends;
+            for (int j = 0; j < b.length; j += 6)
+                wire.presetBend(new BendPoint(new Point(b[j], b[j + 1]), new Point(b[j + 2], b[j + 3]), new Point(b[j + 4], b[j + 5])));
+            wire.presetGeometry(ls.geomX, ls.geomY);
+            sm.addPresetLine(wire, ls.lengthPx);
+        }
+        return sm;
+    }
+
+    // ---------- name → constructor (resolved once, at compile time) ----------
+
+    private static InKind inKind(String name) {
+        return switch (name) {
+            case "TrianglePort" -> TriangleInput::new;
+            case "InfinityPort" -> InfinityInput::new;
+            default             -> SquareInput::new;
+        };
+    }
+    private static OutKind outKind(String name) {
+        return switch (name) {
+            case "TrianglePort" -> TriangleOutput::new;
+            case "InfinityPort" -> InfinityOutput::new;
+            default             -> SquareOutput::new;
+        };
+    }
+    private static PacketKind packetKind(PacketConfig pc) {
+        int color = pc.colorId();
+        return switch (pc.type()) {
+            case "SquarePacket"    -> sm -> new SquarePacket();
+            case "TrianglePacket"  -> sm -> new TrianglePacket();
+            case "InfinityPacket"  -> sm -> new InfinityPacket();
+            case "BigPacket1"      -> sm -> new BigPacket1(color);
+            case "BigPacket2"      -> sm -> new BigPacket2(color);
+            case "ProtectedPacket" -> sm -> new ProtectedPacket<>(new SquarePacket(), sm.rng());
+            case "SecretPacket1"   -> sm -> new SecretPacket1();
+            case "SecretPacket2"   -> sm -> new SecretPacket2<>(new ProtectedPacket<>(new SquarePacket(), sm.rng()));
+            default -> throw new IllegalArgumentException("Unknown packet type: " + pc.type());
+        };
+    }
+}
@@ -3,6 +3,7 @@ package model;
 
 import config.ConfigManager;
 import config.GameConfig;
+import config.LevelIndex;
 import config.GameConfig.SystemConfig;
 import config.GameConfig.PacketConfig;
 import config.GameConfig.LineConfig;
@@ -20,140 +21,83 @@ import java.io.ObjectInputFilter;
 import java.util.*;
 import java.util.stream.Collectors;
 
-import static view.GamePanel.H;
-import static view.GamePanel.W;
 
+/** Level catalogue for the menu, the offline game and the server.
+ *  – Names and order come from the config's {@link LevelIndex}; nothing is parsed up front.
+ *  – A level is parsed and compiled into a {@link LevelTemplate} on first use and kept in an LRU
+ *    ({@code phase3.levels.cache}, default 32); an evicted template is simply compiled again.
+ *  – The offline/editor model of a level ({@link #getLevelManager}) is built on first request and then kept
+ *    for the manager's lifetime: it holds the player's layout, so it is never evicted.
+ */
 public class LevelsManager {
     public static GameStatus gameStatus = new GameStatus();
-    private final List<GameConfig> configs;
-    private final List<SystemManager> levelManagers;
-    private final HashMap<String, GameConfig> gameConfigsByName=new HashMap<>();
-    public LevelsManager() {
-        this.configs = ConfigManager.getInstance().getAllLevels();
-        this.levelManagers = new ArrayList<>(configs.size());
-
-        for (GameConfig cfg : configs) {
-            SystemManager sm = new SystemManager(gameStatus, cfg.levelName());
-            gameConfigsByName.put(cfg.levelName(), cfg);
-            // ---------- build systems ----------
-            for (SystemConfig sc : cfg.systems()) {
-                List<InputPort>  inputPorts  = new ArrayList<>();
-                List<OutputPort> outputPorts = new ArrayList<>();
-                Point loc = new Point(sc.position().x(), sc.position().y());
-
-                System sys = switch (sc.type()) {
-                    case "ReferenceSystem"    -> new ReferenceSystem    (loc, inputPorts, outputPorts, sm, sc.id());
-                    case "NormalSystem"       -> new NormalSystem       (loc, inputPorts, outputPorts, sm, sc.id());
-                    case "SpySystem"          -> new SpySystem          (loc, inputPorts, outputPorts, sm, sc.id());
-                    case "VpnSystem"          -> new VpnSystem          (loc, inputPorts, outputPorts, sm, sc.id());
-                    case "AntiTrojanSystem"   -> new AntiTrojanSystem   (loc, inputPorts, outputPorts, sm, sc.id());
-                    case "DestroyerSystem"    -> new DestroyerSystem    (loc, inputPorts, outputPorts, sm, sc.id());
-                    case "DistributionSystem" -> new DistributionSystem (loc, inputPorts, outputPorts, sm, sc.id());
-                    case "MergerSystem"       -> new MergerSystem       (loc, inputPorts, outputPorts, sm, sc.id());
-                    default -> new ReferenceSystem(loc, inputPorts, outputPorts, sm, sc.id());
-                };
-
-                // port centers (must match view.SystemView.WIDTH/HEIGHT)
-                int sysX = sc.position().x();
-                int sysY = sc.position().y();
-                int sysW = W;
-                int sysH = H;
-
-                // inputs on the left
-                List<String> inNames = sc.inputPorts();
-                for (int i = 0; i < inNames.size(); i++) {
-                    int x = sysX;
-                    int y = sysY + (i + 1) * sysH / (inNames.size() + 1);
-                    inputPorts.add(makeInputPort(sys, new Point(x, y), inNames.get(i)));
-                }
+    private static final int CACHE_LEVELS = Integer.getInteger("phase3.levels.cache", 32);
 
-                // outputs on the right
-                List<String> outNames = sc.outputPorts();
-                for (int i = 0; i < outNames.size(); i++) {
-                    int x = sysX + sysW;
-                    int y = sysY + (i + 1) * sysH / (outNames.size() + 1);
-                    outputPorts.add(makeOutputPort(sys, new Point(x, y), outNames.get(i)));
-                }
+    private record Loaded(GameConfig config, LevelTemplate template) {}
 
-                sm.addSystem(sys);
-
-                // initial packets
-                for (PacketConfig pc : sc.initialPackets()) {
-                    for (int i = 0; i < pc.count(); i++) {
-                        Packet pkt = switch (pc.type()) {
-                            case "SquarePacket"   -> new SquarePacket();
-                            case "TrianglePacket" -> new TrianglePacket();
-                            case "InfinityPacket" -> new InfinityPacket();
-                            case "BigPacket1"     -> new BigPacket1(pc.colorId());
-                            case "BigPacket2"     -> new BigPacket2(pc.colorId());
-                            case "ProtectedPacket"-> new ProtectedPacket<>(new SquarePacket());
-                            case "SecretPacket1"  -> new SecretPacket1();
-                            case "SecretPacket2"  -> new SecretPacket2<>(new ProtectedPacket<>(new SquarePacket()));
-                            default -> throw new IllegalArgumentException("Unknown packet type: " + pc.type());
-                        };
-                        sys.addPacket(pkt);
-                        sm.addPacket(pkt);
-                        sm.addToFirstCountPacket();
-                    }
-                }
-            }
+    private final LevelIndex index;
+    private final LinkedHashMap<String, Loaded> loaded = lru(CACHE_LEVELS);
+    private final HashMap<String, SystemManager> levelManagers = new HashMap<>();   // offline/editor models, never evicted
+    public LevelsManager() {
+        this.index = ConfigManager.getInstance().getLevelIndex();
+    }
 
-            // ---------- NEW: build lines/bends from config ----------
-            if (cfg.lines() != null && !cfg.lines().isEmpty()) {
-                Map<Integer, System> byId = sm.getAllSystems()
-                        .stream().collect(Collectors.toMap(System::getId, s -> s));
-
-                for (LineConfig lc : cfg.lines()) {
-                    System sA = byId.get(lc.startSystemId());
-                    System sB = byId.get(lc.endSystemId());
-                    if (sA == null || sB == null) continue;
-
-                    List<OutputPort> outs = sA.getOutputPorts();
-                    List<InputPort>  ins  = sB.getInputPorts();
-                    if (lc.startOutputIndex() < 0 || lc.startOutputIndex() >= outs.size()) continue;
-                    if (lc.endInputIndex()    < 0 || lc.endInputIndex()    >= ins.size())  continue;
-
-                    OutputPort op = outs.get(lc.startOutputIndex());
-                    InputPort  ip = ins.get(lc.endInputIndex());
-                    if (op.getLine() != null || ip.getLine() != null) continue;
-
-                    Line wire = new Line(op, ip);
-                    op.setLine(wire);
-                    ip.setLine(wire);
-
-                    if (lc.bends() != null) {
-                        for (BendTriplet bt : lc.bends()) {
-                            wire.addBendPoint(
-                                    new Point(bt.start().x(),  bt.start().y()),
-                                    new Point(bt.middle().x(), bt.middle().y()),
-                                    new Point(bt.end().x(),    bt.end().y()));
-                        }
-                    }
-                    sm.addLine(wire); // updates used length
-                }
-                sm.recomputeUsedWireLength();
-            }
+    private static <V> LinkedHashMap<String, V> lru(int max) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, V> e) { return size() > Math.max(1, max); }
+        };
+    }
 
-            levelManagers.add(sm);
+    /** Parsed + compiled level, from the LRU or loaded now; null if unknown or invalid. */
+    private synchronized Loaded loaded(String name) {
+        Loaded l = loaded.get(name);
+        if (l != null) return l;
+        int i = index.indexOf(name);
+        if (i < 0) return null;
+        try {
+            GameConfig cfg = index.load(i);
+            l = new Loaded(cfg, LevelTemplate.compile(cfg));
+        } catch (Exception e) {
+            java.lang.System.err.println("[Levels] cannot load " + name + ": " + e.getMessage());
+            return null;
         }
+        loaded.put(name, l);
+        return l;
     }
 
     // ---------- accessors ----------
-    public List<GameConfig> getLevelConfigs()             { return List.copyOf(configs); }
-    public List<SystemManager> getAllLevelManagers()      { return List.copyOf(levelManagers); }
-    public SystemManager getLevelManager(int idx)         { return levelManagers.get(idx); }
-    public SystemManager getLevelManager(String levelName){
-        for (int i = 0; i < configs.size(); i++)
-            if (Objects.equals(configs.get(i).levelName(), levelName)) return levelManagers.get(i);
-        return null;
+    /** Level names in pack order, straight from the index. */
+    public List<String> getLevelNames()                   { return index.names(); }
+    /** Lazy view: a level's config is parsed when its element is read. */
+    public List<GameConfig> getLevelConfigs() {
+        return new AbstractList<>() {
+            @Override public GameConfig get(int i) { return getLevelConfig(index.name(i)); }
+            @Override public int size()            { return index.size(); }
+        };
+    }
+    public synchronized List<SystemManager> getAllLevelManagers() {
+        List<SystemManager> out = new ArrayList<>(index.size());
+        for (int i = 0; i < index.size(); i++) out.add(getLevelManager(i));
+        return out;
+    }
+    public SystemManager getLevelManager(int idx)         { return getLevelManager(index.name(idx)); }
+    public synchronized SystemManager getLevelManager(String levelName){
+        SystemManager sm = levelManagers.get(levelName);
+        if (sm == null) {
+            Loaded l = loaded(levelName);
+            if (l == null) return null;
+            sm = l.template().instantiate(gameStatus, SystemManager.DEFAULT_SEED);
+            levelManagers.put(levelName, sm);
+        }
+        return sm;
     }
 
     // ---------- NEW: snapshot helpers ----------
 
     /** Build a fresh GameConfig for this level using current system positions + lines. */
     public GameConfig snapshotLevelConfig(int idx) {
-        GameConfig base = configs.get(idx);
-        SystemManager sm = levelManagers.get(idx);
+        GameConfig base = getLevelConfig(index.name(idx));
+        SystemManager sm = getLevelManager(idx);
 
         // systems with updated positions
         Map<Integer, System> byId = sm.getAllSystems().stream()
@@ -194,8 +138,8 @@ public class LevelsManager {
 
     /** Snapshot all levels (useful when saving). */
     public List<GameConfig> snapshotAll() {
-        List<GameConfig> out = new ArrayList<>(configs.size());
-        for (int i = 0; i < configs.size(); i++) out.add(snapshotLevelConfig(i));
+        List<GameConfig> out = new ArrayList<>(index.size());
+        for (int i = 0; i < index.size(); i++) out.add(snapshotLevelConfig(i));
         return out;
     }
 
@@ -218,7 +162,7 @@ public class LevelsManager {
     }
     /** @return number of levels loaded from config. */
     public int getLevelCount() {
-        return configs.size();
+        return index.size();
     }
 
     /**
@@ -227,11 +171,11 @@ public class LevelsManager {
      * Returns -1 if there are no levels.
      */
     public int firstUnpassedIndex(GameStatus status) {
-        int n = configs.size();
+        int n = index.size();
         if (n == 0) return -1;
 
         for (int i = 0; i < n; i++) {
-            String name = configs.get(i).levelName();
+            String name = index.name(i);
             if (!isPassed(status, name)) return i;
         }
         return n - 1; // all passed -> default to last
@@ -247,10 +191,10 @@ public class LevelsManager {
      * passed[i] == true  ⇢ level i is passed.
      */
     public boolean[] passedArray(GameStatus status) {
-        int n = configs.size();
+        int n = index.size();
         boolean[] out = new boolean[n];
         for (int i = 0; i < n; i++) {
-            out[i] = isPassed(status, configs.get(i).levelName());
+            out[i] = isPassed(status, index.name(i));
         }
         return out;
     }
@@ -264,9 +208,9 @@ public class LevelsManager {
      * A level is enabled if it's the first level or the previous level is passed.
      */
     public boolean isLevelEnabled(int index, GameStatus status) {
-        if (index < 0 || index >= configs.size()) return false;
+        if (index < 0 || index >= this.index.size()) return false;
         if (index == 0) return true;
-        String prevName = configs.get(index - 1).levelName();
+        String prevName = this.index.name(index - 1);
         return isPassed(status, prevName);
     }
 
@@ -277,7 +221,7 @@ public class LevelsManager {
 
     /** Convenience: obtain a level name by index. */
     public String getLevelName(int index) {
-        return configs.get(index).levelName();
+        return this.index.name(index);
     }
 
     /* ---------- internal helper to query GameStatus safely ---------- */
@@ -288,107 +232,120 @@ public class LevelsManager {
     }
 
     public SystemManager getSystemManagerByName(GameStatus status, String name) {
-        SystemManager sm = new SystemManager(status, name);
-        GameConfig cfg=gameConfigsByName.get(name);
-        if (cfg == null) return null;
-        else{
-            for (SystemConfig sc : cfg.systems()) {
-                List<InputPort>  inputPorts  = new ArrayList<>();
-                List<OutputPort> outputPorts = new ArrayList<>();
-                Point loc = new Point(sc.position().x(), sc.position().y());
-
-                System sys = switch (sc.type()) {
-                    case "ReferenceSystem"    -> new ReferenceSystem    (loc, inputPorts, outputPorts, sm, sc.id());
-                    case "NormalSystem"       -> new NormalSystem       (loc, inputPorts, outputPorts, sm, sc.id());
-                    case "SpySystem"          -> new SpySystem          (loc, inputPorts, outputPorts, sm, sc.id());
-                    case "VpnSystem"          -> new VpnSystem          (loc, inputPorts, outputPorts, sm, sc.id());
-                    case "AntiTrojanSystem"   -> new AntiTrojanSystem   (loc, inputPorts, outputPorts, sm, sc.id());
-                    case "DestroyerSystem"    -> new DestroyerSystem    (loc, inputPorts, outputPorts, sm, sc.id());
-                    case "DistributionSystem" -> new DistributionSystem (loc, inputPorts, outputPorts, sm, sc.id());
-                    case "MergerSystem"       -> new MergerSystem       (loc, inputPorts, outputPorts, sm, sc.id());
-                    default -> new ReferenceSystem(loc, inputPorts, outputPorts, sm, sc.id());
-                };
-
-                // port centers (must match view.SystemView.WIDTH/HEIGHT)
-                int sysX = sc.position().x();
-                int sysY = sc.position().y();
-                int sysW = W;
-                int sysH = H;
-
-                // inputs on the left
-                List<String> inNames = sc.inputPorts();
-                for (int i = 0; i < inNames.size(); i++) {
-                    int x = sysX;
-                    int y = sysY + (i + 1) * sysH / (inNames.size() + 1);
-                    inputPorts.add(makeInputPort(sys, new Point(x, y), inNames.get(i)));
-                }
+        return getSystemManagerByName(status, name, SystemManager.DEFAULT_SEED);
+    }
 
-                // outputs on the right
-                List<String> outNames = sc.outputPorts();
-                for (int i = 0; i < outNames.size(); i++) {
-                    int x = sysX + sysW;
-                    int y = sysY + (i + 1) * sysH / (outNames.size() + 1);
-                    outputPorts.add(makeOutputPort(sys, new Point(x, y), outNames.get(i)));
-                }
+    /** Fresh model of a level whose simulation randomness comes from {@code seed}; null if unknown. */
+    public SystemManager getSystemManagerByName(GameStatus status, String name, long seed) {
+        Loaded l = loaded(name);
+        return (l == null) ? null : l.template().instantiate(status, seed);
+    }
 
-                sm.addSystem(sys);
-
-                // initial packets
-                for (PacketConfig pc : sc.initialPackets()) {
-                    for (int i = 0; i < pc.count(); i++) {
-                        Packet pkt = switch (pc.type()) {
-                            case "SquarePacket"   -> new SquarePacket();
-                            case "TrianglePacket" -> new TrianglePacket();
-                            case "InfinityPacket" -> new InfinityPacket();
-                            case "BigPacket1"     -> new BigPacket1(pc.colorId());
-                            case "BigPacket2"     -> new BigPacket2(pc.colorId());
-                            case "ProtectedPacket"-> new ProtectedPacket<>(new SquarePacket());
-                            case "SecretPacket1"  -> new SecretPacket1();
-                            case "SecretPacket2"  -> new SecretPacket2<>(new ProtectedPacket<>(new SquarePacket()));
-                            default -> throw new IllegalArgumentException("Unknown packet type: " + pc.type());
-                        };
-                        sys.addPacket(pkt);
-                        sm.addPacket(pkt);
-                        sm.addToFirstCountPacket();
-                    }
+    public GameConfig getLevelConfig(String name) { Loaded l = loaded(name); return l == null ? null : l.config(); }
+    public LevelTemplate getLevelTemplate(String name) { Loaded l = loaded(name); return l == null ? null : l.template(); }
+    public boolean hasLevel(String name) { return index.indexOf(name) >= 0; }
+
+    /** Build a level model straight from its config: systems, ports, initial packets, preset lines.
+     *  Reference path for {@link LevelTemplate#compile}; repeated builds of one level should use the template. */
+    public static SystemManager build(GameConfig cfg, GameStatus status, long seed) {
+        SystemManager sm = new SystemManager(status, cfg.levelName(), seed);
+        // ---------- build systems ----------
+        for (SystemConfig sc : cfg.systems()) {
+            List<InputPort>  inputPorts  = new ArrayList<>();
+            List<OutputPort> outputPorts = new ArrayList<>();
+            Point loc = new Point(sc.position().x(), sc.position().y());
+
+            System sys = switch (sc.type()) {
+                case "ReferenceSystem"    -> new ReferenceSystem    (loc, inputPorts, outputPorts, sm, sc.id());
+                case "NormalSystem"       -> new NormalSystem       (loc, inputPorts, outputPorts, sm, sc.id());
+                case "SpySystem"          -> new SpySystem          (loc, inputPorts, outputPorts, sm, sc.id());
+                case "VpnSystem"          -> new VpnSystem          (loc, inputPorts, outputPorts, sm, sc.id());
+                case "AntiTrojanSystem"   -> new AntiTrojanSystem   (loc, inputPorts, outputPorts, sm, sc.id());
+                case "DestroyerSystem"    -> new DestroyerSystem    (loc, inputPorts, outputPorts, sm, sc.id());
+                case "DistributionSystem" -> new DistributionSystem (loc, inputPorts, outputPorts, sm, sc.id());
+                case "MergerSystem"       -> new MergerSystem       (loc, inputPorts, outputPorts, sm, sc.id());
+                default -> new ReferenceSystem(loc, inputPorts, outputPorts, sm, sc.id());
+            };
+
+            // port centers sit on the box edges (view.GamePanel.W/H draw the same box)
+            int sysX = sc.position().x();
+            int sysY = sc.position().y();
+            int sysW = System.BOX_W;
+            int sysH = System.BOX_H;
+
+            // inputs on the left
+            List<String> inNames = sc.inputPorts();
+            for (int i = 0; i < inNames.size(); i++) {
+                int x = sysX;
+                int y = sysY + (i + 1) * sysH / (inNames.size() + 1);
+                inputPorts.add(makeInputPort(sys, new Point(x, y), inNames.get(i)));
+            }
+
+            // outputs on the right
+            List<String> outNames = sc.outputPorts();
+            for (int i = 0; i < outNames.size(); i++) {
+                int x = sysX + sysW;
+                int y = sysY + (i + 1) * sysH / (outNames.size() + 1);
+                outputPorts.add(makeOutputPort(sys, new Point(x, y), outNames.get(i)));
+            }
+
+            sm.addSystem(sys);
+
+            // initial packets
+            for (PacketConfig pc : sc.initialPackets()) {
+                for (int i = 0; i < pc.count(); i++) {
+                    Packet pkt = switch (pc.type()) {
+                        case "SquarePacket"   -> new SquarePacket();
+                        case "TrianglePacket" -> new TrianglePacket();
+                        case "InfinityPacket" -> new InfinityPacket();
+                        case "BigPacket1"     -> new BigPacket1(pc.colorId());
+                        case "BigPacket2"     -> new BigPacket2(pc.colorId());
+                        case "ProtectedPacket"-> new ProtectedPacket<>(new SquarePacket(), sm.rng());
+                        case "SecretPacket1"  -> new SecretPacket1();
+                        case "SecretPacket2"  -> new SecretPacket2<>(new ProtectedPacket<>(new SquarePacket(), sm.rng()));
+                        default -> throw new IllegalArgumentException("Unknown packet type: " + pc.type());
+                    };
+                    sys.addPacket(pkt);
+                    sm.addPacket(pkt);
+                    sm.addToFirstCountPacket();
                 }
             }
+        }
 
-            // ---------- NEW: build lines/bends from config ----------
-            if (cfg.lines() != null && !cfg.lines().isEmpty()) {
-                Map<Integer, System> byId = sm.getAllSystems()
-                        .stream().collect(Collectors.toMap(System::getId, s -> s));
-
-                for (LineConfig lc : cfg.lines()) {
-                    System sA = byId.get(lc.startSystemId());
-                    System sB = byId.get(lc.endSystemId());
-                    if (sA == null || sB == null) continue;
-
-                    List<OutputPort> outs = sA.getOutputPorts();
-                    List<InputPort>  ins  = sB.getInputPorts();
-                    if (lc.startOutputIndex() < 0 || lc.startOutputIndex() >= outs.size()) continue;
-                    if (lc.endInputIndex()    < 0 || lc.endInputIndex()    >= ins.size())  continue;
-
-                    OutputPort op = outs.get(lc.startOutputIndex());
-                    InputPort  ip = ins.get(lc.endInputIndex());
-                    if (op.getLine() != null || ip.getLine() != null) continue;
-
-                    Line wire = new Line(op, ip);
-                    op.setLine(wire);
-                    ip.setLine(wire);
-
-                    if (lc.bends() != null) {
-                        for (BendTriplet bt : lc.bends()) {
-                            wire.addBendPoint(
-                                    new Point(bt.start().x(),  bt.start().y()),
-                                    new Point(bt.middle().x(), bt.middle().y()),
-                                    new Point(bt.end().x(),    bt.end().y()));
-                        }
+        // ---------- NEW: build lines/bends from config ----------
+        if (cfg.lines() != null && !cfg.lines().isEmpty()) {
+            Map<Integer, System> byId = sm.getAllSystems()
+                    .stream().collect(Collectors.toMap(System::getId, s -> s));
+
+            for (LineConfig lc : cfg.lines()) {
+                System sA = byId.get(lc.startSystemId());
+                System sB = byId.get(lc.endSystemId());
+                if (sA == null || sB == null) continue;
+
+                List<OutputPort> outs = sA.getOutputPorts();
+                List<InputPort>  ins  = sB.getInputPorts();
+                if (lc.startOutputIndex() < 0 || lc.startOutputIndex() >= outs.size()) continue;
+                if (lc.endInputIndex()    < 0 || lc.endInputIndex()    >= ins.size())  continue;
+
+                OutputPort op = outs.get(lc.startOutputIndex());
+                InputPort  ip = ins.get(lc.endInputIndex());
+                if (op.getLine() != null || ip.getLine() != null) continue;
+
+                Line wire = new Line(op, ip);
+                op.setLine(wire);
+                ip.setLine(wire);
+
+                if (lc.bends() != null) {
+                    for (BendTriplet bt : lc.bends()) {
+                        wire.addBendPoint(
+                                new Point(bt.start().x(),  bt.start().y()),
+                                new Point(bt.middle().x(), bt.middle().y()),
+                                new Point(bt.end().x(),    bt.end().y()));
                     }
-                    sm.addLine(wire); // updates used length
                 }
-                sm.recomputeUsedWireLength();
+                sm.addLine(wire); // updates used length
             }
+            sm.recomputeUsedWireLength();
         }
         return sm;
     }
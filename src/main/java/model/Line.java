@@ -35,8 +35,10 @@ public class Line {
     public final ArrayList<TimedPoint> accelerationZero = new ArrayList<>();
     public final ArrayList<TimedPoint> getBackToCenter  = new ArrayList<>();
 
-    // ----- cached lengths -----
+    // ----- cached lengths / geometry -----
     private double totalLenCache = -1; // recompute when bends/ports move
+    private int[]  geomX, geomY;       // getPath(6) vertices; null = stale
+    private int    geomSX, geomSY, geomEX, geomEY; // port centers the cache was built from
 
     public Line(OutputPort start, InputPort end) {
         this.start = start;
@@ -74,6 +76,8 @@ public class Line {
         invalidateLengthCache();
         return bp;
     }
+    /** LevelTemplate: append a bend that is already oriented and in path order (no re-sort). */
+    void presetBend(BendPoint bp) { bendPoints.add(bp); invalidateLengthCache(); }
     public void removeBendPoint(BendPoint bendPoint) {
         bendPoints.remove(bendPoint);
         invalidateLengthCache();
@@ -155,20 +159,6 @@ public class Line {
         return Math.abs(d);
     }
 
-    public Packet closestAhead (Packet me, float sInSeg, int segIdx){ return neighbour(me, sInSeg, segIdx, true);  }
-    public Packet closestBehind(Packet me, float sInSeg, int segIdx){ return neighbour(me, sInSeg, segIdx, false); }
-
-    private Packet neighbour(Packet me, float sInSeg, int segIdx, boolean fwd) {
-        Packet best = null; float bestDist = Float.POSITIVE_INFINITY;
-        List<Packet> all = start.getParentSystem().getSystemManager().allPackets;
-        for (Packet p : all) {
-            if (p == me || p.getLine() != this) continue;
-            float dist = fwd ? distanceAlong(me, p) : distanceAlong(p, me);
-            if (dist > 0 && dist < bestDist) { bestDist = dist; best = p; }
-        }
-        return best;
-    }
-
     // lengths / cache
     private double totalLength() {
         if (totalLenCache < 0) {
@@ -179,9 +169,59 @@ public class Line {
         }
         return totalLenCache;
     }
-    public void invalidateLengthCache() { totalLenCache = -1; }
+    public void invalidateLengthCache() { totalLenCache = -1; geomX = geomY = null; }
+
+    /** Number of segments in the cached {@code getPath(6)} polyline (packets' segIdx runs over these). */
+    public int pathSegmentCount() { ensureGeometry(); return geomX.length - 1; }
+
+    /**
+     * Squared distance from {@code p} to the cached sampled path, looking only at segments
+     * {@code from..to} (clamped). Callers that know a packet's segIdx pass a small window around it.
+     */
+    public double distanceSqToPath(Point p, int from, int to) {
+        ensureGeometry();
+        int last = geomX.length - 2;
+        if (last < 0) return Double.POSITIVE_INFINITY;
+        if (from < 0) from = 0;
+        if (to > last) to = last;
+        if (from > to) from = to = Math.max(0, Math.min(from, last));
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = from; i <= to; i++) {
+            int ax = geomX[i], ay = geomY[i];
+            double vx = geomX[i + 1] - ax, vy = geomY[i + 1] - ay;
+            double wx = p.x - ax, wy = p.y - ay;
+            double len2 = vx*vx + vy*vy;
+            double t = (len2 == 0) ? 0 : (vx*wx + vy*wy) / len2;
+            t = Math.max(0, Math.min(1, t));
+            double dx = wx - t*vx, dy = wy - t*vy;
+            double d2 = dx*dx + dy*dy;
+            if (d2 < best) best = d2;
+        }
+        return best;
+    }
+
+    // bends call invalidateLengthCache(); port centers are compared here because views move them directly
+    private void ensureGeometry() {
+        Point s = start.getCenter(), e = end.getCenter();
+        if (geomX != null && s.x == geomSX && s.y == geomSY && e.x == geomEX && e.y == geomEY) return;
+        List<Point> pts = getPath(6);
+        int n = pts.size();
+        int[] xs = new int[n], ys = new int[n];
+        for (int i = 0; i < n; i++) { Point q = pts.get(i); xs[i] = q.x; ys[i] = q.y; }
+        geomX = xs; geomY = ys;
+        geomSX = s.x; geomSY = s.y; geomEX = e.x; geomEY = e.y;
+    }
     public int  lengthPx() { return lengthFromPts(getPath(6)); }
 
+    // LevelTemplate: the sampled path is never mutated in place, so clones of a level share one copy
+    int[] geometryX() { ensureGeometry(); return geomX; }
+    int[] geometryY() { ensureGeometry(); return geomY; }
+    void presetGeometry(int[] xs, int[] ys) {
+        Point s = start.getCenter(), e = end.getCenter();
+        geomX = xs; geomY = ys;
+        geomSX = s.x; geomSY = s.y; geomEX = e.x; geomEY = e.y;
+    }
+
     public int lengthIfShiftStartBy(int dx, int dy) {
         List<Point> pts = new ArrayList<>(getPath(6));
         if (pts.isEmpty()) return 0;
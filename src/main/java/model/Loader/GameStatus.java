@@ -1,7 +1,6 @@
 // src/main/java/model/GameStatus.java
 package model.Loader;
 
-import config.GameConfig;
 import config.StatusConfig;
 import config.StatusConfigManager;
 
@@ -57,8 +56,8 @@ public class GameStatus {
 
         return new StatusConfig(totalCoinCount, levels);
     }
-    public void resetNewGame(List<GameConfig> levels) {
-        StatusConfig fresh = StatusConfigManager.getInstance().newGameDefaults(levels);
+    public void resetNewGame(List<String> levelNames) {
+        StatusConfig fresh = StatusConfigManager.getInstance().newGameDefaults(levelNames);
         loadFromDTO(fresh); // write a small private mapper that fills your maps and totalCoinCount
         save();
     }
@@ -7,6 +7,7 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import config.GameConfig;
 import config.LevelPack;
 import config.GameConfig.*;
+import common.util.WriteBehind;
 import model.System;
 import model.SystemManager;
 
@@ -58,8 +59,12 @@ public final class LayoutIO {
     /** Replace *this* level’s systems & lines for all indices ≥ fromIdx. */
     public static List<GameConfig> propagateToNextLevels(List<GameConfig> all, int fromIdx, SystemManager model) {
         if (fromIdx < 0 || fromIdx >= all.size()) return all;
-        GameConfig snap = snapshotToConfig(all.get(fromIdx), model);
+        return propagateToNextLevels(all, fromIdx, snapshotToConfig(all.get(fromIdx), model));
+    }
 
+    /** Same, from an already taken snapshot (safe off the sim thread). */
+    public static List<GameConfig> propagateToNextLevels(List<GameConfig> all, int fromIdx, GameConfig snap) {
+        if (fromIdx < 0 || fromIdx >= all.size()) return all;
         List<GameConfig> out = new ArrayList<>(all);
         for (int i = fromIdx; i < out.size(); i++) {
             GameConfig base = out.get(i);
@@ -68,15 +73,26 @@ public final class LayoutIO {
         return out;
     }
 
-    /* ---------- SAVE HELPERS (Jackson) ---------- */
+    /* ---------- SAVE HELPERS (Jackson, written behind the caller) ---------- */
 
     public static void saveGameConfig(Path path, GameConfig cfg) {
-        try { OM.writeValue(path.toFile(), cfg); }
-        catch (Exception e) { e.printStackTrace(); }
+        WriteBehind.getInstance().save(path, () -> OM.writeValueAsBytes(cfg));
     }
 
     public static void saveLevelPack(Path path, List<GameConfig> levels) {
-        try { OM.writeValue(path.toFile(), new LevelPack(levels)); }
-        catch (Exception e) { e.printStackTrace(); }
+        List<GameConfig> snap = List.copyOf(levels);
+        WriteBehind.getInstance().save(path, () -> OM.writeValueAsBytes(new LevelPack(snap)));
+    }
+
+    /** Level pack with the layout snapshot copied into the named level and every level after it;
+     *  the level list is read from ConfigManager on the writer thread, not by the caller. */
+    public static void saveLevelPackFrom(Path path, String levelName, GameConfig snap) {
+        WriteBehind.getInstance().save(path, () -> {
+            List<GameConfig> all = config.ConfigManager.getInstance().getAllLevels();
+            int idx = 0;
+            while (idx < all.size() && !all.get(idx).levelName().equals(levelName)) idx++;
+            if (idx == all.size()) return null;                       // unknown level: leave the file alone
+            return OM.writeValueAsBytes(new LevelPack(propagateToNextLevels(all, idx, snap)));
+        });
     }
 }
@@ -12,14 +12,14 @@ import java.util.List;
 public abstract class Packet {
 
     // ----- identity / type -----
-    private static final java.util.concurrent.atomic.AtomicInteger NEXT_ID = new java.util.concurrent.atomic.AtomicInteger(1);        // keep for compatibility
-    private int id;
+    private int id;                             // 0 until registered with a SystemManager (SimulationContext.ids)
     protected Type type;
     protected int  size;
 
     // ----- on-wire association (kept; your code uses it) -----
     protected Line line;
     protected boolean isMoving;
+    private System owner;                       // system whose queue holds this packet (null while on a wire)
     private boolean  doneMovement;
 
     // ----- kinematics -----
@@ -46,13 +46,14 @@ public abstract class Packet {
     protected boolean trojan;
 
     // ----- ctor -----
-    protected Packet() { this.id = NEXT_ID.getAndIncrement();}
+    protected Packet() {}
 
     // ======= abstract movement (subclasses implement) =======
     public abstract void advance(float dt);
 
     // ======= getters/setters =======
     public int  getId()          { return id; }
+    void        assignId(int id) { this.id = id; }
     public int  getSize()        { return size; }
     public Type getType()        { return type; }
 
@@ -63,6 +64,9 @@ public abstract class Packet {
     public Line  getLine()       { return line; }
     public void  setLine(Line l) { this.line = l; }
 
+    public System getOwner()         { return owner; }
+    void          setOwner(System s) { this.owner = s; }
+
     public boolean getDoneMovement(){ return doneMovement; }
     public void    doneMovement()   { this.doneMovement = true; }
 
@@ -97,6 +101,9 @@ public abstract class Packet {
         }
     }
 
+    /** Index of the {@code getPath(6)} segment the packet is marching on, or -1 if it has no path yet. */
+    public int wireSegment() { return -1; }
+
     /** Called when a Reset-Center effect is hit. Default: no-op. */
     public void resetCenterDrift() { /* hook for subclasses if needed */ }
 
@@ -0,0 +1,11 @@
+package model;
+
+/** Phases of {@link SystemManager#update}, in execution order (reported to a {@link SystemManager.PhaseSink}). */
+public enum SimPhase {
+    MOTION,          // line effects + packet advance (arrivals, splits, merges)
+    TIMED_EFFECTS,   // per-packet frame counters
+    COLLISIONS,      // off-wire culling + spatial-hash collisions
+    READINESS,       // wiring checks
+    SEND,            // systems routing queued packets onto wires
+    END_CHECK        // readiness debug log + idle/win check
+}
@@ -9,6 +9,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 public abstract class System {
+    /** Box size in layout pixels; ports sit on the left/right edges (the view draws the same size). */
+    public static final int BOX_W = 90, BOX_H = 70;
+
     protected ArrayList<Packet> packets;
     protected List<InputPort> inputPorts;
     protected List<OutputPort> outputPorts;
@@ -16,6 +19,8 @@ public abstract class System {
     protected SystemManager systemManager;
     protected int id;
     protected int bigPacketCount;
+    // lines whose start or end port belongs to this system (kept by SystemManager.addLine/removeLine)
+    private final ArrayList<Line> incidentLines = new ArrayList<>(4);
 
     public System(Point location, List<InputPort> inputPorts, List<OutputPort> outputPorts,
                   SystemManager systemManager, int id) {
@@ -33,7 +38,7 @@ public abstract class System {
         for (Packet packet : copy) systemManager.removePacket(packet);
 
         // we keep the counter only (your previous behavior)
-        packets.clear();
+        clearPackets();
         bigPacketCount++;
 
         if (bigPacketCount == 3) {
@@ -42,13 +47,27 @@ public abstract class System {
         }
     }
 
-    public void addPacket(Packet packet) { packets.add(packet); }
+    public void addPacket(Packet packet) { packets.add(packet); packet.setOwner(this); }
     public void removePacket(Packet packet) {
-        int id = packet.getId();
-        for (Packet p : new ArrayList<>(packets)) {
-            if (p.getId() == id) { packets.remove(p); break; }
-        }
+        if (packets.remove(packet) && packet.getOwner() == this) packet.setOwner(null);
+    }
+    /** Swap a queued packet in place (VPN unwrap); keeps queue position and owner link. */
+    public void replacePacket(Packet old, Packet inner) {
+        int idx = packets.indexOf(old);
+        if (idx < 0) return;
+        packets.set(idx, inner);
+        if (old.getOwner() == this) old.setOwner(null);
+        inner.setOwner(this);
     }
+    protected void clearPackets() {
+        for (Packet p : packets) if (p.getOwner() == this) p.setOwner(null);
+        packets.clear();
+    }
+
+    // incident-line index
+    void attachLine(Line l) { if (!incidentLines.contains(l)) incidentLines.add(l); }
+    void detachLine(Line l) { incidentLines.remove(l); }
+    public List<Line> getIncidentLines() { return incidentLines; }
 
     public List<OutputPort> getOutputPorts() { return outputPorts; }
     public List<InputPort>  getInputPorts()  { return inputPorts;  }
@@ -1,5 +1,6 @@
 package model;
 
+import common.util.IntMap;
 import model.Loader.GameStatus;
 import model.Loader.LayoutIO;
 import model.packets.BigPacket;
@@ -15,6 +16,7 @@ import model.systems.VpnSystem;
 import java.awt.Point;
 import java.util.*;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class SystemManager {
 
@@ -27,8 +29,12 @@ public class SystemManager {
     private final ArrayList<VpnSystem>   vpnSystems  = new ArrayList<>();
     public  final ArrayList<Packet>      allPackets  = new ArrayList<>();
     public  final ArrayList<Line>        allLines    = new ArrayList<>();
-    private final HashMap<Integer, ArrayList<BitPacket>> bigPackets = new HashMap<>();
-    private final Set<Integer>           packetIds   = new HashSet<>();
+    private final IntMap<ArrayList<BitPacket>> bigPackets = new IntMap<>();
+    // ---- id-indexed lookups (ids are dense per SimulationContext, see IdGenerator) ----
+    private final IntMap<System>         systemsById = new IntMap<>();
+    private Packet[]                     packetsById = new Packet[64];
+    // ---- structural changes made mid-tick land here and are applied at phase boundaries ----
+    private final TickMutations          mutations   = new TickMutations(allPackets, allLines, this::dropSystem);
 
     // ---- Win/level bookkeeping ----
     private final GameStatus gameStatus;
@@ -52,7 +58,19 @@ public class SystemManager {
     private static final int   PORT_SAFE_PX   = 18;
     private static final float OFFWIRE_FACTOR = 1.2f;
     private static final int   OFFWIRE_GRACE_FRAMES = 4;
-    private final Map<Integer, Integer> offwireFrames = new HashMap<>();
+    private static final int   OFFWIRE_SEG_WINDOW   = 1;   // segments checked either side of the packet's segIdx
+    private int[] offwireFrames = new int[64];    // indexed by packet id
+
+    // ---- Per-phase timing (server profiler; null = untimed) ----
+    /** Receives update() phase durations. {@code sampling()} is asked once per tick; false skips all clock reads. */
+    public interface PhaseSink {
+        boolean sampling();
+        void phase(SimPhase phase, long nanos);
+    }
+    private PhaseSink phaseSink;
+
+    // ---- Index consistency checks (enable with -Dphase3.debugIndexes=true) ----
+    private static final boolean DEBUG_INDEXES = Boolean.getBoolean("phase3.debugIndexes");
 
     // ---- Misc constants ----
     private static final int  EFFECT_RADIUS_PX = 10;
@@ -62,7 +80,8 @@ public class SystemManager {
     public int coinCount = 0;
 
     // ---- ctor ----
-    public SystemManager(GameStatus gameStatus, String levelName) { this(gameStatus, levelName, 42L); }
+    public static final long DEFAULT_SEED = 42L;
+    public SystemManager(GameStatus gameStatus, String levelName) { this(gameStatus, levelName, DEFAULT_SEED); }
     public SystemManager(GameStatus gameStatus, String levelName, long seed) {
         this.rng = new java.util.Random(levelName.hashCode());
         this.ctx = new SimulationContext(seed);
@@ -78,7 +97,7 @@ public class SystemManager {
     public ArrayList<System> getAllSystems() { return systems; }
     public ArrayList<SpySystem> getAllSpySystems() { return spySystems; }
     public ArrayList<VpnSystem> getAllVpnSystems() { return vpnSystems; }
-    public HashMap<Integer, ArrayList<BitPacket>> getBigPackets() { return bigPackets; }
+    public IntMap<ArrayList<BitPacket>> getBigPackets() { return bigPackets; }
     public boolean isReady()    { return isReady; }
     public boolean isLaunched() { return launched; }
     public void    launchPackets() { launched = true; }
@@ -86,61 +105,153 @@ public class SystemManager {
     public void    addToFirstCountPacket(){ firstCountPacket++; }
     public void    addToReceivedPacket(){  receivedPacket++; }
     public void    setLevelName(String name){ this.levelName = name; }
+    public void    setPhaseSink(PhaseSink sink){ this.phaseSink = sink; }
 
     // ---- Systems/lines/packets management ----
     public void addSystem(System system) {
         systems.add(system);
+        systemsById.put(system.getId(), system);
         if (system instanceof SpySystem s)  spySystems.add(s);
         if (system instanceof VpnSystem v)  vpnSystems.add(v);
     }
     public void removeSystem(System system) {
-        Iterator<Line> it = allLines.iterator();
-        while (it.hasNext()) {
-            Line line = it.next();
-            boolean incident = system.getInputPorts().contains(line.getEnd())
-                    || system.getOutputPorts().contains(line.getStart());
-            if (incident) {
-                Packet mp = line.getMovingPacket();
-                if (mp != null) removePacket(mp);
-                it.remove();
-            }
+        for (Line line : new ArrayList<>(system.getIncidentLines())) {
+            Packet mp = line.getMovingPacket();
+            if (mp != null) removePacket(mp);
+            unindexLine(line);
+            mutations.removeLine(line);
         }
-        systems.remove(system);
+        if (systemsById.get(system.getId()) == system) systemsById.remove(system.getId());
         if (system instanceof SpySystem s)  spySystems.remove(s);
         if (system instanceof VpnSystem v) { vpnSystems.remove(v); handleVpnDestruction(v.getId()); }
+        mutations.removeSystem(system);                 // the systems list itself may be mid-iteration
+    }
+    private void dropSystem(System system) { systems.remove(system); }
+
+    public void addLine(Line line) { allLines.add(line); indexLine(line); usedLineLength += line.lengthPx(); }
+    /** LevelTemplate: size the lists for a level whose contents are known up front. */
+    void reserve(int systemCount, int packetCount, int lineCount) {
+        systems.ensureCapacity(systemCount);
+        allPackets.ensureCapacity(packetCount);
+        allLines.ensureCapacity(lineCount);
+        ensureIdCapacity(packetCount);
+    }
+    /** LevelTemplate: same as addLine with the length measured once at compile time. */
+    void addPresetLine(Line line, int lengthPx) { allLines.add(line); indexLine(line); usedLineLength += lengthPx; }
+    public void removeLine(Line line) {
+        usedLineLength -= line.lengthPx(); if (usedLineLength < 0) usedLineLength = 0;
+        unindexLine(line);
+        mutations.removeLine(line);
+    }
+    private static void indexLine(Line line) {
+        line.getStart().getParentSystem().attachLine(line);
+        line.getEnd().getParentSystem().attachLine(line);
+    }
+    private static void unindexLine(Line line) {
+        line.getStart().getParentSystem().detachLine(line);
+        line.getEnd().getParentSystem().detachLine(line);
     }
-
-    public void addLine(Line line) { allLines.add(line); usedLineLength += line.lengthPx(); }
-    public void removeLine(Line line) { usedLineLength -= line.lengthPx(); if (usedLineLength < 0) usedLineLength = 0; allLines.remove(line); }
 
     public void addPacket(Packet p) {
-        if (packetIds.add(p.getId())) {
-            allPackets.add(p);
-            if (packetSpeedBoostActive) p.scaleCurrentSpeed(packetSpeedBoostFactor);
-            if (p instanceof BigPacket big) bigPackets.put(big.getId(), big.split());
+        int id = p.getId();
+        if (id > 0 && id < packetsById.length && packetsById[id] == p) return;      // already registered
+        if (id <= 0 || (id < packetsById.length && packetsById[id] != null)) {
+            id = ctx.ids.nextPacketId();
+            p.assignId(id);
         }
+        ensureIdCapacity(id);
+        packetsById[id] = p;
+        mutations.addPacket(p);
+        if (packetSpeedBoostActive) p.scaleCurrentSpeed(packetSpeedBoostFactor);
+        if (p instanceof BigPacket big) bigPackets.put(big.getId(), big.split());
     }
     public void removePacket(Packet packet) {
-        allPackets.remove(packet);
-        for (System system : systems) if (system.getPackets().contains(packet)) system.removePacket(packet);
+        mutations.removePacket(packet);
+        System owner = packet.getOwner();
+        if (owner != null) owner.removePacket(packet);
+        retire(packet);
     }
 
-    public void handleVpnDestruction(int vpnId) {
-        for (System sys : systems) {
-            ListIterator<Packet> it = sys.getPackets().listIterator();
-            while (it.hasNext()) {
-                Packet p = it.next(); Packet inner = null;
-                if (p instanceof ProtectedPacket<?> prot && prot.getSystemId() == vpnId) inner = prot.unwrap();
-                else if (p instanceof SecretPacket2<?> s2 && s2.getSystemId() == vpnId) inner = s2.unwrap();
-                if (inner != null) it.set(inner);
-            }
+    /** VPN wrap: {@code wrapper} takes {@code inner}'s place; inner keeps its id reserved until unwrapped or retired. */
+    public void swapPacket(Packet inner, Packet wrapper) {
+        mutations.removePacket(inner);
+        System owner = inner.getOwner();
+        if (owner != null) owner.removePacket(inner);
+        int id = inner.getId();
+        if (id > 0 && id < packetsById.length && packetsById[id] == inner) packetsById[id] = null;
+        addPacket(wrapper);
+    }
+
+    /** Distribution split: the big packet leaves the sim but its id stays reserved as the bits' parentId until merged. */
+    public ArrayList<BitPacket> splitPacket(BigPacket big) {
+        mutations.removePacket(big);
+        System owner = big.getOwner();
+        if (owner != null) owner.removePacket(big);
+        int id = big.getId();
+        if (id > 0 && id < packetsById.length && packetsById[id] == big) packetsById[id] = null;
+        bigPackets.remove(id);
+        ArrayList<BitPacket> bits = big.split();
+        for (BitPacket bp : bits) addPacket(bp);
+        return bits;
+    }
+
+    /** Merger finished a family: the parent id is no longer referenced by any bit. */
+    public void releaseFamily(int parentId) {
+        if (parentId > 0 && (parentId >= packetsById.length || packetsById[parentId] == null)) ctx.ids.release(parentId);
+    }
+
+    public Packet getPacketById(int id) { return (id > 0 && id < packetsById.length) ? packetsById[id] : null; }
+    /** Registered right now; unlike {@link #allPackets} membership this is never deferred within a tick. */
+    public boolean isLive(Packet p) { return p != null && getPacketById(p.getId()) == p; }
+
+    /** Packet left the sim for good: free its id slot (and those of any wrapped inner packets). */
+    private void retire(Packet p) {
+        int id = p.getId();
+        if (id > 0 && id < packetsById.length && packetsById[id] == p) {
+            packetsById[id] = null;
+            offwireFrames[id] = 0;
+            bigPackets.remove(id);
+            ctx.ids.release(id);
+            p.assignId(0);
         }
-        ListIterator<Packet> pit = allPackets.listIterator();
-        while (pit.hasNext()) {
-            Packet p = pit.next(); Packet inner = null;
-            if (p instanceof ProtectedPacket<?> prot && prot.getSystemId() == vpnId) inner = prot.unwrap();
-            else if (p instanceof SecretPacket2<?> s2 && s2.getSystemId() == vpnId) inner = s2.unwrap();
-            if (inner != null) pit.set(inner);
+        if (p instanceof ProtectedPacket<?> prot) retireReserved(prot.unwrap());
+        else if (p instanceof SecretPacket2<?> s2) retireReserved(s2.unwrap());
+    }
+    private void retireReserved(Packet inner) {
+        int id = inner.getId();
+        if (id > 0 && (id >= packetsById.length || packetsById[id] == null)) {
+            ctx.ids.release(id);
+            inner.assignId(0);
+        }
+        if (inner instanceof ProtectedPacket<?> prot) retireReserved(prot.unwrap());
+    }
+    private void ensureIdCapacity(int id) {
+        if (id < packetsById.length) return;
+        int cap = Math.max(id + 1, packetsById.length * 2);
+        packetsById   = Arrays.copyOf(packetsById, cap);
+        offwireFrames = Arrays.copyOf(offwireFrames, cap);
+    }
+
+    public void handleVpnDestruction(int vpnId) {
+        ArrayList<Packet> wrappers = new ArrayList<>();
+        Consumer<Packet> match = p -> {
+            if (p instanceof ProtectedPacket<?> prot && prot.getSystemId() == vpnId && isLive(p)) wrappers.add(p);
+            else if (p instanceof SecretPacket2<?> s2 && s2.getSystemId() == vpnId && isLive(p)) wrappers.add(p);
+        };
+        for (Packet p : allPackets) match.accept(p);
+        mutations.forEachPendingPacket(match);          // wrapped earlier this tick, not in allPackets yet
+
+        for (Packet p : wrappers) {
+            Packet inner = (p instanceof ProtectedPacket<?> prot) ? prot.unwrap() : ((SecretPacket2<?>) p).unwrap();
+            mutations.replacePacket(p, inner);
+            System owner = p.getOwner();
+            if (owner != null) owner.replacePacket(p, inner);
+            int wid = p.getId();
+            packetsById[wid] = null; offwireFrames[wid] = 0; ctx.ids.release(wid); p.assignId(0);
+            int iid = inner.getId();
+            if (iid <= 0) { iid = ctx.ids.nextPacketId(); inner.assignId(iid); }   // level-config wrappers never registered their inner
+            ensureIdCapacity(iid);
+            packetsById[iid] = inner;
         }
     }
 
@@ -148,11 +259,24 @@ public class SystemManager {
     public void update(float dt) {
         ctx.dtSeconds = dt;
         ctx.tick++;
+        mutations.begin();
+        try {
+            step(dt);
+        } finally {
+            mutations.end();
+        }
+        if (DEBUG_INDEXES) verifyIndexes();
+    }
+
+    /** One tick; list changes made by a phase are applied at its end, so the loops walk the lists directly. */
+    private void step(float dt) {
+        final PhaseSink sink = phaseSink;
+        long t = (sink != null && sink.sampling()) ? java.lang.System.nanoTime() : 0L;
 
         if (receivedPacket >= (firstCountPacket / 2)) isLevelPassed = true;
 
         // 1) lines & motion
-        for (Line l : new ArrayList<>(allLines)) {
+        for (Line l : allLines) {
             l.tickDownEffects();
 
             Packet pkt = l.getMovingPacket();
@@ -168,25 +292,34 @@ public class SystemManager {
             }
             pkt.advance(dt);
         }
+        mutations.flush();
+        t = lap(sink, SimPhase.MOTION, t);
 
         // 2) per-packet timed effects
-        for (Packet p : new ArrayList<>(allPackets)) p.tickDownTimedEffects();
+        for (Packet p : allPackets) p.tickDownTimedEffects();
+        t = lap(sink, SimPhase.TIMED_EFFECTS, t);
 
         // 3) collisions
         checkCollisions();
+        mutations.flush();
+        t = lap(sink, SimPhase.COLLISIONS, t);
 
         // 4) launch/send from systems once wiring is valid
         boolean everyOutputWired = systems.stream().allMatch(this::allOutputsConnected);
         boolean everyInputWired  = systems.stream().allMatch(this::allInputsConnected);
         boolean clearsCentres    = wiringClearsSystemCentres();
         isReady = clearsCentres && everyOutputWired && everyInputWired;
+        t = lap(sink, SimPhase.READINESS, t);
 
         if (launched && isReady) {
             for (System sys : systems) {
                 if (!sys.getPackets().isEmpty()) sys.sendPacket();
                 if (sys instanceof AntiTrojanSystem ats) ats.cleanTrojan(dt); // dt-based, no nanoTime
             }
+            mutations.flush();
         }
+        t = lap(sink, SimPhase.SEND, t);
+
         if (ctx.tick % 15 == 0) {
             int totalOut = 0, wiredOut = 0, totalIn = 0, wiredIn = 0;
             for (var s : systems) {
@@ -203,13 +336,44 @@ public class SystemManager {
             if (isLevelPassed) commitLevelWinIfNeeded();
             else java.lang.System.out.println("you lose");
         }
+        lap(sink, SimPhase.END_CHECK, t);
+    }
+    private static long lap(PhaseSink sink, SimPhase phase, long t0) {
+        if (t0 == 0L) return 0L;
+        long now = java.lang.System.nanoTime();
+        sink.phase(phase, now - t0);
+        return now;
+    }
+
+    /** Debug-mode check: every maintained index must agree with a full scan of the model. */
+    public void verifyIndexes() {
+        if (mutations.pending() > 0) throw new IllegalStateException(mutations.pending() + " structural changes not applied");
+        for (Packet p : allPackets) {
+            if (getPacketById(p.getId()) != p)
+                throw new IllegalStateException("packet " + p.getId() + " not registered under its id");
+            System o = p.getOwner();
+            if (o != null && !o.getPackets().contains(p))
+                throw new IllegalStateException("packet " + p.getId() + " owner " + o.getId() + " does not queue it");
+        }
+        for (System s : systems) {
+            for (Packet p : s.getPackets())
+                if (p.getOwner() != s) throw new IllegalStateException("system " + s.getId() + " queues packet " + p.getId() + " it does not own");
+            int incident = 0;
+            for (Line l : allLines)
+                if (l.getStart().getParentSystem() == s || l.getEnd().getParentSystem() == s) {
+                    incident++;
+                    if (!s.getIncidentLines().contains(l))
+                        throw new IllegalStateException("system " + s.getId() + " missing incident line");
+                }
+            if (incident != s.getIncidentLines().size())
+                throw new IllegalStateException("system " + s.getId() + " has stale incident lines");
+        }
     }
 
     // ---- Collision handling (unchanged in spirit) ----
     public void checkCollisions() {
-        final ArrayList<Packet> list   = new ArrayList<>(allPackets);
-        final ArrayList<Packet> moving = new ArrayList<>(list.size());
-        for (Packet p : list) if (p != null && p.isMoving && p.getLine() != null && p.getScreenPosition() != null) moving.add(p);
+        final ArrayList<Packet> moving = new ArrayList<>(allPackets.size());
+        for (Packet p : allPackets) if (p != null && p.isMoving && p.getLine() != null && p.getScreenPosition() != null) moving.add(p);
         cullOffWire(moving);
         if (moving.size() < 2) return;
 
@@ -353,32 +517,31 @@ public class SystemManager {
             if (l == null || c == null) continue;
 
             int id = p.getId();
-            if (nearPort(l, c, PORT_SAFE_PX)) { offwireFrames.remove(id); continue; }
-
-            double dist = distanceToPolyline(l, c);
+            if (id <= 0 || id >= offwireFrames.length) continue;
+            if (nearPort(l, c, PORT_SAFE_PX)) { offwireFrames[id] = 0; continue; }
+
+            // packets know which sampled segment they are on, so only a small window is tested
+            int seg = p.wireSegment();
+            double d2 = (seg < 0)
+                    ? l.distanceSqToPath(c, 0, Integer.MAX_VALUE)
+                    : l.distanceSqToPath(c, seg - OFFWIRE_SEG_WINDOW, seg + OFFWIRE_SEG_WINDOW);
             int baseR   = Math.max(6, p.collisionRadius());
             float thr   = OFFWIRE_FACTOR * baseR;
 
-            if (dist > thr) {
-                int n = offwireFrames.getOrDefault(id, 0) + 1;
-                if (n >= OFFWIRE_GRACE_FRAMES) { packetDestroyed(p); offwireFrames.remove(id); }
-                else offwireFrames.put(id, n);
+            if (d2 > (double) thr * thr) {
+                int n = ++offwireFrames[id];
+                if (n >= OFFWIRE_GRACE_FRAMES) packetDestroyed(p);   // retire() clears the counter
             } else {
-                offwireFrames.remove(id);
+                offwireFrames[id] = 0;
             }
         }
     }
     private static boolean nearPort(Line l, Point c, int safePx) {
+        int r2 = safePx * safePx;
         Point s = l.getStart().getCenter(), e = l.getEnd().getCenter();
-        return (s != null && c.distance(s) <= safePx) || (e != null && c.distance(e) <= safePx);
-    }
-    private double distanceToPolyline(Line l, Point p) {
-        List<Point> pts = l.getPath(6);
-        if (pts == null || pts.size() < 2) return Double.POSITIVE_INFINITY;
-        double best = Double.POSITIVE_INFINITY;
-        for (int i = 0; i < pts.size() - 1; i++) best = Math.min(best, segmentDistance(p, pts.get(i), pts.get(i + 1)));
-        return best;
+        return (s != null && distSq(c, s) <= r2) || (e != null && distSq(c, e) <= r2);
     }
+    private static int distSq(Point a, Point b) { int dx = a.x - b.x, dy = a.y - b.y; return dx*dx + dy*dy; }
 
     // coins/layout/win
     public int  getTotalCoins() {
@@ -399,19 +562,11 @@ public class SystemManager {
             gameStatus.commitWin(levelName, coinCount);
         }
 
-        var cfgMgr    = config.ConfigManager.getInstance();
-        var curConfig = cfgMgr.getConfig();
+        // only the layout snapshot is taken here; encoding and the file writes happen on the WriteBehind thread
+        var curConfig = config.ConfigManager.getInstance().getConfig();
         var snap      = LayoutIO.snapshotToConfig(curConfig, this);
         LayoutIO.saveGameConfig(java.nio.file.Paths.get("gameConfig.json"), snap);
-
-        var all = new ArrayList<>(cfgMgr.getAllLevels());
-        int idx = java.util.stream.IntStream.range(0, all.size())
-                .filter(i -> all.get(i).levelName().equals(curConfig.levelName()))
-                .findFirst().orElse(-1);
-        if (idx >= 0) {
-            var updated = LayoutIO.propagateToNextLevels(all, idx, this);
-            LayoutIO.saveLevelPack(java.nio.file.Paths.get("levels.json"), updated);
-        }
+        LayoutIO.saveLevelPackFrom(java.nio.file.Paths.get("levels.json"), curConfig.levelName(), snap);
         java.lang.System.out.println("you win");
     }
 
@@ -439,8 +594,10 @@ public class SystemManager {
             if (l.getMovingPacket() == p) l.removeMovingPacket();
             p.setLine(null);
         }
-        for (System sys : systems) sys.removePacket(p);
-        allPackets.remove(p);
+        System owner = p.getOwner();
+        if (owner != null) owner.removePacket(p);
+        mutations.removePacket(p);
+        retire(p);
     }
     public Random getRng() { return rng; }
     /** Start/stack a global packet-speed boost by multiplying all current packets' speed. */
@@ -448,9 +605,8 @@ public class SystemManager {
         if (factor <= 0f || Float.isNaN(factor)) return;
         packetSpeedBoostActive = true;
         packetSpeedBoostFactor *= factor;
-        for (Packet p : new ArrayList<>(allPackets)) {
-            if (p != null) p.scaleCurrentSpeed(factor);
-        }
+        for (Packet p : allPackets) if (p != null) p.scaleCurrentSpeed(factor);
+        mutations.forEachPendingPacket(p -> p.scaleCurrentSpeed(factor));
     }
 
     /** End/unstack a boost: divide all current packets' speed by the same factor. */
@@ -458,23 +614,15 @@ public class SystemManager {
         if (factor <= 0f || Float.isNaN(factor)) return;
         float inv = 1f / factor;
         packetSpeedBoostFactor *= inv;
-        for (Packet p : new ArrayList<>(allPackets)) {
-            if (p != null) p.scaleCurrentSpeed(inv);
-        }
+        for (Packet p : allPackets) if (p != null) p.scaleCurrentSpeed(inv);
+        mutations.forEachPendingPacket(p -> p.scaleCurrentSpeed(inv));
         // normalize floating drift
         if (Math.abs(packetSpeedBoostFactor - 1f) < 1e-6f) {
             packetSpeedBoostActive = false;
             packetSpeedBoostFactor = 1.0f;
         }
     }
-    public System getSystemById(int id) {
-        for (System sys : systems){
-            if (sys.getId() == id){
-                return sys;
-            }
-        }
-        return null;
-    }
+    public System getSystemById(int id) { return systemsById.get(id); }
     /** Compute total change in incident wire length if 'system' moved by (dx,dy).
      *  Pure: does NOT mutate lines, bends, or budget. */
     public int incidentLengthDeltaForMove(System system, int dx, int dy) {
@@ -483,10 +631,9 @@ public class SystemManager {
         int before = 0;
         int after  = 0;
 
-        for (Line l : allLines) {
-            boolean shiftsStart = system.getOutputPorts().contains(l.getStart());
-            boolean shiftsEnd   = system.getInputPorts().contains(l.getEnd());
-            if (!shiftsStart && !shiftsEnd) continue;
+        for (Line l : system.getIncidentLines()) {
+            boolean shiftsStart = l.getStart().getParentSystem() == system;
+            boolean shiftsEnd   = l.getEnd().getParentSystem() == system;
 
             int lenNow = l.lengthPx();
             before += lenNow;
@@ -526,11 +673,7 @@ public class SystemManager {
         }
 
         // invalidate line caches for all lines touching this system
-        for (var l : new java.util.ArrayList<>(allLines)) {
-            if (outs.contains(l.getStart()) || ins.contains(l.getEnd())) {
-                l.invalidateLengthCache();
-            }
-        }
+        for (var l : sys.getIncidentLines()) l.invalidateLengthCache();
     }
     public boolean isLevelPassed() { return isLevelPassed; }
     public boolean isEverythingIdle() { return allIdle(); }
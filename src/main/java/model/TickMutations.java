@@ -0,0 +1,87 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/** Tick-scoped buffer of structural changes to {@link SystemManager}'s lists.
+ *  – While a tick runs, adds/removes/replacements are recorded in call order and applied
+ *    at phase boundaries, so the phase loops walk the live lists without copying them.
+ *  – Outside a tick every change is applied immediately.
+ *  – Only list membership is deferred; owner queues, line indexes and the id registry
+ *    are still updated by the caller at the moment of the change.
+ */
+final class TickMutations {
+
+    enum Kind { ADD_PACKET, REMOVE_PACKET, REPLACE_PACKET, REMOVE_LINE, REMOVE_SYSTEM }
+    private record Op(Kind kind, Object a, Object b) {}
+
+    private final List<Packet>      packets;
+    private final List<Line>        lines;
+    private final Consumer<System>  dropSystem;
+
+    private final ArrayList<Op> ops = new ArrayList<>();
+    private final Set<Packet>   removeRun = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean deferring;
+
+    TickMutations(List<Packet> packets, List<Line> lines, Consumer<System> dropSystem) {
+        this.packets    = packets;
+        this.lines      = lines;
+        this.dropSystem = dropSystem;
+    }
+
+    // ---- tick scope ----
+    void    begin()      { deferring = true; }
+    void    end()        { flush(); deferring = false; }
+    boolean deferring()  { return deferring; }
+    int     pending()    { return ops.size(); }
+
+    // ---- recording ----
+    void addPacket(Packet p)                  { record(Kind.ADD_PACKET, p, null); }
+    void removePacket(Packet p)               { record(Kind.REMOVE_PACKET, p, null); }
+    void replacePacket(Packet old, Packet nu) { record(Kind.REPLACE_PACKET, old, nu); }
+    void removeLine(Line l)                   { record(Kind.REMOVE_LINE, l, null); }
+    void removeSystem(System s)               { record(Kind.REMOVE_SYSTEM, s, null); }
+
+    private void record(Kind kind, Object a, Object b) {
+        ops.add(new Op(kind, a, b));
+        if (!deferring) flush();
+    }
+
+    /** Packets this tick added (or swapped in) that are not in the list yet. */
+    void forEachPendingPacket(Consumer<Packet> fn) {
+        for (Op op : ops) {
+            if (op.kind == Kind.ADD_PACKET)          fn.accept((Packet) op.a);
+            else if (op.kind == Kind.REPLACE_PACKET) fn.accept((Packet) op.b);
+        }
+    }
+
+    /** Phase boundary: apply everything in record order; runs of packet removals share one pass. */
+    void flush() {
+        if (ops.isEmpty()) return;
+        for (int i = 0; i < ops.size(); i++) {
+            Op op = ops.get(i);
+            switch (op.kind) {
+                case ADD_PACKET -> packets.add((Packet) op.a);
+                case REMOVE_PACKET -> {
+                    removeRun.add((Packet) op.a);
+                    if (i + 1 == ops.size() || ops.get(i + 1).kind != Kind.REMOVE_PACKET) {
+                        packets.removeIf(removeRun::contains);
+                        removeRun.clear();
+                    }
+                }
+                case REPLACE_PACKET -> {
+                    int idx = packets.indexOf(op.a);
+                    if (idx >= 0) packets.set(idx, (Packet) op.b);
+                    else packets.add((Packet) op.b);
+                }
+                case REMOVE_LINE   -> lines.remove((Line) op.a);
+                case REMOVE_SYSTEM -> dropSystem.accept((System) op.a);
+            }
+        }
+        ops.clear();
+    }
+}
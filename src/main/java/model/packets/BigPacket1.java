@@ -94,6 +94,8 @@ public class BigPacket1 extends BigPacket {
         basePoint = lerp(path.get(segIdx), path.get(segIdx + 1), t);
     }
 
+    @Override public int wireSegment() { return path == null ? -1 : segIdx; }
+
     @Override protected void resetPath() {
         path = null; segLen = null; segIdx = 0; sInSeg = 0f; basePoint = null;
     }
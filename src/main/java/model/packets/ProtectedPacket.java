@@ -6,6 +6,7 @@ import model.Port;
 import java.awt.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static model.Type.OTHERS;
@@ -23,12 +24,15 @@ public class ProtectedPacket<P extends Packet & MessengerTag> extends Packet {
 
 
 
-    public ProtectedPacket(P inner) {
+    public ProtectedPacket(P inner) { this(inner, ThreadLocalRandom.current()); }
+
+    /** Movement profile drawn from {@code rng}; pass the level's seeded rng to keep the simulation replayable. */
+    public ProtectedPacket(P inner, Random rng) {
         this.inner = inner;
         this.type  = PROTECTED;
         this.size  = inner.getSize() * 2;
 
-        switch (ThreadLocalRandom.current().nextInt(1, 4)) {
+        switch (rng.nextInt(1, 4)) {
             case 1 -> { speed = 4f;   acceleration = 0f;   }
             case 2 -> { speed = 2.5f; acceleration = 0f;   }
             case 3 -> { speed = 1f;   acceleration = 0.3f; }
@@ -86,6 +90,8 @@ public class ProtectedPacket<P extends Packet & MessengerTag> extends Packet {
         basePoint = lerp(path.get(segIdx), path.get(segIdx + 1), t);
     }
 
+    @Override public int wireSegment() { return path == null ? -1 : segIdx; }
+
     protected void resetPath() {
         path = null; segLen = null; segIdx = 0; sInSeg = 0f; basePoint = null;
     }
@@ -77,6 +77,8 @@ public class SecretPacket1 extends Packet {
         basePoint = lerp(path.get(segIdx), path.get(segIdx + 1), t);
     }
 
+    @Override public int wireSegment() { return path == null ? -1 : segIdx; }
+
     protected void resetPath() {
         path = null; segLen = null; segIdx = 0; sInSeg = 0f; basePoint = null;
     }
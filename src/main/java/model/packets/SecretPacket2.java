@@ -51,7 +51,7 @@ public final class SecretPacket2<P extends Packet & MessengerTag> extends Packet
         Point my = (point != null ? point : basePoint);
 
         for (Packet other : mgr.allPackets) {
-            if (other == this) continue;
+            if (other == this || !mgr.isLive(other)) continue;   // removals this tick are still listed
             Point op = other.getPoint();
             if (op == null) continue;
             if (my.distance(op) < SAFE_GAP) { avgX += op.x; avgY += op.y; hits++; }
@@ -107,6 +107,8 @@ public final class SecretPacket2<P extends Packet & MessengerTag> extends Packet
         basePoint = lerp(path.get(segIdx), path.get(segIdx + 1), t);
     }
 
+    @Override public int wireSegment() { return path == null ? -1 : segIdx; }
+
     @Override protected void resetPath() {
         path = null; segLen = null; segIdx = 0; sInSeg = 0f; basePoint = null;
     }
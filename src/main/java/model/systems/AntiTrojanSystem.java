@@ -65,7 +65,7 @@ public class AntiTrojanSystem extends System {
 
         if (chosen != null) {
             chosen.movePacketThrow(head);
-            packets.remove(head);
+            removePacket(head);
         }
     }
 }
@@ -69,7 +69,7 @@ public class DestroyerSystem extends System {
                 packet.wrongPort(chosen);
             }
             chosen.movePacketThrow(packet);
-            packets.remove(packet);
+            removePacket(packet);
         }
         // else: leave it queued until some port frees up
     }
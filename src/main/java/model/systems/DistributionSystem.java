@@ -21,13 +21,8 @@ public class DistributionSystem extends System {
         // Big → split into bits
         if (packet instanceof BigPacket big) {
             handleBigPacketArrival(big);
-            // remove from global list
-            systemManager.removePacket(big);
-
-            for (BitPacket bp : big.split()) {
-                systemManager.addPacket(bp);
-                addPacket(bp);
-            }
+            // swap the big packet for its bits (parent id stays reserved until merged)
+            for (BitPacket bp : systemManager.splitPacket(big)) addPacket(bp);
             return;
         }
 
@@ -63,7 +58,7 @@ public class DistributionSystem extends System {
         /* 4 ── if we found one, inject the packet onto the line */
         if (chosen != null) {
             chosen.movePacketThrow(packet);
-            packets.remove(packet);
+            removePacket(packet);
         }
         /* else: every line is busy → leave packet queued */
     }
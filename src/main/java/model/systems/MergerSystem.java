@@ -10,10 +10,10 @@ import model.System;
 import java.awt.*;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.HashMap;
+import common.util.IntMap;
 
 public class MergerSystem extends System{
-    private final HashMap<Integer, ArrayList<BitPacket>> bins = new HashMap<>();
+    private final IntMap<ArrayList<BitPacket>> bins = new IntMap<>();
     public MergerSystem(Point location, List<InputPort> inputPorts, List<OutputPort> outputPorts, SystemManager systemManager, int id) {
         super(location, inputPorts, outputPorts, systemManager, id);
 
@@ -31,7 +31,7 @@ public class MergerSystem extends System{
             return;     // don’t queue – they’re consumed
         }
 
-        packets.add(packet); // ordinary packet;
+        addPacket(packet); // ordinary packet;
         addingCoin(packet);
     }
     // MergerSystem.java
@@ -60,8 +60,9 @@ public class MergerSystem extends System{
         }
 
         systemManager.addPacket(rebuilt);   // global registry
-        packets.add(rebuilt);               // queue locally for routing
+        addPacket(rebuilt);               // queue locally for routing
         bins.remove(parentId);              // bin done
+        systemManager.releaseFamily(parentId);
     }
 
 
@@ -91,7 +92,7 @@ public class MergerSystem extends System{
         /* 4 ── if we found one, inject the packet onto the line */
         if (chosen != null) {
             chosen.movePacketThrow(packet);
-            packets.remove(packet);
+            removePacket(packet);
         }
         /* else: every line is busy → leave packet queued */
     }
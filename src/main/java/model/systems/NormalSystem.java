@@ -52,7 +52,7 @@ public class NormalSystem extends System {
         /* 4 ── if we found one, inject the packet onto the line */
         if (chosen != null) {
            chosen.movePacketThrow(packet);
-           packets.remove(packet);
+           removePacket(packet);
         }
         /* else: every line is busy → leave packet queued */
     }
@@ -18,17 +18,18 @@ public class ReferenceSystem extends System {
         super(location, inputPorts, outputPorts, systemManager, id);
     }
     public void receivePacket(Packet packet) {
+        int packetId = packet.getId(); // removePacket below frees the id
         if(!(packet instanceof BitPacket)) {
             systemManager.addToReceivedPacket();
         }
         systemManager.removePacket(packet);
         packet.getLine().removeMovingPacket();
         packet.setLine(null);
-        packets.remove(packet);
+        removePacket(packet);
         packet.isNotMoving();
         packet.doneMovement();
         addingCoin(packet);
-        java.lang.System.out.println("Received packet " + packet.getId() + " status " + packet.getDoneMovement());
+        java.lang.System.out.println("Received packet " + packetId + " status " + packet.getDoneMovement());
 
     }
 
@@ -57,7 +58,7 @@ public class ReferenceSystem extends System {
         // if we found one, inject the packet onto the line
         if (chosen != null) {
             chosen.movePacketThrow(packet);
-            packets.remove(packet);
+            removePacket(packet);
         }
     }
 }
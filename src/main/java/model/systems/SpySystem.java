@@ -29,7 +29,7 @@ public class SpySystem extends System {
         }
         if (packet instanceof SecretPacket2 || packet instanceof SecretPacket1) {
             systemManager.removePacket(packet);
-            packets.remove(packet);
+            removePacket(packet);
             return;
         }
         else if(isSpecialShape(packet)) {
@@ -65,7 +65,7 @@ public class SpySystem extends System {
 
         if (chosen != null) {
             chosen.movePacketThrow(packet);
-            packets.remove(packet);
+            removePacket(packet);
         }
     }
 
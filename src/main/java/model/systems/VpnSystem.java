@@ -28,8 +28,7 @@ public class VpnSystem extends System {
         if (packet instanceof ProtectedPacket<?> pp) {
             SecretPacket2<?> secret = pp.changePacket();
             secret.setSystemId(id);
-            systemManager.removePacket(packet);
-            systemManager.addPacket(secret);
+            systemManager.swapPacket(packet, secret);
             addPacket(secret);
             secret.isNotMoving();
             return;
@@ -38,9 +37,8 @@ public class VpnSystem extends System {
         /* 2) Wrap ordinary messenger packets → Protected */
         else if (packet instanceof MessengerTag) {
             // cast to intersection type so generics accept it
-            ProtectedPacket<?> prot = new ProtectedPacket<>((Packet & MessengerTag) packet);
-            systemManager.removePacket(packet);
-            systemManager.addPacket(prot);
+            ProtectedPacket<?> prot = new ProtectedPacket<>((Packet & MessengerTag) packet, systemManager.rng());
+            systemManager.swapPacket(packet, prot);
             prot.setSystemId(id);
             addPacket(prot);
             prot.isNotMoving();
@@ -77,17 +75,17 @@ public class VpnSystem extends System {
         /* 4 ── if we found one, inject the packet onto the line */
         if (chosen != null) {
             chosen.movePacketThrow(packet);
-            packets.remove(packet);
+            removePacket(packet);
         }
         /* else: every line is busy → leave packet queued */
     }
     @Override
     public void handleBigPacketArrival(BigPacket bigPacket) {
-        for(Packet packet : packets) {
+        for(Packet packet : new ArrayList<>(packets)) {
             systemManager.removePacket(packet);
         }
-        packets.clear();
-        packets.add(bigPacket);
+        clearPackets();
+        addPacket(bigPacket);
         bigPacketCount++;
         if(bigPacketCount==3) {
             systemManager.handleVpnDestruction(id);
@@ -0,0 +1,36 @@
+package server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Server stamps for one COMMAND the client sent with "trace" (all {@link common.util.MicroClock} µs).
+ *  Created when the room drains the command, stamped again when {@link LevelSession#step} applies it,
+ *  and reported in the first SNAPSHOT composed after that. */
+final class CmdTrace {
+    final long seq;
+    final long rxUs;          // read loop queued the envelope
+    final long dequeueUs;     // room drained it
+    final long dequeueTick;   // room tick of the drain
+    long applyUs;             // LevelSession applied it
+    long applyTick = -1;      // that side's sim tick
+
+    CmdTrace(long seq, long rxUs, long dequeueUs, long dequeueTick) {
+        this.seq = seq; this.rxUs = rxUs; this.dequeueUs = dequeueUs; this.dequeueTick = dequeueTick;
+    }
+
+    void applied(long us, long simTick) { applyUs = us; applyTick = simTick; }
+
+    /** Entry of a snapshot's ui.trace list. */
+    Map<String, Object> toWire(long snapUs, long snapTick) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("seq", seq);
+        m.put("rx", rxUs);
+        m.put("dq", dequeueUs);
+        m.put("dqTick", dequeueTick);
+        m.put("ap", applyUs);
+        m.put("apTick", applyTick);
+        m.put("sn", snapUs);
+        m.put("snTick", snapTick);
+        return m;
+    }
+}
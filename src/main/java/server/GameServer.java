@@ -10,7 +10,10 @@ import net.Wire.Envelope;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import model.LevelsManager;
+import server.ops.FlightRecorderTrigger;
 import server.ops.Metrics;
+import server.ops.OpenMetrics;
+import server.ops.PhaseProfiler;
 import server.storage.Store;
 
 import java.io.*;
@@ -30,6 +33,8 @@ public final class GameServer {
     }
 
     private static final ObjectMapper JSON = new ObjectMapper();
+    /** Binary per-room recordings under ~/.phase3/server/recordings (replay with tools.Replay). */
+    private static final boolean RECORD_MATCHES = Boolean.parseBoolean(System.getProperty("phase3.record", "true"));
     private final server.storage.Store store =
             new server.storage.Store(java.nio.file.Paths.get(System.getProperty("user.home"), ".phase3", "server"));
 
@@ -42,11 +47,23 @@ public final class GameServer {
     private final Map<String, Session> sessions = new ConcurrentHashMap<>();
     private final Map<String, Session> sessionsByToken = new ConcurrentHashMap<>();
     private final Map<String, Room> rooms = new ConcurrentHashMap<>();
-    private final Queue<Session> matchmaking = new ConcurrentLinkedQueue<>();
+    /** How often the batch pairer runs over the level queues. */
+    private static final long PAIR_EVERY_MS = Long.getLong("phase3.mm.pairMs", 50);
+    /** Session pools are filled at startup for the first N levels of the pack; others on first demand. */
+    private static final int PREWARM_LEVELS = Integer.getInteger("phase3.pool.prewarmLevels", 5);
+    /** Worker threads of the :8081 sidecar. */
+    private static final int HTTP_THREADS = Math.max(1, Integer.getInteger("phase3.http.threads", 4));
+    private final ScheduledExecutorService mmExec = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Matchmaker");
+        t.setDaemon(true);
+        return t;
+    });
 
     private final LevelsManager levels = new LevelsManager();
-    private final Matchmaker matchmaker = new Matchmaker(matchmaking, levels);
     private final Metrics metrics = new Metrics();
+    private final SessionPool sessionPool = new SessionPool(levels, metrics);
+    private final Matchmaker matchmaker = new Matchmaker(sessionPool, metrics, this::prepareRoom);
+    private FlightRecorderTrigger jfr;      // set in start(), before the tick is scheduled
     public GameServer(int port) { this.port = port; }
 
     public void start() throws IOException {
@@ -63,9 +80,14 @@ public final class GameServer {
             metrics.bind(
                     (ConcurrentMap<String, ?>) sessions,
                     (ConcurrentMap<String, ?>) rooms,
-                    (ConcurrentLinkedQueue<?>) matchmaking
+                    matchmaker::depths
             );
             server.GameServer.bindMetrics(metrics); // let onRoomActive bump matchesActive
+            metrics.register("store_append", store.appendLatency());
+
+            // === flight recorder (phase3.jfr=on) + tick-overrun dumps ===
+            jfr = new FlightRecorderTrigger(store.dir().resolve("jfr"));
+            jfr.start();
             startHttpSidecar();                     // /health & /metrics on 8081
 
             // periodic metrics snapshot (every 5s)
@@ -77,6 +99,12 @@ public final class GameServer {
             // === game tick ===
             tickExec.scheduleAtFixedRate(this::tickAll, 0, 33, TimeUnit.MILLISECONDS);
 
+            // === matchmaking (batch pairer, off the tick thread; rooms come from the pre-built pool) ===
+            metrics.bindPool(sessionPool::readyCounts);
+            sessionPool.prewarm(levels.getLevelNames().subList(0, Math.min(PREWARM_LEVELS, levels.getLevelNames().size())));
+            mmExec.scheduleWithFixedDelay(this::pairQueued, PAIR_EVERY_MS, PAIR_EVERY_MS, TimeUnit.MILLISECONDS);
+            mmExec.scheduleWithFixedDelay(sessionPool::adapt, 5, 5, TimeUnit.SECONDS);
+
             // === accept loop ===
             while (true) {
                 Socket s = ss.accept();
@@ -117,9 +145,16 @@ public final class GameServer {
             while ((line = in.readLine()) != null) {
                 Envelope env = Wire.decode(line);
                 session.lastSeen = System.currentTimeMillis();
+                session.net.received(env.t, line.length() + 1);
 
                 switch (env.t) {
-                    case "PING"      -> NetIO.send(session, Wire.of("PONG", sid, env.data));
+                    case "PING" -> {
+                        // echo the client's stamps and add ours, so it can estimate the clock offset
+                        var pong = (env.data instanceof com.fasterxml.jackson.databind.node.ObjectNode o)
+                                ? o : JSON.createObjectNode();
+                        pong.put("st", common.util.MicroClock.nowUs());
+                        NetIO.send(session, Wire.of("PONG", sid, pong));
+                    }
                     case "JOIN_QUEUE" -> {
                         // If already matched, do not re-queue (prevents duplicate rooms).
                         if (session.room != null && session.room.started) {
@@ -130,53 +165,29 @@ public final class GameServer {
                         String requested = (env.data != null) ? env.data.path("level").asText("") : "";
                         requested = (requested == null ? "" : requested.trim());
 
-                        if (levels.getLevelConfigs().isEmpty()) {
+                        if (levels.getLevelNames().isEmpty()) {
                             NetIO.send(session, err("no_levels", "No levels loaded."));
                             break;
                         }
-                        session.levelName = (requested.isBlank() || "default".equalsIgnoreCase(requested))
+                        String level = (requested.isBlank() || "default".equalsIgnoreCase(requested))
                                 ? levels.getLevelName(0) : requested;
 
-                        var smProbe = levels.getLevelManager(session.levelName);
-                        if (smProbe == null) {
-                            NetIO.send(session, err("bad_level", "unknown level: " + session.levelName));
+                        if (levels.getLevelTemplate(level) == null) {
+                            NetIO.send(session, err("bad_level", "unknown level: " + level));
                             break;
                         }
 
-                        // ensure at most one copy in queue
-                        while (matchmaking.remove(session)) {/* purge dup */}
-                        session.inputs.clear();
-                        matchmaking.add(session);
-
-                        System.out.println("[MM] enqueued sid=" + session.sid + " level=" + session.levelName
-                                + " qsize=" + matchmaking.size());
-
-                        Room r;
-                        synchronized (matchmaker) {
-                            r = matchmaker.tryMatch();
-                            if (r != null) rooms.put(r.id, r);
+                        // re-join replaces the old ticket; the pairer sends START once matched
+                        if (!matchmaker.enqueue(session, level)) {
+                            NetIO.send(session, err("already_matched", "Already paired; START is on its way"));
+                            break;
                         }
+                        session.levelName = level;
+                        session.inputs.clear();
 
-                        if (r != null) {
-                            metrics.matchesStarted.incrementAndGet();
-
-                            final String rid  = r.id;
-                            final String lvl  = r.levelNameA;   // both sides play same level
-                            final String tokA = r.a.token, tokB = r.b.token;
-
-                            System.out.println(json("match_started",
-                                    java.util.Map.of("roomId", rid, "level", lvl, "a", r.a.sid, "b", r.b.sid)));
-                            storeSafe("matchStarted", () -> store.matchStarted(rid, lvl, tokA, tokB));
-
-                            // DO NOT: r.beginBuildPhase(..)
-                            // DO NOT: send START here — Matchmaker already did this
-
-                            NetIO.send(session, Wire.of("JOINED", session.sid,
-                                    java.util.Map.of("queued", false, "level", session.levelName)));
-                        } else {
-                            NetIO.send(session, Wire.of("JOINED", session.sid,
-                                    java.util.Map.of("queued", true, "level", session.levelName)));
-                        }
+                        System.out.println("[MM] enqueued sid=" + session.sid + " level=" + session.levelName);
+                        NetIO.send(session, Wire.of("JOINED", session.sid,
+                                java.util.Map.of("queued", true, "level", session.levelName)));
                     }
                     case "COMMAND" -> {
                         var d = env.data;
@@ -218,7 +229,7 @@ public final class GameServer {
 
                         session.lastSeq = seq;
                         if (session.inputs.size() >= 512) session.inputs.poll();
-                        session.inputs.add(env);
+                        session.inputs.add(new Session.Inbound(env, System.nanoTime()));
                     }
 
 
@@ -243,7 +254,8 @@ public final class GameServer {
                         try { if (!lastMacHexCli.isEmpty()) lastMacCli = Hex.decode(lastMacHexCli); }
                         catch (Exception ignore) { lastMacCli = new byte[0]; }
 
-                        // Rebind writer to the authoritative session
+                        // Rebind writer to the authoritative session (this connection's reads count there from now on)
+                        session.net.publishIn();
                         sessions.remove(session.sid);
                         sessionsByToken.remove(session.token);
                         target.rebindOut(out);
@@ -325,13 +337,42 @@ public final class GameServer {
         }
         finally {
             if (session != null) {
+                session.net.publishIn();
                 dropSession(session, "io_error_or_closed");
             }
         }
     }
 
+    /** Pairer thread, before the room is bound, sent START or put in {@link #rooms}. */
+    private void prepareRoom(Room r) {
+        if (RECORD_MATCHES)
+            r.startRecording(store.dir().resolve("recordings"), levels.getLevelConfig(r.levelNameA));
+    }
+
+    /** One batch-pairing cycle; rooms start in BUILD (Matchmaker already sent START). */
+    private void pairQueued() {
+        try {
+            for (Room r : matchmaker.pairAll()) {
+                rooms.put(r.id, r);
+                metrics.matchesStarted.incrementAndGet();
+
+                final String rid  = r.id;
+                final String lvl  = r.levelNameA;   // both sides play same level
+                final String tokA = r.a.token, tokB = r.b.token;
+
+                System.out.println(json("match_started",
+                        java.util.Map.of("roomId", rid, "level", lvl, "a", r.a.sid, "b", r.b.sid)));
+                storeSafe("matchStarted", () -> store.matchStarted(rid, lvl, tokA, tokB));
+            }
+        } catch (Throwable t) {
+            System.err.println("[MM] pairing failed: " + t);
+        }
+    }
+
     private void tickAll() {
         final long tickStartNs = System.nanoTime();
+        final PhaseProfiler prof = PhaseProfiler.getInstance();
+        prof.beginTick();
         final long now = System.currentTimeMillis();
 
         // timeouts
@@ -347,6 +388,8 @@ public final class GameServer {
         }
         final long elapsedNs = System.nanoTime() - tickStartNs;
         metrics.observeTickNanos(elapsedNs);
+        if (prof.sampling()) prof.record(PhaseProfiler.Phase.TICK_ALL, elapsedNs);
+        jfr.onTick(elapsedNs, rooms.size());
     }
 
     private static Wire.Envelope err(String code, String msg) {
@@ -362,7 +405,7 @@ public final class GameServer {
         try { NetIO.send(s, err("disconnect", reason)); } catch (Exception ignored) {}
         sessions.remove(s.sid);
         sessionsByToken.remove(s.token);
-        matchmaking.remove(s);
+        matchmaker.remove(s);
         Room r = s.room;
         if (r != null) {
             boolean wasActive = (r.state == RoomState.ACTIVE);
@@ -385,6 +428,7 @@ public final class GameServer {
                 }
             }
             storeSafe("matchEnded", () -> store.matchEnded(r.id, reason));
+            r.closeRecording();
             metrics.matchesEnded.incrementAndGet();
             rooms.remove(r.id);
         }
@@ -393,6 +437,7 @@ public final class GameServer {
     static void bindStore(server.storage.Store s) { _storeRef = s; }
     static void bindMetrics(Metrics m) { _metricsRef = m; }
     static void onRoomActive(Room r) {
+        if (_metricsRef != null) _metricsRef.matchesActive.incrementAndGet();
         if (_storeRef != null) _storeRef.matchActive(r.id);
     }
     private void storeSafe(String op, Runnable r) {
@@ -410,17 +455,126 @@ public final class GameServer {
                 ex.sendResponseHeaders(200, b.length);
                 try (var os = ex.getResponseBody()) { os.write(b); }
             });
+            // Prometheus text (OpenMetrics if the Accept header asks for it); ?format=json for the old JSON blob
+            final OpenMetrics exporter = new OpenMetrics(metrics, PhaseProfiler.getInstance());
             http.createContext("/metrics", ex -> {
-                byte[] b = metrics.snapshotJson().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                String q = ex.getRequestURI().getQuery();
+                if (q != null && q.contains("format=json")) {
+                    byte[] b = metrics.snapshotJson().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                    ex.getResponseHeaders().add("Content-Type", "application/json");
+                    ex.sendResponseHeaders(200, b.length);
+                    try (var os = ex.getResponseBody()) { os.write(b); }
+                    return;
+                }
+                String accept = ex.getRequestHeaders().getFirst("Accept");
+                boolean om = accept != null && accept.contains("application/openmetrics-text");
+                OpenMetrics.Buf b = exporter.render(om);
+                ex.getResponseHeaders().add("Content-Type", om ? OpenMetrics.CONTENT_TYPE_OM : OpenMetrics.CONTENT_TYPE_TEXT);
+                ex.sendResponseHeaders(200, b.length());
+                try (var os = ex.getResponseBody()) { os.write(b.array(), 0, b.length()); }
+            });
+            // per-phase tick profile; ?mode=all|off|sample:N switches the sampling mode
+            http.createContext("/metrics/phases", ex -> {
+                PhaseProfiler prof = PhaseProfiler.getInstance();
+                String q = ex.getRequestURI().getQuery();
+                int status = 200;
+                if (q != null && q.startsWith("mode=") && !prof.setMode(q.substring(5))) status = 400;
+                byte[] b = prof.snapshotJson().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                ex.getResponseHeaders().add("Content-Type", "application/json");
+                ex.sendResponseHeaders(status, b.length);
+                try (var os = ex.getResponseBody()) { os.write(b); }
+            });
+            // incrementally maintained top-K; ?page=N&size=M (0-based page, size ≤ 200)
+            http.createContext("/leaderboard", ex -> {
+                int page = 0, size = 20;
+                String q = ex.getRequestURI().getQuery();
+                if (q != null) for (String kv : q.split("&")) {
+                    try {
+                        if (kv.startsWith("page=")) page = Integer.parseInt(kv.substring(5));
+                        else if (kv.startsWith("size=")) size = Integer.parseInt(kv.substring(5));
+                    } catch (NumberFormatException ignore) { }
+                }
+                byte[] b = store.leaderboard().pageJson(page, size).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                ex.getResponseHeaders().add("Content-Type", "application/json");
+                ex.sendResponseHeaders(200, b.length);
+                try (var os = ex.getResponseBody()) { os.write(b); }
+            });
+            // live rooms: /rooms lists the stats each room publishes at tick end,
+            // /rooms/{id} adds both sides' snapshots (composed by the tick thread, waited on here)
+            http.createContext("/rooms", ex -> {
+                String path = ex.getRequestURI().getPath();
+                String id = path.startsWith("/rooms/") ? path.substring("/rooms/".length()) : "";
+                int status = 200;
+                Object body;
+                if (id.isEmpty()) {
+                    List<Room.Stats> list = new ArrayList<>();
+                    for (Room r : rooms.values()) list.add(r.stats());
+                    list.sort(Comparator.comparing(Room.Stats::id));
+                    body = Map.of("count", list.size(), "rooms", list);
+                } else {
+                    Room r = rooms.get(id);
+                    if (r == null) {
+                        status = 404;
+                        body = Map.of("error", "unknown_room", "id", id);
+                    } else {
+                        try {
+                            body = Map.of("stats", r.stats(), "snapshots", r.requestSnapshots().get(1, TimeUnit.SECONDS));
+                        } catch (TimeoutException e) {
+                            status = 503;
+                            body = Map.of("error", "room_not_ticking", "stats", r.stats());
+                        } catch (Exception e) {
+                            status = 500;
+                            body = Map.of("error", String.valueOf(e.getCause() != null ? e.getCause() : e));
+                        }
+                    }
+                }
+                byte[] b = JSON.writeValueAsBytes(body);
+                ex.getResponseHeaders().add("Content-Type", "application/json");
+                ex.sendResponseHeaders(status, b.length);
+                try (var os = ex.getResponseBody()) { os.write(b); }
+            });
+            // per-session network accounting: /sessions?top=N&by=bytes_out|bytes_in|msgs_out|msgs_in|overwrites|drops|queue
+            http.createContext("/sessions", ex -> {
+                int top = 10;
+                String by = "bytes_out";
+                String q = ex.getRequestURI().getQuery();
+                if (q != null) for (String kv : q.split("&")) {
+                    try {
+                        if (kv.startsWith("top=")) top = Math.max(1, Math.min(100, Integer.parseInt(kv.substring(4))));
+                        else if (kv.startsWith("by=")) by = kv.substring(3);
+                    } catch (NumberFormatException ignore) { }
+                }
+                Comparator<NetStats.View> order = switch (by) {
+                    case "bytes_in"   -> Comparator.comparingLong(NetStats.View::bytesIn);
+                    case "msgs_out"   -> Comparator.comparingLong(NetStats.View::msgsOut);
+                    case "msgs_in"    -> Comparator.comparingLong(NetStats.View::msgsIn);
+                    case "overwrites" -> Comparator.comparingLong(NetStats.View::snapshotOverwrites);
+                    case "drops"      -> Comparator.comparingLong(NetStats.View::priorityDrops);
+                    case "queue"      -> Comparator.comparingInt(NetStats.View::outQueueHighWater);
+                    default           -> { by = "bytes_out"; yield Comparator.comparingLong(NetStats.View::bytesOut); }
+                };
+                // bounded min-heap: O(sessions · log top)
+                PriorityQueue<NetStats.View> heap = new PriorityQueue<>(top + 1, order);
+                for (Session s : sessions.values()) {
+                    heap.add(s.net.view(s));
+                    if (heap.size() > top) heap.poll();
+                }
+                List<NetStats.View> list = new ArrayList<>(heap);
+                list.sort(order.reversed());
+                byte[] b = JSON.writeValueAsBytes(Map.of("sessions", sessions.size(), "by", by, "top", list,
+                        "totals", metrics.netSnapshot()));
                 ex.getResponseHeaders().add("Content-Type", "application/json");
                 ex.sendResponseHeaders(200, b.length);
                 try (var os = ex.getResponseBody()) { os.write(b); }
             });
-            http.setExecutor(java.util.concurrent.Executors.newSingleThreadExecutor(r -> {
-                Thread t = new Thread(r, "MetricsHttp"); t.setDaemon(true); return t;
+            // a small pool, so a slow scrape or leaderboard page never holds up /health
+            final java.util.concurrent.atomic.AtomicInteger httpThreads = new java.util.concurrent.atomic.AtomicInteger();
+            http.setExecutor(Executors.newFixedThreadPool(HTTP_THREADS, r -> {
+                Thread t = new Thread(r, "MetricsHttp-" + httpThreads.incrementAndGet()); t.setDaemon(true); return t;
             }));
             http.start();
-            System.out.println("[HTTP] metrics on http://127.0.0.1:8081/metrics  health on /health");
+            System.out.println("[HTTP] metrics on http://127.0.0.1:8081/metrics (+ /metrics/phases, /leaderboard, /rooms, /sessions)  health on /health"
+                    + "  threads=" + HTTP_THREADS);
         } catch (Exception e) {
             System.err.println("[HTTP] sidecar failed: " + e.getMessage());
         }
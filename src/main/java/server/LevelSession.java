@@ -6,6 +6,8 @@ import common.NetSnapshotDTO;
 import common.PointDTO;
 import common.RoomState;
 import common.cmd.*;
+import common.jfr.Phase3Events;
+import common.util.MicroClock;
 import model.BendPoint;
 import model.Line;
 import model.System;
@@ -13,13 +15,13 @@ import model.SystemManager;
 import model.ports.InputPort;
 import model.ports.OutputPort;
 import server.ops.Arsenal;
+import server.ops.PhaseProfiler;
 
 import java.awt.Point;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ThreadLocalRandom;
 
 /** One player's authoritative match state backed by a single SystemManager. */
 public final class LevelSession {
@@ -37,6 +39,17 @@ public final class LevelSession {
     // --- inbound intents from reader threads ---
     private final ConcurrentLinkedQueue<ClientCommand> pending = new ConcurrentLinkedQueue<>();
 
+    // --- command tracing (tick thread): traced seqs waiting for step(), then applied ones waiting for a snapshot ---
+    private final java.util.HashMap<Long, CmdTrace> tracing = new java.util.HashMap<>();
+    private final List<CmdTrace> applied = new ArrayList<>();
+
+    /** Sees each command as step() applies it, stamped with the number of steps done before it (recording). */
+    public interface CommandTap { void applied(long tick, ClientCommand cmd); }
+    private volatile CommandTap tap;   // installed by the pairer thread, read by the tick thread
+
+    // simulated clock for effects and cooldowns (advances by dtMs per step; never the wall clock, so replays match)
+    private long simMs = 0;
+
     private PlayerStats playerStats;
 
     // (optional) “controllable systems” if you want per-system cooldowns
@@ -68,6 +81,7 @@ public final class LevelSession {
         this.levelId    = levelId;
         this.sm         = sm;
         this.timeLeftMs = durationMs;
+        sm.setPhaseSink(PhaseProfiler.getInstance());
     }
 
     // ===== API for Room to define which systems this side controls (optional) =====
@@ -79,11 +93,32 @@ public final class LevelSession {
     // ===== enqueue from GameServer reader thread =====
     public void enqueue(ClientCommand cmd) { if (cmd != null) pending.add(cmd); }
 
+    /** Tick thread: enqueue and have step() stamp the trace when it applies the command. */
+    void enqueue(ClientCommand cmd, CmdTrace trace) {
+        if (cmd != null && trace != null) tracing.put(cmd.seq(), trace);
+        enqueue(cmd);
+    }
+
+    /** Traces applied since the last call (cleared); the caller is about to snapshot them. */
+    List<CmdTrace> drainAppliedTraces() {
+        if (applied.isEmpty()) return List.of();
+        List<CmdTrace> out = new ArrayList<>(applied);
+        applied.clear();
+        return out;
+    }
+
+    public void setCommandTap(CommandTap tap) { this.tap = tap; }
+
     // ===== tick thread only =====
     public void step(int dtMs) {
         // 1) apply all enqueued commands on the sim thread
         ClientCommand c;
+        final CommandTap tap = this.tap;
         while ((c = pending.poll()) != null) {
+            if (tap != null) tap.applied(tick, c);
+            Phase3Events.CommandApply jfr = null;
+            if (Phase3Events.COMMAND_APPLY.isEnabled()) { jfr = new Phase3Events.CommandApply(); jfr.begin(); }
+            String outcome = "ok";
             try {
                 switch (c) {
                     case AddLineCmd a    -> addLine(a);
@@ -98,17 +133,27 @@ public final class LevelSession {
                         launched = true;
                         java.lang.System.out.println("is it launched "+launched);
                     }
-                    default -> { /* ignore unknown */ }
+                    default -> outcome = "ignored";
                 }
             } catch (Exception ex) {
+                outcome = "error";
                 java.lang.System.out.println("[LevelSession] cmd failed: " + ex);
             }
+            if (jfr != null) {
+                jfr.type = c.getClass().getSimpleName(); jfr.seq = c.seq(); jfr.outcome = outcome;
+                jfr.commit();
+            }
+            if (!tracing.isEmpty()) {
+                CmdTrace tr = tracing.remove(c.seq());
+                if (tr != null) { tr.applied(MicroClock.nowUs(), tick); applied.add(tr); }
+            }
         }
 
         // 2) advance authoritative simulation
         sm.update(dtMs / 1000f);
         tick++;
         timeLeftMs = Math.max(0, timeLeftMs - dtMs);
+        simMs += dtMs;
 
         levelPassed = sm.isLevelPassed();   // <-- you were missing this line
         score   = sm.coinCount;
@@ -117,7 +162,7 @@ public final class LevelSession {
             playerStats=new PlayerStats(isLevelPassed(),score(),wireUsedPx());
         }
         // 3) advance effects
-        long now = java.lang.System.currentTimeMillis();
+        long now = simMs;
         for (var it = effects.iterator(); it.hasNext();) {
             if (it.next().tick(now, dtMs)) it.remove();
         }
@@ -224,19 +269,7 @@ public final class LevelSession {
         int dx = m.x() - oldTopLeft.x;
         int dy = m.y() - oldTopLeft.y;
 
-        int incidentBefore = 0, incidentAfter = 0;
-        for (Line l : new ArrayList<>(sm.allLines)) {
-            boolean shiftsStart = sys.getOutputPorts().contains(l.getStart());
-            boolean shiftsEnd   = sys.getInputPorts().contains(l.getEnd());
-            if (!shiftsStart && !shiftsEnd) continue;
-
-            incidentBefore += l.lengthPx();
-            if (shiftsStart && !shiftsEnd)      incidentAfter += l.lengthIfShiftStartBy(dx, dy);
-            else if (!shiftsStart && shiftsEnd) incidentAfter += l.lengthIfShiftEndBy(dx, dy);
-            else                                 incidentAfter += l.lengthPx(); // both on same system → pure translate
-        }
-
-        int delta = incidentAfter - incidentBefore;
+        int delta = sm.incidentLengthDeltaForMove(sys, dx, dy); // walks only sys's incident lines
         if (delta > 0 && !sm.canAffordDelta(delta)) {
             java.lang.System.out.println("[LevelSession] moveSystem REJECT id=" + m.systemId()
                     + " delta="+delta+" used="+sm.getWireUsedPx()+" budget="+(int)sm.getWireBudgetPx());
@@ -255,7 +288,7 @@ public final class LevelSession {
         Line line = lineByEndpoints(u.fromSystemId(), u.fromOutputIndex(), u.toSystemId(), u.toInputIndex());
         if (line == null) return;
 
-        long now = java.lang.System.currentTimeMillis();
+        long now = simMs;
 
         // per-system cooldown (optional)
         if (!controllable.isEmpty() && !controllable.contains(u.fromSystemId())) {
@@ -304,7 +337,7 @@ public final class LevelSession {
         @Override public boolean tick(long now, int dt) {
             if (now >= endMs) return true;
             if (now >= nextMs && !controllable.isEmpty()) {
-                int idx = ThreadLocalRandom.current().nextInt(controllable.size());
+                int idx = sm.rng().nextInt(controllable.size());
                 int sysId = controllable.get(idx);
                 injectAtSystem(sysId, new model.packets.SquarePacket());
                 nextMs += PENIA_STEP_MS;
@@ -448,10 +481,7 @@ public final class LevelSession {
     }
 
     // ===== helpers =====
-    private System sysById(int id) {
-        for (System s : sm.getAllSystems()) if (s.getId() == id) return s;
-        return null;
-    }
+    private System sysById(int id) { return sm.getSystemById(id); }
     private Line lineByEndpoints(int sA, int outIdx, int sB, int inIdx) {
         System a = sysById(sA), b = sysById(sB);
         if (a == null || b == null) return null;
@@ -474,7 +504,7 @@ public final class LevelSession {
         if (s == null) return;
         Point c = new Point(s.getLocation().x + 1, s.getLocation().y + 1);
         p.setPoint(c);
-        s.getPackets().add(p);
+        s.addPacket(p);
         sm.addPacket(p);
     }
 
@@ -491,4 +521,22 @@ public final class LevelSession {
     public int     wireUsedPx()     { return sm.getWireUsedPx(); }
     public int activePackets() { return sm.allPackets.size(); }
     public PlayerStats getPlayerStats() {return playerStats; }
+
+    /** Order-sensitive hash of the observable state (score, wire, packets and their positions) for replay checks. */
+    public long stateDigest() {
+        long h = 0xcbf29ce484222325L;
+        h = mix(h, tick);
+        h = mix(h, score);
+        h = mix(h, sm.getWireUsedPx());
+        h = mix(h, sm.getTotalCoins());
+        h = mix(h, sm.allLines.size());
+        h = mix(h, sm.allPackets.size());
+        for (model.Packet p : sm.allPackets) {
+            h = mix(h, p.getId());
+            Point at = p.getPoint();
+            if (at != null) h = mix(h, ((long) at.x << 32) ^ (at.y & 0xffffffffL));
+        }
+        return h;
+    }
+    private static long mix(long h, long v) { return (h ^ v) * 0x100000001b3L; }
 }
@@ -0,0 +1,165 @@
+package server;
+
+
+import server.ops.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/** Level-bucketed matchmaking queues.
+ *  – One FIFO per level name, each with its own lock, so joins for different levels never contend.
+ *  – Every queued session holds its {@link Ticket}; leaving the queue (re-join, disconnect) unlinks it in O(1).
+ *  – {@link #pairAll()} runs periodically and pairs every two oldest waiters of every level in one pass.
+ *    Tickets are claimed under the level lock and the rooms built after it is released; a claimed ticket
+ *    stays on its session, so a JOIN_QUEUE in between is refused instead of queueing the session twice.
+ */
+final class Matchmaker {
+    /** Intrusive queue node; {@code level == null} once it has left its queue. */
+    static final class Ticket {
+        final Session session;
+        final LevelQueue queue;                 // the queue it was made for; its lock guards the fields below
+        final long enqueuedNs = java.lang.System.nanoTime();
+        LevelQueue level;
+        Ticket prev, next;
+        boolean claimed;                        // taken by the pairer …
+        Room room;                              // … and set once that room is built
+        Ticket(Session session, LevelQueue queue) { this.session = session; this.queue = queue; }
+    }
+
+    static final class LevelQueue {
+        final String name;
+        private Ticket head, tail;
+        private int size;
+        LevelQueue(String name) { this.name = name; }
+
+        synchronized void add(Ticket t) {
+            t.level = this;
+            t.prev = tail;
+            if (tail == null) head = t; else tail.next = t;
+            tail = t;
+            size++;
+        }
+        synchronized boolean unlink(Ticket t) {
+            if (t.level != this) return false;            // already paired or removed
+            if (t.prev == null) head = t.next; else t.prev.next = t.next;
+            if (t.next == null) tail = t.prev; else t.next.prev = t.prev;
+            t.prev = t.next = null;
+            t.level = null;
+            size--;
+            return true;
+        }
+        synchronized Ticket poll() {
+            Ticket t = head;
+            if (t != null) unlink(t);
+            return t;
+        }
+        synchronized int size() { return size; }
+    }
+
+    private final ConcurrentHashMap<String, LevelQueue> queues = new ConcurrentHashMap<>();
+    private final SessionPool pool;
+    private final Metrics metrics;
+    /** Runs on the pairer thread for each new room before it is bound or published (match recording). */
+    private final Consumer<Room> prepare;
+
+    Matchmaker(SessionPool pool, Metrics metrics, Consumer<Room> prepare) {
+        this.pool = pool;
+        this.metrics = metrics;
+        this.prepare = prepare;
+    }
+
+    /** Queue the session for {@code level}; a previous ticket (re-join) is dropped first.
+     *  Returns false, leaving everything as it was, if the pairer has already matched the session. */
+    boolean enqueue(Session s, String level) {
+        if (!remove(s)) return false;
+        LevelQueue q = queues.computeIfAbsent(level == null ? "" : level, LevelQueue::new);
+        Ticket t = new Ticket(s, q);
+        s.mmTicket = t;
+        q.add(t);
+        return true;
+    }
+
+    /** Take the session out of whatever queue it is in; O(1).
+     *  Returns false if its ticket was claimed and that room is still being built or running. */
+    boolean remove(Session s) {
+        Ticket t = s.mmTicket;
+        if (t == null) return true;
+        synchronized (t.queue) {
+            if (t.claimed) {
+                if (t.room == null || t.room.started) return false;   // still building, or in that match
+            } else {
+                t.queue.unlink(t);
+            }
+        }
+        s.mmTicket = null;
+        return true;
+    }
+
+    /** Queued sessions per level (gauge). */
+    Map<String, Integer> depths() {
+        Map<String, Integer> out = new TreeMap<>();
+        queues.forEach((name, q) -> out.put(name, q.size()));
+        return out;
+    }
+
+    /** Batch pairer: match every eligible pair of every level, oldest first; returns the started rooms. */
+    List<Room> pairAll() {
+        List<Room> started = new ArrayList<>();
+        for (LevelQueue q : queues.values()) {
+            List<Ticket> batch = new ArrayList<>();
+            synchronized (q) {
+                while (q.size() >= 2) {
+                    Ticket ta = q.poll(), tb = q.poll();
+                    ta.claimed = tb.claimed = true;
+                    batch.add(ta); batch.add(tb);
+                }
+            }
+            long now = java.lang.System.nanoTime();
+            for (int i = 0; i + 1 < batch.size(); i += 2) {
+                Ticket ta = batch.get(i), tb = batch.get(i + 1);
+                for (Ticket t : new Ticket[]{ta, tb})
+                    metrics.observeQueueWait(q.name, (now - t.enqueuedNs) / 1_000_000);
+                long t0 = java.lang.System.nanoTime();
+                Room r = startRoomSameLevel(q.name, ta.session, tb.session);
+                synchronized (q) { ta.room = tb.room = r; }
+                started.add(r);
+                metrics.observeTimeToStart((java.lang.System.nanoTime() - t0) / 1_000);
+            }
+        }
+        return started;
+    }
+
+    /** Start a room where BOTH sides play the SAME level (independent instances): the queue they were paired in. */
+    private Room startRoomSameLevel(String commonLevel, Session a, Session b) {
+
+        // Two independent models of the SAME level, normally pre-built by the pool; fresh seeds per side,
+        // the match recording stores them so tools.Replay can re-simulate.
+        SessionPool.Prepared pr = pool.checkout(commonLevel);
+        LevelSession levelA = pr.a(), levelB = pr.b();
+        long seedA = pr.seedA(), seedB = pr.seedB();
+
+        String roomId = UUID.randomUUID().toString();
+        Room r = new Room(roomId, a, b, commonLevel, commonLevel, levelA, levelB, seedA, seedB);
+        prepare.accept(r);   // taps + tick-0 keyframe before any thread can tick the room
+
+        // Bind and start BUILD phase
+        a.room = r; b.room = r;
+        r.beginBuildPhase(180_000L);
+
+        // START messages — both sides get the SAME level name
+        NetIO.send(a, net.Wire.of("START", a.sid, java.util.Map.of(
+                "roomId", roomId, "side", "A", "tick", r.tick,
+                "level",  commonLevel, "state", "BUILD", "buildMs", 180_000L
+        )));
+        NetIO.send(b, net.Wire.of("START", b.sid, java.util.Map.of(
+                "roomId", roomId, "side", "B", "tick", r.tick,
+                "level",  commonLevel, "state", "BUILD", "buildMs", 180_000L
+        )));
+        return r;
+    }
+}
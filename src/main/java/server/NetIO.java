@@ -1,14 +1,33 @@
 // server/NetIO.java
 package server;
 
+import common.jfr.Phase3Events;
 import net.Wire;
 import net.Wire.Envelope;
+import server.ops.Metrics;
+import server.ops.PhaseProfiler;
 
 final class NetIO {
-    static void send(Session s, Envelope e) {
-        if (s == null) return;
+    /** Encode and queue; returns the encoded line length (0 if there is no session). */
+    static int send(Session s, Envelope e) {
+        if (s == null) return 0;
+        PhaseProfiler prof = PhaseProfiler.getInstance();
+        long t = prof.start();
+        long t0 = System.nanoTime();
+        Phase3Events.SnapshotEncode jfr = null;
+        if (Phase3Events.SNAPSHOT_ENCODE.isEnabled() && "SNAPSHOT".equals(e.t)) {
+            jfr = new Phase3Events.SnapshotEncode(); jfr.begin();
+        }
         String line = Wire.encode(e); // must include '\n'
-        if ("SNAPSHOT".equals(e.t)) s.offerSnapshot(line);
-        else                        s.offerPriority(line);
+        prof.lap(PhaseProfiler.Phase.WIRE_ENCODE, t);
+        if ("SNAPSHOT".equals(e.t)) {
+            Metrics m = GameServer._metricsRef;
+            if (m != null) m.snapshotEncode.record(System.nanoTime() - t0);
+            if (jfr != null) { jfr.sid = s.sid; jfr.bytes = line.length(); jfr.commit(); }
+            s.offerSnapshot(line);
+        } else {
+            s.offerPriority(line);
+        }
+        return line.length();
     }
 }
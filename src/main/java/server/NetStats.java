@@ -0,0 +1,140 @@
+package server;
+
+import server.ops.Metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Per-session network accounting (served on /sessions).
+ *  – Hot counters are plain fields with a single owner: inbound belongs to the connection's read loop,
+ *    outbound and flushes to the session's writer thread. Each owner publishes an immutable copy at most
+ *    every {@link #PUBLISH_MS} (and when it exits) and folds the deltas into the server-wide totals.
+ *  – Snapshot overwrites and priority drops happen on whichever thread produced the message; they are
+ *    off the common path, so plain atomics.
+ *  – Sizes are encoded line lengths in chars including '\n' (bytes on the wire for ASCII JSON).
+ */
+final class NetStats {
+    static final long PUBLISH_MS = 1_000;
+
+    record TypeCount(long messages, long bytes) {}
+
+    /** What /sessions reports for one session. */
+    record View(String sid, String level, String room,
+                long msgsIn, long bytesIn, long msgsOut, long bytesOut,
+                long flushes, long idleFlushes, long flushBytesMax, double flushBytesAvg, int outQueueHighWater,
+                long snapshotOverwrites, long priorityDrops,
+                Map<String, TypeCount> in, Map<String, TypeCount> out) {}
+
+    /** Messages and bytes by type; owner thread only, except {@link #published}. */
+    static final class Counts {
+        private final boolean outbound;
+        private String[] types = new String[8];
+        private long[] msgs = new long[8], bytes = new long[8];
+        private long[] pubMsgs = new long[8], pubBytes = new long[8];    // last published, for deltas
+        private int n;
+        private long lastPublishMs;
+        volatile Map<String, TypeCount> published = Map.of();
+        volatile long totalMsgs, totalBytes;
+
+        Counts(boolean outbound) { this.outbound = outbound; }
+
+        void add(String type, int len) {
+            int i = slot(type);
+            msgs[i]++; bytes[i] += len;
+        }
+
+        /** Outbound lines start with {"t":"TYPE" (Envelope field order); matched without allocating. */
+        void addLine(String line) {
+            int i = -1;
+            for (int k = 0; k < n; k++) {
+                String t = types[k];
+                if (line.startsWith(t, 6) && line.length() > 6 + t.length() && line.charAt(6 + t.length()) == '"') { i = k; break; }
+            }
+            if (i < 0) {
+                int end = line.startsWith("{\"t\":\"") ? line.indexOf('"', 6) : -1;
+                i = slot(end > 6 ? line.substring(6, end) : "?");
+            }
+            msgs[i]++; bytes[i] += line.length();
+        }
+
+        private int slot(String type) {
+            if (type == null) type = "?";
+            for (int k = 0; k < n; k++) if (types[k].equals(type)) return k;
+            if (n == types.length) {
+                int c = n * 2;
+                types = Arrays.copyOf(types, c);
+                msgs = Arrays.copyOf(msgs, c); bytes = Arrays.copyOf(bytes, c);
+                pubMsgs = Arrays.copyOf(pubMsgs, c); pubBytes = Arrays.copyOf(pubBytes, c);
+            }
+            types[n] = type;
+            return n++;
+        }
+
+        boolean due(long nowMs) { return nowMs - lastPublishMs >= PUBLISH_MS; }
+
+        void publish(long nowMs, Metrics metrics) {
+            lastPublishMs = nowMs;
+            Map<String, TypeCount> m = new TreeMap<>();
+            long tm = 0, tb = 0;
+            for (int k = 0; k < n; k++) {
+                m.put(types[k], new TypeCount(msgs[k], bytes[k]));
+                tm += msgs[k]; tb += bytes[k];
+                long dm = msgs[k] - pubMsgs[k], db = bytes[k] - pubBytes[k];
+                if (metrics != null && (dm | db) != 0) metrics.addNet(outbound, types[k], dm, db);
+                pubMsgs[k] = msgs[k]; pubBytes[k] = bytes[k];
+            }
+            published = m;
+            totalMsgs = tm; totalBytes = tb;
+        }
+    }
+
+    final Counts in  = new Counts(false);   // read loop
+    final Counts out = new Counts(true);    // writer thread
+
+    // ---- writer thread ----
+    private long flushes, idleFlushes, flushBytesMax, pendingBytes;
+    private int queueHighWater;
+    volatile long pubFlushes, pubIdleFlushes, pubFlushBytesMax;
+    volatile int pubQueueHighWater;
+
+    // ---- producer threads ----
+    final AtomicLong snapshotOverwrites = new AtomicLong();
+    final AtomicLong priorityDrops      = new AtomicLong();
+
+    /** Read loop: one inbound line of the given type. */
+    void received(String type, int len) {
+        in.add(type, len);
+        long now = System.currentTimeMillis();
+        if (in.due(now)) in.publish(now, GameServer._metricsRef);
+    }
+    void publishIn() { in.publish(System.currentTimeMillis(), GameServer._metricsRef); }
+
+    // writer thread
+    void wrote(String line)     { out.addLine(line); pendingBytes += line.length(); }
+    void queueDepth(int depth)  { if (depth > queueHighWater) queueHighWater = depth; }
+    void flushed() {
+        if (pendingBytes == 0) { idleFlushes++; return; }
+        flushes++;
+        if (pendingBytes > flushBytesMax) flushBytesMax = pendingBytes;
+        pendingBytes = 0;
+    }
+    void maybePublishOut(long nowMs) { if (out.due(nowMs)) publishOut(nowMs); }
+    void publishOut(long nowMs) {
+        Metrics m = GameServer._metricsRef;
+        if (m != null) m.netFlushes.addAndGet(flushes - pubFlushes);
+        pubFlushes = flushes; pubIdleFlushes = idleFlushes;
+        pubFlushBytesMax = flushBytesMax; pubQueueHighWater = queueHighWater;
+        out.publish(nowMs, m);
+    }
+
+    View view(Session s) {
+        Room r = s.room;
+        long f = pubFlushes, bo = out.totalBytes;
+        return new View(s.sid, s.levelName, r == null ? null : r.id,
+                in.totalMsgs, in.totalBytes, out.totalMsgs, bo,
+                f, pubIdleFlushes, pubFlushBytesMax, f == 0 ? 0.0 : (double) bo / f, pubQueueHighWater,
+                snapshotOverwrites.get(), priorityDrops.get(), in.published, out.published);
+    }
+}
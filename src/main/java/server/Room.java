@@ -10,17 +10,30 @@ import common.cmd.*;
 import common.cmd.marker.ActivePhaseCmd;
 import common.cmd.marker.AnyPhaseCmd;
 import common.cmd.marker.BuildPhaseCmd;
+import common.jfr.Phase3Events;
+import common.util.MicroClock;
+import server.ops.Metrics;
+import server.ops.PhaseProfiler;
+import server.ops.PhaseProfiler.Phase;
+import server.storage.MatchRecording;
+import config.GameConfig;
+
+import java.nio.file.Path;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /** One room, two independent levels (A,B). */
 final class Room {
     private static final int SIM_HZ = 3000;
     private static final int SNAPSHOT_HZ = 10;
     private static final int SNAPSHOT_EVERY = SIM_HZ / SNAPSHOT_HZ;
+    private static final int STEP_MS = 33;
+    private static final int KEYFRAME_EVERY = Integer.getInteger("phase3.record.keyframeTicks", 300);  // ~10 s
     // identities / sockets
     final String  id;
     final Session a, b;
@@ -28,6 +41,8 @@ final class Room {
     // level choice (per side)
     final String        levelNameA, levelNameB;
     final LevelSession  levelA, levelB;  // ← separate authoritative models
+    final long          seedA, seedB;    // simulation seeds, kept for the match recording
+    private volatile MatchRecording.Writer recorder;   // set before the room is published, cleared at match end
     private static final int QUIESCENCE_TICKS = 90; // ~3s at 30Hz
     private int  idleBothTicks = 0;
     private boolean matchEnded = false;
@@ -46,15 +61,54 @@ final class Room {
     private final Set<Long> seenSeqB = ConcurrentHashMap.newKeySet();
     volatile boolean launchedA = false, launchedB = false;
 
+    // ---- introspection (/rooms): written by the tick thread, read by the sidecar without locks ----
+    /** Immutable per-room figures, replaced at the end of every tick. */
+    record Stats(String id, String level, RoomState state, long tick,
+                 int packetsA, int packetsB, int cmdQueueA, int cmdQueueB, int outQueueA, int outQueueB,
+                 long stepNanos, int snapshotBytesA, int snapshotBytesB, double cmdRateA, double cmdRateB,
+                 long publishedMs) {}
+    private volatile Stats stats;
+    private final ConcurrentLinkedQueue<CompletableFuture<Map<String, NetSnapshotDTO>>> snapshotRequests =
+            new ConcurrentLinkedQueue<>();
+    private long cmdsA, cmdsB, rateMarkA, rateMarkB, rateMarkMs = System.currentTimeMillis();
+    private double cmdRateA, cmdRateB;
+    private int snapBytesA, snapBytesB;
+
 
     Room(String id,
          Session a, Session b,
          String levelNameA, String levelNameB,
-         LevelSession lvlA, LevelSession lvlB) {
+         LevelSession lvlA, LevelSession lvlB,
+         long seedA, long seedB) {
         this.id = id;
         this.a = a; this.b = b;
         this.levelNameA = levelNameA; this.levelNameB = levelNameB;
         this.levelA = lvlA; this.levelB = lvlB;
+        this.seedA = seedA; this.seedB = seedB;
+        publishStats(0, 0, 0);
+    }
+
+    // ---- match recording (tools.Replay) ----
+    /** Must run before the room is published to the tick thread (see Matchmaker's prepare hook). */
+    void startRecording(Path dir, GameConfig cfg) {
+        try {
+            recorder = MatchRecording.create(dir, new MatchRecording.Header(
+                    id, levelNameA, cfg, seedA, seedB, STEP_MS, System.currentTimeMillis()));
+        } catch (Exception e) {
+            System.err.println("[ROOM " + id + "] recording disabled: " + e.getMessage());
+            return;
+        }
+        final MatchRecording.Writer w = recorder;
+        levelA.setCommandTap((t, c) -> w.command(MatchRecording.SIDE_A, t, c));
+        levelB.setCommandTap((t, c) -> w.command(MatchRecording.SIDE_B, t, c));
+        w.keyframe(levelA.tick(), levelA.stateDigest(), levelB.stateDigest());
+    }
+
+    /** Room torn down without a judged result. */
+    void closeRecording() {
+        MatchRecording.Writer w = recorder;
+        recorder = null;
+        if (w != null) w.close();
     }
 
     void beginBuildPhase(long durationMs) {
@@ -66,16 +120,30 @@ final class Room {
     }
 
     void tickOnce() {
+        final PhaseProfiler prof = PhaseProfiler.getInstance();
+        long t = prof.start();
+        Phase3Events.RoomTick jfrTick = null;
+        if (Phase3Events.ROOM_TICK.isEnabled()) { jfrTick = new Phase3Events.RoomTick(); jfrTick.begin(); }
         tick++;
 
         // 1) drain incoming COMMANDs, routing per side
-        drainCommands(a, levelA, seenSeqA);
-        drainCommands(b, levelB, seenSeqB);
+        int queuedA = drainCommands(a, levelA, seenSeqA);
+        int queuedB = drainCommands(b, levelB, seenSeqB);
+        cmdsA += queuedA; cmdsB += queuedB;
+        t = prof.lap(Phase.ROOM_DRAIN, t);
 
         // 2) advance each authoritative simulation
-        levelA.step(33);
-        levelB.step(33);
+        long stepNs = System.nanoTime();
+        levelA.step(STEP_MS);
+        levelB.step(STEP_MS);
+        stepNs = System.nanoTime() - stepNs;
+        Metrics m = GameServer._metricsRef;
+        if (m != null) m.roomStep.record(stepNs);
+        MatchRecording.Writer rec = recorder;
+        if (rec != null && levelA.tick() % KEYFRAME_EVERY == 0)
+            rec.keyframe(levelA.tick(), levelA.stateDigest(), levelB.stateDigest());
         System.out.println("[LEN] A=" + levelA.sm.getWireUsedPx() + " B=" + levelB.sm.getWireUsedPx());
+        t = prof.lap(Phase.ROOM_STEP, t);
 
         boolean bothIdle = (levelA.activePackets() == 0 && levelB.activePackets() == 0);
         idleBothTicks = bothIdle ? idleBothTicks + 1 : 0;
@@ -92,16 +160,26 @@ final class Room {
             matchResult = judge.decide(pA, pB);
             broadcastMatchEnd(matchResult);   // implement below
             matchEnded = true;
+            if (rec != null) {
+                recorder = null;
+                rec.end(new MatchRecording.End(levelA.tick(), matchResult.winner().name(), matchResult.reason(),
+                        pA.levelsPassed(), pA.coins(), pA.wireUsed(), pB.levelsPassed(), pB.coins(), pB.wireUsed()));
+            }
         }
+        t = prof.lap(Phase.ROOM_JUDGE, t);
+
         // 3) send snapshots (coalesced by NetIO writer)
         if ((tick % SNAPSHOT_EVERY) == 0) {
             var snapA = composeSnapshot(levelA, levelB, "A");
             var snapB = composeSnapshot(levelB, levelA, "B");
             System.out.println("[SNAP OUT] A ready="+snapA.ui().get("readyA")+" coinsA="+snapA.ui().get("coinsA"));
             System.out.println("[SNAP OUT] B ready="+snapB.ui().get("readyB")+" coinsB="+snapB.ui().get("coinsB"));
-            NetIO.send(a, net.Wire.of("SNAPSHOT", a.sid, snapA));
-            NetIO.send(b, net.Wire.of("SNAPSHOT", b.sid, snapB));
+            attachTraces(snapA, levelA);
+            attachTraces(snapB, levelB);
+            snapBytesA = NetIO.send(a, net.Wire.of("SNAPSHOT", a.sid, snapA));
+            snapBytesB = NetIO.send(b, net.Wire.of("SNAPSHOT", b.sid, snapB));
         }
+        t = prof.lap(Phase.ROOM_SNAPSHOT, t);
 
         // 4) phase transitions / lifecycle
         if (state == RoomState.BUILD) {
@@ -115,6 +193,77 @@ final class Room {
             activeLogged = true;
             GameServer.onRoomActive(this);
         }
+        prof.lap(Phase.ROOM_LIFECYCLE, t);
+
+        // 5) introspection: publish stats, answer pending /rooms/{id} requests
+        publishStats(stepNs, queuedA, queuedB);
+        if (!snapshotRequests.isEmpty()) answerSnapshotRequests();
+        if (jfrTick != null) {
+            jfrTick.roomId = id; jfrTick.tick = tick; jfrTick.commands = queuedA + queuedB;
+            jfrTick.packets = levelA.activePackets() + levelB.activePackets();
+            jfrTick.commit();
+        }
+    }
+
+    /** Report traced commands this side applied since its last snapshot (ui.trace) and feed the stage histograms. */
+    private void attachTraces(NetSnapshotDTO snap, LevelSession side) {
+        java.util.List<CmdTrace> done = side.drainAppliedTraces();
+        if (done.isEmpty() || snap.ui() == null) return;
+        long snapUs = MicroClock.nowUs();
+        Metrics m = GameServer._metricsRef;
+        java.util.List<Map<String, Object>> out = new java.util.ArrayList<>(done.size());
+        for (CmdTrace tr : done) {
+            out.add(tr.toWire(snapUs, tick));
+            if (m != null) {
+                m.traceDequeueToApply.record((tr.applyUs - tr.dequeueUs) * 1_000);
+                m.traceApplyToSnapshot.record((snapUs - tr.applyUs) * 1_000);
+                m.traceServerTotal.record((snapUs - tr.rxUs) * 1_000);
+            }
+        }
+        snap.ui().put("trace", out);
+    }
+
+    // ---- introspection ----
+    Stats stats() { return stats; }
+
+    private void publishStats(long stepNanos, int queuedA, int queuedB) {
+        long now = System.currentTimeMillis();
+        if (now - rateMarkMs >= 1_000) {                      // commands/s, refreshed about once a second
+            double secs = (now - rateMarkMs) / 1000.0;
+            cmdRateA = (cmdsA - rateMarkA) / secs;
+            cmdRateB = (cmdsB - rateMarkB) / secs;
+            rateMarkA = cmdsA; rateMarkB = cmdsB; rateMarkMs = now;
+        }
+        stats = new Stats(id, levelNameA, state, tick,
+                levelA.activePackets(), levelB.activePackets(), queuedA, queuedB,
+                a == null ? 0 : a.outQueue.size(), b == null ? 0 : b.outQueue.size(),
+                stepNanos, snapBytesA, snapBytesB, cmdRateA, cmdRateB, now);
+    }
+
+    /** Both sides' current snapshots. A ticking room composes them on the tick thread at the end of its
+     *  next tick, so the caller never reads the model mid-step. */
+    CompletableFuture<Map<String, NetSnapshotDTO>> requestSnapshots() {
+        CompletableFuture<Map<String, NetSnapshotDTO>> f = new CompletableFuture<>();
+        snapshotRequests.add(f);
+        if (!started) answerSnapshotRequests();               // nothing else touches the model any more
+        return f;
+    }
+
+    private void answerSnapshotRequests() {
+        Map<String, NetSnapshotDTO> snaps = null;
+        CompletableFuture<Map<String, NetSnapshotDTO>> f;
+        while ((f = snapshotRequests.poll()) != null) {
+            try {
+                if (snaps == null) {
+                    snaps = new java.util.LinkedHashMap<>();
+                    snaps.put("A", composeSnapshot(levelA, levelB, "A"));
+                    snaps.put("B", composeSnapshot(levelB, levelA, "B"));
+                }
+                f.complete(snaps);
+            } catch (RuntimeException e) {
+                f.completeExceptionally(e);
+            }
+        }
     }
 
     // Room.java
@@ -150,20 +299,32 @@ final class Room {
     }
 
     private NetSnapshotDTO composeSnapshot(LevelSession me, LevelSession opp, String sideTag) {
+        final PhaseProfiler prof = PhaseProfiler.getInstance();
+        long t = prof.start();
         var info = new MatchInfoDTO(id, me.levelId(), state, tick, me.timeLeftMs(), me.score(), opp.score(), sideTag);
         var stateDto = mapper.Mapper.toState(me.sm);
-        return new NetSnapshotDTO(info, stateDto, buildUi(sideTag));
+        var snap = new NetSnapshotDTO(info, stateDto, buildUi(sideTag));
+        prof.lap(Phase.SNAPSHOT_COMPOSE, t);
+        return snap;
     }
-    private void drainCommands(Session s, LevelSession target, Set<Long> seenSet) {
-        if (s == null) return;
+    /** Returns how many envelopes were waiting (the inbound queue depth at drain time). */
+    private int drainCommands(Session s, LevelSession target, Set<Long> seenSet) {
+        if (s == null) return 0;
+        int drained = 0;
 
         // NEW: keep only the latest move per entity/bend this tick
         java.util.Map<Integer, MoveSystemCmd> latestSystemMove = new java.util.HashMap<>();
         record BendKey(int fs, int fo, int ts, int ti, int bendIndex) {}
         java.util.Map<BendKey, MoveBendCmd> latestBendMove = new java.util.HashMap<>();
 
-        net.Wire.Envelope env;
-        while ((env = s.inputs.poll()) != null) {
+        final Metrics metrics = GameServer._metricsRef;
+        final long drainNs = System.nanoTime();
+        java.util.Map<Long, CmdTrace> moveTraces = null;      // traced moves, until coalescing settles
+        Session.Inbound in;
+        while ((in = s.inputs.poll()) != null) {
+            net.Wire.Envelope env = in.env();
+            drained++;
+            if (metrics != null) metrics.cmdQueueWait.record(drainNs - in.rxNanos());
             try {
                 if (!"COMMAND".equals(env.t)) continue;
                 com.fasterxml.jackson.databind.JsonNode d = env.data; if (d == null) continue;
@@ -183,9 +344,13 @@ final class Room {
                     continue;
                 }
 
+                // client asked for tracing: stamp receive + dequeue now, apply/snapshot later
+                CmdTrace tr = d.has("trace")
+                        ? new CmdTrace(seq, MicroClock.toUs(in.rxNanos()), MicroClock.toUs(drainNs), tick) : null;
+
                 if (cmd instanceof LaunchCmd) {
                     if (s == a) launchedA = true; else if (s == b) launchedB = true;
-                    target.enqueue(cmd); // keep explicit launch
+                    target.enqueue(cmd, tr); // keep explicit launch
                 } else if (cmd instanceof ReadyCmd) {
                     if (s == a) readyA = true; else if (s == b) readyB = true;
                 } else if (cmd instanceof MoveSystemCmd m) {
@@ -194,18 +359,24 @@ final class Room {
                     BendKey k = new BendKey(mb.fromSystemId(), mb.fromOutputIndex(), mb.toSystemId(), mb.toInputIndex(), mb.bendIndex());
                     latestBendMove.put(k, mb); // coalesce
                 } else {
-                    target.enqueue(cmd); // other commands as-is
+                    target.enqueue(cmd, tr); // other commands as-is
+                }
+                if (tr != null && (cmd instanceof MoveSystemCmd || cmd instanceof MoveBendCmd)) {
+                    if (moveTraces == null) moveTraces = new java.util.HashMap<>();
+                    moveTraces.put(cmd.seq(), tr);
                 }
 
-                NetIO.send(s, net.Wire.of("CMD_ACK", s.sid, java.util.Map.of("seq", seq)));
+                NetIO.send(s, net.Wire.of("CMD_ACK", s.sid, tr == null ? java.util.Map.of("seq", seq)
+                        : java.util.Map.of("seq", seq, "trace", java.util.Map.of("rx", tr.rxUs, "dq", tr.dequeueUs, "dqTick", tr.dequeueTick))));
             } catch (Exception ex) {
                 System.err.println("[Room " + id + "] bad command: " + ex);
             }
         }
 
-        // Apply at most one of each move now
-        for (var m : latestSystemMove.values()) target.enqueue(m);
-        for (var m : latestBendMove.values())   target.enqueue(m);
+        // Apply at most one of each move now (a coalesced-away move's trace is simply never reported)
+        for (var m : latestSystemMove.values()) target.enqueue(m, moveTraces == null ? null : moveTraces.get(m.seq()));
+        for (var m : latestBendMove.values())   target.enqueue(m, moveTraces == null ? null : moveTraces.get(m.seq()));
+        return drained;
     }
 
     /** Parse a compact command node (we strip “type” before mapping to records). */
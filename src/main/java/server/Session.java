@@ -17,13 +17,17 @@ final class Session {
     final AtomicReference<String> latestSnapshot = new AtomicReference<>(null);
     volatile boolean writerRunning = false;
     Thread writerThread;
+    final NetStats net = new NetStats();
 
     volatile long lastSeen = System.currentTimeMillis();
-    final Queue<Envelope> inputs = new ConcurrentLinkedQueue<>();
+    /** A COMMAND waiting for the room tick; rxNanos is when the read loop queued it. */
+    record Inbound(Envelope env, long rxNanos) {}
+    final Queue<Inbound> inputs = new ConcurrentLinkedQueue<>();
     volatile long lastSeq = -1;
 
     volatile Room room;
     volatile String levelName = "default";
+    volatile Matchmaker.Ticket mmTicket;      // non-null while queued; O(1) removal
     final RateLimiter cmdRate = new RateLimiter(120, 240);
     volatile long lastRateWarnMs = 0L;
 
@@ -50,9 +54,20 @@ final class Session {
         writerRunning = false;
         if (writerThread != null) writerThread.interrupt();
     }
-    void offerSnapshot(String encodedLine) { latestSnapshot.set(encodedLine); }
+    void offerSnapshot(String encodedLine) {
+        if (latestSnapshot.getAndSet(encodedLine) != null) {   // the writer never sent the previous frame
+            net.snapshotOverwrites.incrementAndGet();
+            var m = GameServer._metricsRef;
+            if (m != null) m.netSnapshotOverwrites.incrementAndGet();
+        }
+    }
     void offerPriority(String encodedLine) {
-        if (!outQueue.offer(encodedLine)) { outQueue.poll(); outQueue.offer(encodedLine); }
+        if (!outQueue.offer(encodedLine)) {
+            outQueue.poll(); outQueue.offer(encodedLine);
+            net.priorityDrops.incrementAndGet();
+            var m = GameServer._metricsRef;
+            if (m != null) m.netPriorityDrops.incrementAndGet();
+        }
     }
     private void writerRun() {
         final long FLUSH_INTERVAL_MS = 33; // ~30Hz
@@ -65,26 +80,31 @@ final class Session {
 
                 boolean wrote = false;
                 if (first != null) {
-                    pw.print(first); wrote = true;
+                    net.queueDepth(outQueue.size() + 1);
+                    pw.print(first); net.wrote(first); wrote = true;
                     for (int i = 0; i < 1024; i++) {
                         String m = outQueue.poll();
                         if (m == null) break;
-                        pw.print(m); wrote = true;
+                        pw.print(m); net.wrote(m); wrote = true;
                     }
                 }
                 String snap = latestSnapshot.getAndSet(null);
-                if (snap != null) { pw.print(snap); wrote = true; }
+                if (snap != null) { pw.print(snap); net.wrote(snap); wrote = true; }
 
                 long now = System.currentTimeMillis();
                 if (wrote || (now - lastFlush) >= FLUSH_INTERVAL_MS) {
                     pw.flush();
+                    net.flushed();
                     lastFlush = now;
                 }
+                net.maybePublishOut(now);
             }
         } catch (InterruptedException ignore) {
             // exit
         } catch (Throwable t) {
             System.err.println("[WRITER " + sid + "] error: " + t);
+        } finally {
+            net.publishOut(System.currentTimeMillis());
         }
     }
 }
@@ -0,0 +1,124 @@
+package server;
+
+import model.LevelsManager;
+import model.SystemManager;
+import server.ops.Metrics;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Ready-made LevelSession pairs per level, so pairing only checks one out.
+ *  – Each level keeps {@code phase3.pool.perLevel} pairs plus its recent demand (checkouts per
+ *    {@link #adapt()} window, smoothed), capped at {@code phase3.pool.maxPerLevel}.
+ *  – Refills run on one background thread; a checkout never waits for them.
+ *  – An empty pool is a miss: the pair is built inline, as before.
+ */
+final class SessionPool {
+    /** Both sides of a room, fresh seeds each (recorded for replay). */
+    record Prepared(LevelSession a, LevelSession b, long seedA, long seedB) {}
+
+    static final long DURATION_MS = 180_000L;
+    private static final int    BASE  = Integer.getInteger("phase3.pool.perLevel", 2);
+    private static final int    MAX   = Integer.getInteger("phase3.pool.maxPerLevel", 16);
+    private static final double ALPHA = 0.3;                     // demand smoothing per adapt() window
+
+    private static final class LevelPool {
+        final String level;
+        final ConcurrentLinkedQueue<Prepared> ready = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicInteger recent = new AtomicInteger();       // checkouts since the last adapt()
+        final AtomicBoolean refilling = new AtomicBoolean();
+        volatile double demand;
+        LevelPool(String level) { this.level = level; }
+    }
+
+    private final LevelsManager levels;
+    private final Metrics metrics;
+    private final ConcurrentHashMap<String, LevelPool> pools = new ConcurrentHashMap<>();
+    private final ExecutorService refiller = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "SessionPool");
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+
+    SessionPool(LevelsManager levels, Metrics metrics) {
+        this.levels = levels;
+        this.metrics = metrics;
+    }
+
+    /** Start filling the pools of these levels. */
+    void prewarm(Collection<String> levelNames) {
+        for (String name : levelNames) refill(pool(name));
+    }
+
+    /** A ready pair for the level (built inline on a miss); null if the level is unknown. */
+    Prepared checkout(String level) {
+        LevelPool p = pool(level);
+        p.recent.incrementAndGet();
+        Prepared got = p.ready.poll();
+        if (got != null) {
+            p.size.decrementAndGet();
+            metrics.poolHits.incrementAndGet();
+        } else {
+            metrics.poolMisses.incrementAndGet();
+            got = build(level);
+        }
+        refill(p);
+        return got;
+    }
+
+    /** Periodic: fold recent checkouts into each level's demand and top the pools up (or let them shrink). */
+    void adapt() {
+        for (LevelPool p : pools.values()) {
+            p.demand = ALPHA * p.recent.getAndSet(0) + (1 - ALPHA) * p.demand;
+            while (p.size.get() > target(p) && p.ready.poll() != null) p.size.decrementAndGet();
+            refill(p);
+        }
+    }
+
+    /** Ready pairs per level (gauge). */
+    Map<String, Integer> readyCounts() {
+        Map<String, Integer> out = new TreeMap<>();
+        pools.forEach((name, p) -> out.put(name, p.size.get()));
+        return out;
+    }
+
+    private LevelPool pool(String level) { return pools.computeIfAbsent(level, LevelPool::new); }
+
+    private static int target(LevelPool p) { return Math.min(MAX, BASE + (int) Math.ceil(p.demand)); }
+
+    private void refill(LevelPool p) {
+        if (p.size.get() >= target(p) || !p.refilling.compareAndSet(false, true)) return;
+        refiller.execute(() -> {
+            try {
+                while (p.size.get() < target(p)) {
+                    Prepared pr = build(p.level);
+                    if (pr == null) return;                       // unknown level
+                    p.ready.add(pr);
+                    p.size.incrementAndGet();
+                }
+            } catch (Throwable t) {
+                java.lang.System.err.println("[Pool] refill " + p.level + " failed: " + t);
+            } finally {
+                p.refilling.set(false);
+            }
+        });
+    }
+
+    private Prepared build(String level) {
+        long seedA = ThreadLocalRandom.current().nextLong(), seedB = ThreadLocalRandom.current().nextLong();
+        SystemManager smA = levels.getSystemManagerByName(null, level, seedA);
+        SystemManager smB = levels.getSystemManagerByName(null, level, seedB);
+        if (smA == null || smB == null) return null;
+        return new Prepared(new LevelSession(level, smA, DURATION_MS), new LevelSession(level, smB, DURATION_MS), seedA, seedB);
+    }
+}
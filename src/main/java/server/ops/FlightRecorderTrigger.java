@@ -0,0 +1,103 @@
+package server.ops;
+
+import common.jfr.Phase3Events;
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** In-process flight recording plus a "tick overrun" trigger.
+ *  – phase3.jfr=on starts a rolling recording (JDK "default" settings + the phase3 events) that keeps
+ *    the last phase3.jfr.windowS seconds. Off by default: the phase3 events then cost one check each.
+ *  – {@link #onTick} is called with every server tick's duration. Past phase3.jfr.overrunMs it emits a
+ *    TickOverrun event and, at most once per phase3.jfr.cooldownS, dumps the window to dir on a
+ *    background thread. A recording started with -XX:StartFlightRecording is snapshotted instead.
+ */
+public final class FlightRecorderTrigger {
+    private static final boolean ENABLED   = "on".equalsIgnoreCase(System.getProperty("phase3.jfr", "off"));
+    private static final long WINDOW_S     = Long.getLong("phase3.jfr.windowS", 30);
+    private static final long OVERRUN_NS   = Long.getLong("phase3.jfr.overrunMs", 50) * 1_000_000L;
+    private static final long COOLDOWN_MS  = Long.getLong("phase3.jfr.cooldownS", 60) * 1_000L;
+    private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Path dir;
+    private volatile Recording recording;
+    private final AtomicLong lastDumpMs = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong(), dumps = new AtomicLong();
+    private final ExecutorService dumper = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "JfrDump"); t.setDaemon(true); return t;
+    });
+
+    public FlightRecorderTrigger(Path dir) { this.dir = dir; }
+
+    /** Start the rolling recording if phase3.jfr=on; failures are logged, never fatal. */
+    public void start() {
+        if (!ENABLED) return;
+        try {
+            Recording r = new Recording(Configuration.getConfiguration("default"));
+            r.setName("phase3");
+            for (var type : Phase3Events.ALL) r.enable(type);
+            r.setToDisk(true);
+            r.setMaxAge(Duration.ofSeconds(WINDOW_S));
+            r.start();
+            recording = r;
+            System.out.println("[JFR] recording, window=" + WINDOW_S + "s overrun>" + OVERRUN_NS / 1_000_000
+                    + "ms → " + dir);
+        } catch (Exception e) {
+            System.err.println("[JFR] start failed: " + e.getMessage());
+        }
+    }
+
+    /** Tick thread; cheap unless the tick overran. */
+    public void onTick(long tickNs, int rooms) {
+        if (tickNs <= OVERRUN_NS) return;
+        overruns.incrementAndGet();
+        boolean dump = canDump() && claimDump();
+        if (Phase3Events.TICK_OVERRUN.isEnabled()) {
+            var ev = new Phase3Events.TickOverrun();
+            ev.tickNs = tickNs; ev.thresholdNs = OVERRUN_NS; ev.rooms = rooms; ev.dumped = dump;
+            ev.commit();
+        }
+        if (dump) dumper.execute(() -> dump(tickNs));
+    }
+
+    private boolean canDump() {
+        return recording != null || (FlightRecorder.isInitialized() && !FlightRecorder.getFlightRecorder().getRecordings().isEmpty());
+    }
+    private boolean claimDump() {
+        long now = System.currentTimeMillis(), last = lastDumpMs.get();
+        return now - last >= COOLDOWN_MS && lastDumpMs.compareAndSet(last, now);
+    }
+
+    private void dump(long tickNs) {
+        Path out = dir.resolve("overrun-" + LocalDateTime.now().format(TS) + "-" + tickNs / 1_000_000 + "ms.jfr");
+        try {
+            Files.createDirectories(dir);
+            Recording r = recording;
+            if (r != null) r.dump(out);
+            else try (Recording snap = FlightRecorder.getFlightRecorder().takeSnapshot()) { snap.dump(out); }
+            dumps.incrementAndGet();
+            System.out.println("[JFR] tick took " + tickNs / 1_000_000 + "ms, dumped " + out);
+        } catch (Exception e) {
+            System.err.println("[JFR] dump failed: " + e.getMessage());
+        }
+    }
+
+    public long overruns() { return overruns.get(); }
+    public long dumps()    { return dumps.get(); }
+
+    public void close() {
+        dumper.shutdown();
+        Recording r = recording;
+        recording = null;
+        if (r != null) r.close();
+    }
+}
@@ -0,0 +1,153 @@
+package server.ops;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Log-linear latency histogram (HdrHistogram-style buckets), recorded in nanoseconds.
+ *  – Each power of two is split into 16 linear sub-buckets, so a reported value is within 1/16 (6.25%)
+ *    of the true one. The range is 0 ns to about 68 s; larger values land in the top bucket.
+ *  – Recording is lock-free and allocation-free: one atomic increment into a shard picked by thread id
+ *    (same striping as {@link PhaseProfiler}) plus a max update. Shards are merged when reporting.
+ *  – Rolling windows: the reporter keeps cumulative copies taken every {@link #SLICE_MS}. A window is
+ *    "now minus the copy from about W ago". The max is kept per slice, so it is exact per window.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB      = 1 << SUB_BITS;
+    private static final int TOP_EXP  = 36;                                // 2^36 ns ≈ 68.7 s
+    static final int BUCKETS = (TOP_EXP - SUB_BITS + 2) * SUB;
+    private static final int SHARDS   = 8;                                 // power of two
+
+    public static final long SLICE_MS = 5_000;
+    private static final int SLOTS = 13;                                   // 60 s of slices + the open one
+
+    private final AtomicLongArray[] shards = new AtomicLongArray[SHARDS];
+    private final AtomicLongArray sliceMax = new AtomicLongArray(SLOTS);
+    private volatile int cur;                                              // slice being recorded into
+
+    // ---- reporter state (guarded by this) ----
+    private final long[][] base = new long[SLOTS][BUCKETS];               // cumulative counts at slice start
+    private final long[] startMs = new long[SLOTS];
+    private int filled = 1;
+    private final long[] now = new long[BUCKETS], window = new long[BUCKETS];
+    private long lastSpanMs;
+    private static final double[] REPORTED = {0.50, 0.90, 0.99, 0.999};
+    private final double[] reportedUs = new double[REPORTED.length + 1];
+
+    public LatencyHistogram() {
+        for (int i = 0; i < SHARDS; i++) shards[i] = new AtomicLongArray(BUCKETS + 1);   // + running sum
+        startMs[0] = System.currentTimeMillis();
+    }
+
+    // ---- recording ----
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        AtomicLongArray shard = shards[(int) Thread.currentThread().threadId() & (SHARDS - 1)];
+        shard.incrementAndGet(index(nanos));
+        shard.addAndGet(BUCKETS, nanos);
+        int slot = cur;
+        long prev;
+        while (nanos > (prev = sliceMax.get(slot)) && !sliceMax.compareAndSet(slot, prev, nanos)) { /* retry */ }
+    }
+
+    static int index(long v) {
+        if (v < SUB) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        if (exp > TOP_EXP) return BUCKETS - 1;
+        int shift = exp - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((v >>> shift) - SUB);
+    }
+
+    /** Largest value that maps to bucket i. */
+    static long highest(int i) {
+        if (i < SUB) return i;
+        int shift = (i >>> SUB_BITS) - 1;
+        long mant = SUB + (i & (SUB - 1));
+        return ((mant + 1) << shift) - 1;
+    }
+
+    // ---- reporting ----
+
+    /** Start a new slice if the current one is older than {@link #SLICE_MS}. */
+    private void roll(long nowMs) {
+        if (nowMs - startMs[cur] < SLICE_MS) return;
+        int next = (cur + 1) % SLOTS;
+        merge(base[next]);
+        startMs[next] = nowMs;
+        sliceMax.set(next, 0);
+        cur = next;
+        filled = Math.min(filled + 1, SLOTS);
+    }
+
+    private void merge(long[] into) {
+        java.util.Arrays.fill(into, 0);
+        for (AtomicLongArray s : shards)
+            for (int b = 0; b < BUCKETS; b++) into[b] += s.get(b);
+    }
+
+    /** All-time count and sum (ns), for exporters that want monotonic totals. */
+    public long totalCount() {
+        long n = 0;
+        for (AtomicLongArray s : shards) for (int b = 0; b < BUCKETS; b++) n += s.get(b);
+        return n;
+    }
+    public long totalNanos() {
+        long n = 0;
+        for (AtomicLongArray s : shards) n += s.get(BUCKETS);
+        return n;
+    }
+
+    /** Write {"10s":{…},"60s":{…}} with count, p50/p90/p99/p999 and max in microseconds. */
+    public synchronized void writeTo(ObjectNode o) {
+        writeWindow(o.putObject("10s"), 10_000);
+        writeWindow(o.putObject("60s"), 60_000);
+    }
+
+    private void writeWindow(ObjectNode o, long spanMs) {
+        double[] v = reportedUs;
+        long count = window(spanMs, REPORTED, v);   // same monitor (reentrant)
+        o.put("span_s", lastSpanMs / 1000.0);
+        o.put("count",  count);
+        o.put("p50",    v[0]);
+        o.put("p90",    v[1]);
+        o.put("p99",    v[2]);
+        o.put("p999",   v[3]);
+        o.put("max",    v[4]);
+    }
+
+    /** Window reaching back about spanMs: fills outUs[i] with quantile qs[i] and outUs[qs.length] with the max,
+     *  all in microseconds, and returns the window's sample count. */
+    public synchronized long window(long spanMs, double[] qs, double[] outUs) {
+        long nowMs = System.currentTimeMillis();
+        roll(nowMs);
+        merge(now);
+
+        // most recent slice start at least spanMs ago, else the oldest one we still have
+        int from = cur;
+        for (int k = 0; k < filled; k++) {
+            int s = Math.floorMod(cur - k, SLOTS);
+            from = s;
+            if (nowMs - startMs[s] >= spanMs) break;
+        }
+        long count = 0, max = 0;
+        for (int b = 0; b < BUCKETS; b++) { window[b] = now[b] - base[from][b]; count += window[b]; }
+        for (int s = from; ; s = (s + 1) % SLOTS) { max = Math.max(max, sliceMax.get(s)); if (s == cur) break; }
+
+        lastSpanMs = nowMs - startMs[from];
+        for (int i = 0; i < qs.length; i++) outUs[i] = percentileUs(count, max, qs[i]);
+        outUs[qs.length] = (count == 0) ? 0.0 : max / 1_000.0;
+        return count;
+    }
+
+    /** Highest value of the bucket holding the q-quantile (capped at the window max), in microseconds. */
+    private double percentileUs(long count, long max, double q) {
+        if (count == 0) return 0.0;
+        long rank = Math.max(1, (long) Math.ceil(q * count)), seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += window[b];
+            if (seen >= rank) return Math.min(highest(b), max) / 1_000.0;
+        }
+        return max / 1_000.0;
+    }
+}
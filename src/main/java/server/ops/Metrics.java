@@ -4,9 +4,12 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
 
 public final class Metrics {
     private static final ObjectMapper M = new ObjectMapper();
@@ -18,6 +21,15 @@ public final class Metrics {
     public final AtomicLong matchesActive   = new AtomicLong();
     public final AtomicLong matchesEnded    = new AtomicLong();
     public final AtomicLong forfeitWins     = new AtomicLong();
+    public final AtomicLong poolHits        = new AtomicLong();   // room models taken ready-made
+    public final AtomicLong poolMisses      = new AtomicLong();   // room models built at pairing time
+
+    // ---- network totals (sessions fold in their deltas when they publish; see server.NetStats) ----
+    public final AtomicLong netFlushes            = new AtomicLong();   // writer flushes that carried data
+    public final AtomicLong netSnapshotOverwrites = new AtomicLong();   // SNAPSHOT frames replaced unsent
+    public final AtomicLong netPriorityDrops      = new AtomicLong();   // full out queue: oldest line dropped
+    private final ConcurrentHashMap<String, AtomicLongArray> netIn  = new ConcurrentHashMap<>();   // type → {msgs, bytes}
+    private final ConcurrentHashMap<String, AtomicLongArray> netOut = new ConcurrentHashMap<>();
 
     // tick timing (EWMA & last)
     private volatile double tickMsEwma = 0.0;
@@ -27,18 +39,57 @@ public final class Metrics {
     // live gauges (bound from GameServer)
     private ConcurrentMap<String, ?> sessionsRef;
     private ConcurrentMap<String, ?> roomsRef;
-    private ConcurrentLinkedQueue<?> matchmakingRef;
+    private Supplier<Map<String, Integer>> queueDepthsRef;   // queued sessions per level
+    private Supplier<Map<String, Integer>> poolReadyRef;     // pre-built session pairs per level
+
+    // matchmaking queue wait, per level
+    private final ConcurrentHashMap<String, WaitHistogram> queueWait = new ConcurrentHashMap<>();
+    // pairing → START sent (model checkout or build + bind), microseconds
+    private final WaitHistogram timeToStart =
+            new WaitHistogram(50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000);
+
+    // ---- latency histograms (ns in, µs out, rolling 10 s / 60 s windows) ----
+    public final LatencyHistogram tick           = new LatencyHistogram();   // whole server tick
+    public final LatencyHistogram roomStep       = new LatencyHistogram();   // both sides of one room
+    public final LatencyHistogram snapshotEncode = new LatencyHistogram();   // SNAPSHOT envelope → line
+    public final LatencyHistogram cmdQueueWait   = new LatencyHistogram();   // read loop → room drain
+    // traced commands only (client sent "trace"): the stages after the drain
+    public final LatencyHistogram traceDequeueToApply  = new LatencyHistogram();   // drain → LevelSession.step
+    public final LatencyHistogram traceApplyToSnapshot = new LatencyHistogram();   // step → first SNAPSHOT with it
+    public final LatencyHistogram traceServerTotal     = new LatencyHistogram();   // read loop → that SNAPSHOT
+    private final ConcurrentHashMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>(Map.of(
+            "tick", tick, "room_step", roomStep, "snapshot_encode", snapshotEncode, "cmd_queue_wait", cmdQueueWait,
+            "trace_dequeue_to_apply", traceDequeueToApply, "trace_apply_to_snapshot", traceApplyToSnapshot,
+            "trace_server_total", traceServerTotal));
 
     public void bind(ConcurrentMap<String, ?> sessions,
                      ConcurrentMap<String, ?> rooms,
-                     ConcurrentLinkedQueue<?> mmq) {
-        sessionsRef = sessions; roomsRef = rooms; matchmakingRef = mmq;
+                     Supplier<Map<String, Integer>> queueDepths) {
+        sessionsRef = sessions; roomsRef = rooms; queueDepthsRef = queueDepths;
+    }
+
+    public void bindPool(Supplier<Map<String, Integer>> poolReady) { poolReadyRef = poolReady; }
+
+    /** Report a histogram owned elsewhere (e.g. the store's append latency) under latency_us.name. */
+    public void register(String name, LatencyHistogram h) { latencies.put(name, h); }
+
+    public void observeQueueWait(String level, long waitMs) {
+        queueWait.computeIfAbsent(level, k -> new WaitHistogram()).observe(waitMs);
+    }
+
+    public void observeTimeToStart(long micros) { timeToStart.observe(micros); }
+
+    public void addNet(boolean outbound, String type, long msgs, long bytes) {
+        AtomicLongArray a = (outbound ? netOut : netIn).computeIfAbsent(type, k -> new AtomicLongArray(2));
+        a.addAndGet(0, msgs);
+        a.addAndGet(1, bytes);
     }
 
     public void observeTickNanos(long nanos) {
         double ms = nanos / 1_000_000.0;
         tickMsLast = ms;
         tickMsEwma = (tickMsEwma == 0.0) ? ms : (ALPHA * ms + (1 - ALPHA) * tickMsEwma);
+        tick.record(nanos);
     }
 
     public ObjectNode snapshot() {
@@ -52,19 +103,126 @@ public final class Metrics {
 
         int sessions = (sessionsRef != null) ? sessionsRef.size() : -1;
         int rooms    = (roomsRef != null)    ? roomsRef.size()    : -1;
-        int queued   = (matchmakingRef != null) ? matchmakingRef.size() : -1;
+        Map<String, Integer> depths = (queueDepthsRef != null) ? queueDepthsRef.get() : Map.of();
+        int queued   = (queueDepthsRef != null) ? depths.values().stream().mapToInt(Integer::intValue).sum() : -1;
 
         n.put("gauge_sessions", sessions);
         n.put("gauge_rooms",    rooms);
         n.put("gauge_queue",    queued);
+        ObjectNode byLevel = n.putObject("gauge_queue_by_level");
+        depths.forEach(byLevel::put);
+
+        ObjectNode waits = n.putObject("queue_wait_ms");
+        new TreeMap<>(queueWait).forEach((level, h) -> h.writeTo(waits.putObject(level)));
+
+        long hits = poolHits.get(), misses = poolMisses.get();
+        n.put("pool_hits",   hits);
+        n.put("pool_misses", misses);
+        n.put("pool_hit_rate", (hits + misses == 0) ? 0.0 : (double) hits / (hits + misses));
+        ObjectNode ready = n.putObject("gauge_pool_ready");
+        if (poolReadyRef != null) poolReadyRef.get().forEach(ready::put);
+        timeToStart.writeTo(n.putObject("time_to_start_us"));
 
         n.put("tick_ms_last", tickMsLast);
         n.put("tick_ms_ewma", tickMsEwma);
+        ObjectNode lat = n.putObject("latency_us");
+        new TreeMap<>(latencies).forEach((name, h) -> h.writeTo(lat.putObject(name)));
+
+        n.set("net", netSnapshot());
         return n;
     }
 
+    /** Server-wide network totals (also the "net" object of {@link #snapshot()}). */
+    public ObjectNode netSnapshot() {
+        ObjectNode net = M.createObjectNode();
+        writeNet(net.putObject("in"), netIn);
+        writeNet(net.putObject("out"), netOut);
+        net.put("flushes", netFlushes.get());
+        net.put("snapshot_overwrites", netSnapshotOverwrites.get());
+        net.put("priority_drops", netPriorityDrops.get());
+        return net;
+    }
+    private static void writeNet(ObjectNode o, Map<String, AtomicLongArray> byType) {
+        long msgs = 0, bytes = 0;
+        ObjectNode t = o.putObject("by_type");
+        for (var e : new TreeMap<>(byType).entrySet()) {
+            long m = e.getValue().get(0), b = e.getValue().get(1);
+            ObjectNode x = t.putObject(e.getKey());
+            x.put("messages", m);
+            x.put("bytes", b);
+            msgs += m; bytes += b;
+        }
+        o.put("messages", msgs);
+        o.put("bytes", bytes);
+    }
+
+    // ---- raw views for the text exporter (same package) ----
+    int gaugeSessions()                          { return (sessionsRef != null) ? sessionsRef.size() : -1; }
+    int gaugeRooms()                             { return (roomsRef != null) ? roomsRef.size() : -1; }
+    Map<String, Integer> queueDepths()           { return (queueDepthsRef != null) ? queueDepthsRef.get() : Map.of(); }
+    Map<String, Integer> poolReady()             { return (poolReadyRef != null) ? poolReadyRef.get() : Map.of(); }
+    Map<String, WaitHistogram> queueWaits()      { return queueWait; }
+    WaitHistogram timeToStart()                  { return timeToStart; }
+    Map<String, LatencyHistogram> latencies()    { return latencies; }
+    double tickMsLast()                          { return tickMsLast; }
+    double tickMsEwma()                          { return tickMsEwma; }
+    Map<String, AtomicLongArray> netIn()         { return netIn; }
+    Map<String, AtomicLongArray> netOut()        { return netOut; }
+
     public String snapshotJson() {
         try { return M.writeValueAsString(snapshot()); }
         catch (Exception e) { return "{\"error\":\"metrics_json\"}"; }
     }
+
+    // ---- fixed-bucket histogram (last bucket open-ended; default bounds are queue waits in ms) ----
+    static final class WaitHistogram {
+        private final long[] bounds;
+        private final AtomicLongArray buckets;
+        private final AtomicLong count = new AtomicLong(), sum = new AtomicLong(), max = new AtomicLong();
+
+        WaitHistogram() { this(50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000, 60_000, 120_000); }
+        WaitHistogram(long... bounds) {
+            this.bounds = bounds;
+            buckets = new AtomicLongArray(bounds.length + 1);
+        }
+
+        int  buckets()        { return buckets.length(); }
+        long bound(int i)     { return i < bounds.length ? bounds[i] : Long.MAX_VALUE; }
+        long bucket(int i)    { return buckets.get(i); }
+        long sum()            { return sum.get(); }
+
+        void observe(long v) {
+            int i = 0;
+            while (i < bounds.length && v > bounds[i]) i++;
+            buckets.incrementAndGet(i);
+            count.incrementAndGet();
+            sum.addAndGet(v);
+            max.accumulateAndGet(v, Math::max);
+        }
+
+        /** Upper bound of the bucket holding quantile q (max for the open bucket). */
+        long quantile(double q) {
+            long n = count.get();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(q * n), seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return i < bounds.length ? Math.min(bounds[i], max.get()) : max.get();
+            }
+            return max.get();
+        }
+
+        void writeTo(ObjectNode o) {
+            long n = count.get();
+            o.put("count", n);
+            o.put("avg", n == 0 ? 0.0 : (double) sum.get() / n);
+            o.put("p50", quantile(0.50));
+            o.put("p90", quantile(0.90));
+            o.put("p99", quantile(0.99));
+            o.put("max", max.get());
+            ObjectNode b = o.putObject("le");
+            for (int i = 0; i < buckets.length(); i++)
+                b.put(i < bounds.length ? Long.toString(bounds[i]) : "inf", buckets.get(i));
+        }
+    }
 }
@@ -0,0 +1,234 @@
+package server.ops;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Prometheus text exposition of {@link Metrics} and {@link PhaseProfiler} (served on /metrics).
+ *  – Renders straight into a byte buffer reused per calling thread: no Jackson trees, no String building.
+ *  – OpenMetrics 1.0 when the scraper asks for it (Accept: application/openmetrics-text), else text format
+ *    0.0.4. The two only differ in how counter families are named and in the closing "# EOF".
+ *  – Units are base units (seconds). Latency histograms are summaries over the 60 s window with
+ *    all-time _sum/_count; the window max is a separate gauge.
+ */
+public final class OpenMetrics {
+    public static final String CONTENT_TYPE_OM   = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    public static final String CONTENT_TYPE_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] Q_LABELS  = {"0.5", "0.9", "0.99", "0.999"};
+    private static final String[] WINDOWS   = {"10s", "60s"};
+    private static final long[]   WINDOW_MS = {10_000, 60_000};
+    // phase histogram: log2 buckets from 2^10 ns (~1 µs) to 2^31 ns (~2.1 s), then +Inf
+    private static final int PHASE_LO = 9, PHASE_HI = 30;
+
+    private final Metrics metrics;
+    private final PhaseProfiler profiler;
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    public OpenMetrics(Metrics metrics, PhaseProfiler profiler) {
+        this.metrics = metrics;
+        this.profiler = profiler;
+    }
+
+    /** Growable byte buffer; {@link #render} hands back the calling thread's instance. */
+    public static final class Buf {
+        private byte[] data = new byte[32 << 10];
+        private int len;
+
+        public byte[] array()  { return data; }
+        public int    length() { return len; }
+
+        private void ensure(int extra) {
+            if (len + extra > data.length) data = java.util.Arrays.copyOf(data, Math.max(len + extra, data.length * 2));
+        }
+        Buf ch(char c) { ensure(1); data[len++] = (byte) c; return this; }
+        Buf ascii(String s) {
+            ensure(s.length());
+            for (int i = 0; i < s.length(); i++) data[len++] = (byte) s.charAt(i);
+            return this;
+        }
+        /** Label value: UTF-8 with \\, " and newline escaped. */
+        Buf label(String s) {
+            ensure(s.length() * 3 + 2);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '\\' || c == '"') { ensure(2); data[len++] = '\\'; data[len++] = (byte) c; }
+                else if (c == '\n')        { ensure(2); data[len++] = '\\'; data[len++] = 'n'; }
+                else if (c < 0x80)         { data[len++] = (byte) c; }
+                else if (c < 0x800)        { data[len++] = (byte) (0xC0 | c >> 6); data[len++] = (byte) (0x80 | c & 0x3F); }
+                else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    ensure(4);
+                    data[len++] = (byte) (0xF0 | cp >> 18);         data[len++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                    data[len++] = (byte) (0x80 | cp >> 6 & 0x3F);   data[len++] = (byte) (0x80 | cp & 0x3F);
+                } else {
+                    data[len++] = (byte) (0xE0 | c >> 12); data[len++] = (byte) (0x80 | c >> 6 & 0x3F); data[len++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+            return this;
+        }
+        Buf num(long v) {
+            ensure(20);
+            if (v == Long.MIN_VALUE) return ascii(Long.toString(v));
+            if (v < 0) { data[len++] = '-'; v = -v; }
+            int start = len;
+            do { data[len++] = (byte) ('0' + v % 10); v /= 10; } while (v != 0);
+            for (int i = start, j = len - 1; i < j; i++, j--) { byte t = data[i]; data[i] = data[j]; data[j] = t; }
+            return this;
+        }
+        Buf num(double v) {
+            if (Double.isNaN(v))      return ascii("NaN");
+            if (Double.isInfinite(v)) return ascii(v > 0 ? "+Inf" : "-Inf");
+            if (v == (long) v && Math.abs(v) < 1e15) return num((long) v);
+            return ascii(Double.toString(v));
+        }
+    }
+
+    /** Per-thread output buffer plus merge arrays; a scrape only allocates the sorted map copies. */
+    private static final class Scratch {
+        final Buf buf = new Buf();
+        final long[] hist = new long[PhaseProfiler.BUCKETS], stats = new long[3];
+        final double[] q = new double[QUANTILES.length + 1];
+    }
+
+    /** Render one scrape into the calling thread's buffer (valid until that thread's next call). */
+    public Buf render(boolean openMetrics) {
+        Scratch sc = scratch.get();
+        Buf b = sc.buf;
+        b.len = 0;
+        final boolean om = openMetrics;
+
+        // ---- counters ----
+        counter(b, om, "phase3_sessions_opened",   "Client sessions accepted.",            metrics.sessionsOpened.get());
+        counter(b, om, "phase3_sessions_closed",   "Client sessions closed.",              metrics.sessionsClosed.get());
+        counter(b, om, "phase3_matches_started",   "Rooms created by the matchmaker.",     metrics.matchesStarted.get());
+        counter(b, om, "phase3_matches_activated", "Rooms that reached ACTIVE.",           metrics.matchesActive.get());
+        counter(b, om, "phase3_matches_ended",     "Rooms torn down.",                     metrics.matchesEnded.get());
+        counter(b, om, "phase3_forfeit_wins",      "Matches won because the opponent left.", metrics.forfeitWins.get());
+
+        header(b, om, "phase3_pool_checkouts", "counter", "Room models taken from the session pool (hit) or built at pairing time (miss).");
+        b.ascii("phase3_pool_checkouts_total{result=\"hit\"} ").num(metrics.poolHits.get()).ch('\n');
+        b.ascii("phase3_pool_checkouts_total{result=\"miss\"} ").num(metrics.poolMisses.get()).ch('\n');
+
+        // ---- network (sessions publish about once a second) ----
+        header(b, om, "phase3_net_messages", "counter", "Messages by direction and envelope type.");
+        netByType(b, "phase3_net_messages_total", metrics.netIn(), metrics.netOut(), 0);
+        header(b, om, "phase3_net_bytes", "counter", "Encoded line bytes by direction and envelope type.");
+        netByType(b, "phase3_net_bytes_total", metrics.netIn(), metrics.netOut(), 1);
+        counter(b, om, "phase3_net_flushes",            "Session writer flushes that carried data.",     metrics.netFlushes.get());
+        counter(b, om, "phase3_net_snapshot_overwrites", "SNAPSHOT frames replaced before the writer sent them.", metrics.netSnapshotOverwrites.get());
+        counter(b, om, "phase3_net_priority_drops",     "Queued lines dropped because a session's out queue was full.", metrics.netPriorityDrops.get());
+
+        // ---- gauges ----
+        gauge(b, om, "phase3_sessions", "Open client sessions.", metrics.gaugeSessions());
+        gauge(b, om, "phase3_rooms",    "Live rooms.",           metrics.gaugeRooms());
+        perLevel(b, om, "phase3_queue_depth", "Sessions waiting in the matchmaking queue.", metrics.queueDepths());
+        perLevel(b, om, "phase3_pool_ready",  "Pre-built session pairs ready per level.",  metrics.poolReady());
+        gauge(b, om, "phase3_tick_last_seconds", "Duration of the last server tick.",        metrics.tickMsLast() / 1e3);
+        gauge(b, om, "phase3_tick_ewma_seconds", "EWMA (alpha 0.2) of server tick duration.", metrics.tickMsEwma() / 1e3);
+
+        // ---- fixed-bucket histograms ----
+        header(b, om, "phase3_queue_wait_seconds", "histogram", "Matchmaking queue wait until paired.");
+        new TreeMap<>(metrics.queueWaits()).forEach((level, h) -> waitHistogram(b, "phase3_queue_wait_seconds", "level", level, h, 1e3));
+        header(b, om, "phase3_time_to_start_seconds", "histogram", "Pairing to START sent (model checkout or build, plus bind).");
+        waitHistogram(b, "phase3_time_to_start_seconds", null, null, metrics.timeToStart(), 1e6);
+
+        // ---- latency summaries (rolling 60 s window) ----
+        Map<String, LatencyHistogram> lat = new TreeMap<>(metrics.latencies());
+        header(b, om, "phase3_latency_seconds", "summary", "Latency quantiles over the last ~60 s; _sum/_count are all-time.");
+        lat.forEach((op, h) -> {
+            h.window(60_000, QUANTILES, sc.q);
+            for (int i = 0; i < QUANTILES.length; i++)
+                b.ascii("phase3_latency_seconds{op=\"").label(op).ascii("\",quantile=\"").ascii(Q_LABELS[i]).ascii("\"} ")
+                        .num(sc.q[i] / 1e6).ch('\n');
+            b.ascii("phase3_latency_seconds_sum{op=\"").label(op).ascii("\"} ").num(h.totalNanos() / 1e9).ch('\n');
+            b.ascii("phase3_latency_seconds_count{op=\"").label(op).ascii("\"} ").num(h.totalCount()).ch('\n');
+        });
+        header(b, om, "phase3_latency_max_seconds", "gauge", "Largest latency seen in the window.");
+        lat.forEach((op, h) -> {
+            for (int w = 0; w < WINDOWS.length; w++) {
+                h.window(WINDOW_MS[w], QUANTILES, sc.q);
+                b.ascii("phase3_latency_max_seconds{op=\"").label(op).ascii("\",window=\"").ascii(WINDOWS[w]).ascii("\"} ")
+                        .num(sc.q[QUANTILES.length] / 1e6).ch('\n');
+            }
+        });
+
+        // ---- tick phase profiler ----
+        header(b, om, "phase3_tick_phase_seconds", "histogram", "Per-phase tick time (log2 buckets; see /metrics/phases).");
+        for (PhaseProfiler.Phase p : PhaseProfiler.Phase.values()) {
+            profiler.collect(p, sc.hist, sc.stats);
+            if (sc.stats[0] == 0) continue;
+            String phase = p.name().toLowerCase();
+            long cum = 0;
+            for (int i = 0; i < PhaseProfiler.BUCKETS; i++) {
+                cum += sc.hist[i];
+                if (i < PHASE_LO || i > PHASE_HI) continue;
+                b.ascii("phase3_tick_phase_seconds_bucket{phase=\"").ascii(phase).ascii("\",le=\"")
+                        .num((1L << (i + 1)) / 1e9).ascii("\"} ").num(cum).ch('\n');
+            }
+            b.ascii("phase3_tick_phase_seconds_bucket{phase=\"").ascii(phase).ascii("\",le=\"+Inf\"} ").num(cum).ch('\n');
+            b.ascii("phase3_tick_phase_seconds_sum{phase=\"").ascii(phase).ascii("\"} ").num(sc.stats[1] / 1e9).ch('\n');
+            b.ascii("phase3_tick_phase_seconds_count{phase=\"").ascii(phase).ascii("\"} ").num(cum).ch('\n');
+        }
+        header(b, om, "phase3_profiler_samples", "counter", "Profiler samples recorded per thread-id shard.");
+        for (int s = 0; s < PhaseProfiler.SHARDS; s++)
+            b.ascii("phase3_profiler_samples_total{shard=\"").num(s).ascii("\"} ").num(profiler.shardSamples(s)).ch('\n');
+
+        if (om) b.ascii("# EOF\n");
+        return b;
+    }
+
+    // ---------- family helpers ----------
+
+    /** # HELP / # TYPE; in OpenMetrics a counter family is named without its _total suffix. */
+    private static void header(Buf b, boolean om, String family, String type, String help) {
+        String name = (!om && type.equals("counter")) ? family + "_total" : family;
+        b.ascii("# HELP ").ascii(name).ch(' ').ascii(help).ch('\n');
+        b.ascii("# TYPE ").ascii(name).ch(' ').ascii(type).ch('\n');
+    }
+
+    private static void counter(Buf b, boolean om, String family, String help, long v) {
+        header(b, om, family, "counter", help);
+        b.ascii(family).ascii("_total ").num(v).ch('\n');
+    }
+
+    private static void netByType(Buf b, String name, Map<String, AtomicLongArray> in,
+                                  Map<String, AtomicLongArray> out, int field) {
+        new TreeMap<>(in).forEach((type, a) ->
+                b.ascii(name).ascii("{dir=\"in\",type=\"").label(type).ascii("\"} ").num(a.get(field)).ch('\n'));
+        new TreeMap<>(out).forEach((type, a) ->
+                b.ascii(name).ascii("{dir=\"out\",type=\"").label(type).ascii("\"} ").num(a.get(field)).ch('\n'));
+    }
+
+    private static void gauge(Buf b, boolean om, String name, String help, double v) {
+        header(b, om, name, "gauge", help);
+        b.ascii(name).ch(' ').num(v).ch('\n');
+    }
+
+    private static void perLevel(Buf b, boolean om, String name, String help, Map<String, Integer> byLevel) {
+        header(b, om, name, "gauge", help);
+        new TreeMap<>(byLevel).forEach((level, v) ->
+                b.ascii(name).ascii("{level=\"").label(level).ascii("\"} ").num((long) v).ch('\n'));
+    }
+
+    /** Cumulative buckets of a {@link Metrics.WaitHistogram}; perSecond is its unit per second (1e3 for ms). */
+    private static void waitHistogram(Buf b, String name, String labelName, String labelValue,
+                                      Metrics.WaitHistogram h, double perSecond) {
+        long cum = 0;
+        for (int i = 0; i < h.buckets(); i++) {
+            cum += h.bucket(i);
+            b.ascii(name).ascii("_bucket{");
+            if (labelName != null) b.ascii(labelName).ascii("=\"").label(labelValue).ascii("\",");
+            b.ascii("le=\"");
+            if (i == h.buckets() - 1) b.ascii("+Inf"); else b.num(h.bound(i) / perSecond);
+            b.ascii("\"} ").num(cum).ch('\n');
+        }
+        b.ascii(name).ascii("_sum");
+        if (labelName != null) b.ascii("{").ascii(labelName).ascii("=\"").label(labelValue).ascii("\"}");
+        b.ch(' ').num(h.sum() / perSecond).ch('\n');
+        b.ascii(name).ascii("_count");
+        if (labelName != null) b.ascii("{").ascii(labelName).ascii("=\"").label(labelValue).ascii("\"}");
+        b.ch(' ').num(cum).ch('\n');
+    }
+}
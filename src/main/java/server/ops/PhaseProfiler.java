@@ -0,0 +1,178 @@
+package server.ops;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import model.SimPhase;
+import model.SystemManager;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Per-phase tick profiler (served on /metrics/phases).
+ *  – Each phase records nanos into a counter, a sum, a max and a log2 histogram.
+ *  – State is striped into shards by thread id so reader threads and the tick thread rarely share a slot.
+ *  – Modes: all (every tick), sample:N (one tick in N), off. Set with -Dphase3.profile or at runtime.
+ */
+public final class PhaseProfiler implements SystemManager.PhaseSink {
+    private static final ObjectMapper M = new ObjectMapper();
+
+    public enum Phase {
+        SIM_MOTION, SIM_TIMED_EFFECTS, SIM_COLLISIONS, SIM_READINESS, SIM_SEND, SIM_END_CHECK,
+        ROOM_DRAIN, ROOM_STEP, ROOM_JUDGE, ROOM_SNAPSHOT, ROOM_LIFECYCLE,
+        SNAPSHOT_COMPOSE, WIRE_ENCODE, TICK_ALL
+    }
+    private static final Phase[] PHASES = Phase.values();
+    private static final Phase[] FROM_SIM = new Phase[SimPhase.values().length];
+    static { for (SimPhase p : SimPhase.values()) FROM_SIM[p.ordinal()] = Phase.valueOf("SIM_" + p.name()); }
+
+    private static final int NP      = PHASES.length;
+    static final int BUCKETS = 40;                     // bucket b holds [2^b, 2^(b+1)) ns
+    static final int SHARDS  = 8;                      // power of two
+
+    private static final class Shard {
+        final AtomicLongArray count = new AtomicLongArray(NP);
+        final AtomicLongArray sumNs = new AtomicLongArray(NP);
+        final AtomicLongArray maxNs = new AtomicLongArray(NP);
+        final AtomicLongArray hist  = new AtomicLongArray(NP * BUCKETS);
+    }
+    private final Shard[] shards = new Shard[SHARDS];
+
+    // after the tables above: static init runs top-down
+    private static final PhaseProfiler INSTANCE = new PhaseProfiler(System.getProperty("phase3.profile", "all"));
+    public static PhaseProfiler getInstance() { return INSTANCE; }
+
+    // ---- mode ----
+    public enum Mode { OFF, ALL, SAMPLED }
+    private volatile Mode    mode = Mode.ALL;
+    private volatile int     sampleEvery = 1;
+    private volatile boolean sampling = true;          // decided once per server tick
+    private long             tickSeq;                  // tick thread only
+
+    private PhaseProfiler(String spec) {
+        for (int i = 0; i < SHARDS; i++) shards[i] = new Shard();
+        if (!setMode(spec)) setMode("all");
+    }
+
+    /** "all", "off" or "sample:N"; returns false (mode unchanged) on a bad spec. */
+    public boolean setMode(String spec) {
+        if (spec == null) return false;
+        spec = spec.trim().toLowerCase();
+        switch (spec) {
+            case "all" -> { sampleEvery = 1; mode = Mode.ALL; }
+            case "off" -> { mode = Mode.OFF; }
+            default -> {
+                if (!spec.startsWith("sample:")) return false;
+                int n;
+                try { n = Integer.parseInt(spec.substring(7)); } catch (NumberFormatException e) { return false; }
+                if (n < 1) return false;
+                sampleEvery = n; mode = Mode.SAMPLED;
+            }
+        }
+        sampling = (mode == Mode.ALL);
+        return true;
+    }
+    public String modeSpec() {
+        return switch (mode) { case ALL -> "all"; case OFF -> "off"; case SAMPLED -> "sample:" + sampleEvery; };
+    }
+
+    /** Called at the top of every server tick; picks whether this tick is timed. */
+    public void beginTick() {
+        Mode m = mode;
+        sampling = (m == Mode.ALL) || (m == Mode.SAMPLED && (tickSeq++ % sampleEvery) == 0);
+    }
+
+    // ---- recording ----
+    @Override public boolean sampling() { return sampling; }
+    @Override public void phase(SimPhase p, long nanos) { record(FROM_SIM[p.ordinal()], nanos); }
+
+    /** Clock read if this tick is sampled, else 0 (which makes {@link #lap} a no-op). */
+    public long start() { return sampling ? System.nanoTime() : 0L; }
+
+    /** Record {@code phase} as now − t0 and return now, so consecutive phases chain off one clock read. */
+    public long lap(Phase phase, long t0) {
+        if (t0 == 0L) return 0L;
+        long now = System.nanoTime();
+        record(phase, now - t0);
+        return now;
+    }
+
+    public void record(Phase phase, long nanos) {
+        if (nanos < 0) nanos = 0;
+        int i = phase.ordinal();
+        Shard s = shards[(int) Thread.currentThread().threadId() & (SHARDS - 1)];
+        s.count.incrementAndGet(i);
+        s.sumNs.addAndGet(i, nanos);
+        long prev;
+        while (nanos > (prev = s.maxNs.get(i)) && !s.maxNs.compareAndSet(i, prev, nanos)) { /* retry */ }
+        s.hist.incrementAndGet(i * BUCKETS + bucket(nanos));
+    }
+    private static int bucket(long nanos) {
+        int b = 63 - Long.numberOfLeadingZeros(Math.max(1L, nanos));
+        return Math.min(b, BUCKETS - 1);
+    }
+
+    // ---- reporting ----
+
+    /** One phase merged over all shards: hist gets the log2 buckets, out gets {count, sumNs, maxNs}. */
+    void collect(Phase p, long[] hist, long[] out) {
+        int i = p.ordinal();
+        long count = 0, sum = 0, max = 0;
+        java.util.Arrays.fill(hist, 0);
+        for (Shard s : shards) {
+            count += s.count.get(i);
+            sum   += s.sumNs.get(i);
+            max    = Math.max(max, s.maxNs.get(i));
+            for (int b = 0; b < BUCKETS; b++) hist[b] += s.hist.get(i * BUCKETS + b);
+        }
+        out[0] = count; out[1] = sum; out[2] = max;
+    }
+
+    /** Samples recorded into one shard, over all phases. */
+    long shardSamples(int shard) {
+        long c = 0;
+        for (int i = 0; i < NP; i++) c += shards[shard].count.get(i);
+        return c;
+    }
+
+    public ObjectNode snapshot() {
+        ObjectNode n = M.createObjectNode();
+        n.put("mode", modeSpec());
+
+        ObjectNode phases = n.putObject("phases");
+        long[] hist = new long[BUCKETS], stats = new long[3];
+        for (Phase p : PHASES) {
+            collect(p, hist, stats);
+            long count = stats[0], sum = stats[1], max = stats[2];
+            if (count == 0) continue;
+            ObjectNode o = phases.putObject(p.name().toLowerCase());
+            o.put("count",    count);
+            o.put("total_ms", sum / 1_000_000.0);
+            o.put("avg_us",   sum / 1_000.0 / count);
+            o.put("p50_us",   percentileUs(hist, count, 0.50));
+            o.put("p99_us",   percentileUs(hist, count, 0.99));
+            o.put("max_us",   max / 1_000.0);
+            ArrayNode h = o.putArray("log2_ns_hist");   // trailing empty buckets trimmed
+            int last = BUCKETS - 1;
+            while (last > 0 && hist[last] == 0) last--;
+            for (int b = 0; b <= last; b++) h.add(hist[b]);
+        }
+
+        ArrayNode perShard = n.putArray("shard_counts");
+        for (int s = 0; s < SHARDS; s++) perShard.add(shardSamples(s));
+        return n;
+    }
+    /** Upper edge of the bucket holding the q-quantile, in microseconds. */
+    private static double percentileUs(long[] hist, long count, double q) {
+        long rank = (long) Math.ceil(q * count), seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += hist[b];
+            if (seen >= rank) return (1L << (b + 1)) / 1_000.0;
+        }
+        return (1L << BUCKETS) / 1_000.0;
+    }
+
+    public String snapshotJson() {
+        try { return M.writeValueAsString(snapshot()); }
+        catch (Exception e) { return "{\"error\":\"phases_json\"}"; }
+    }
+}
@@ -0,0 +1,216 @@
+package server.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/** Per-token match stats kept up to date from {@link Store} appends (served on /leaderboard).
+ *  – Every event the Store writer makes durable is applied here, together with the log position just past it.
+ *  – The ranking (wins, then matches started) keeps the top K in an indexed min-heap; since both keys
+ *    only grow, a player enters the top K by displacing the root and never has to be evicted otherwise.
+ *  – The sorted top-K page view is rebuilt only after a change, never per query.
+ *  – A checkpoint (stats + log position) is written periodically, so a restart replays only the tail.
+ */
+public final class Leaderboard {
+    private static final ObjectMapper M = new ObjectMapper();
+
+    /** One player's row as served; the token is shortened, reconnect tokens are secrets. */
+    public record Entry(String player, int started, int wins, int losses, int forfeits) {}
+
+    private static final class Row {
+        final String token;
+        int started, wins, losses, forfeits;
+        int heapIdx = -1;
+        Row(String token) { this.token = token; }
+    }
+    /** Ranking order (ascending = worse); the token breaks ties so the order is total. */
+    private static final Comparator<Row> RANK = Comparator
+            .comparingInt((Row r) -> r.wins)
+            .thenComparingInt(r -> r.started)
+            .thenComparing(r -> r.token, Comparator.reverseOrder());
+
+    private final int topK;
+    private final Path checkpointFile;
+    private final long checkpointMs;
+
+    private final HashMap<String, Row> rows = new HashMap<>();
+    private final Row[] heap;                         // min-heap of the current top K
+    private int heapSize;
+
+    private long version, viewVersion = -1;
+    private volatile List<Entry> view = List.of();   // top K, best first
+
+    // log position of the last applied event (writer thread)
+    private int  segment;
+    private long offset;
+    private long lastCheckpointMs = System.currentTimeMillis();
+
+    Leaderboard(Path checkpointFile) {
+        this(checkpointFile, Integer.getInteger("phase3.leaderboard.topK", 1000),
+             Long.getLong("phase3.leaderboard.checkpointMs", 30_000));
+    }
+    Leaderboard(Path checkpointFile, int topK, long checkpointMs) {
+        this.checkpointFile = checkpointFile;
+        this.topK = Math.max(1, topK);
+        this.checkpointMs = checkpointMs;
+        this.heap = new Row[this.topK];
+    }
+
+    // ---------- updates (Store writer thread) ----------
+
+    synchronized void apply(JsonNode ev) {
+        switch (ev.path("type").asText("")) {
+            case "match_started" -> {
+                bump(row(ev.path("aToken").asText("")), 1, 0, 0, 0);
+                bump(row(ev.path("bToken").asText("")), 1, 0, 0, 0);
+            }
+            case "match_forfeit" -> {
+                bump(row(ev.path("winnerToken").asText("")), 0, 1, 0, 0);
+                bump(row(ev.path("loserToken").asText("")), 0, 0, 1, 1);
+            }
+            default -> { /* no ranking change */ }
+        }
+    }
+
+    /** Log position just past the last applied event, kept with the stats in the checkpoint. */
+    synchronized void position(int segment, long offset) { this.segment = segment; this.offset = offset; }
+
+    /** Write a checkpoint if the period has passed (writer thread, after a batch). */
+    void maybeCheckpoint() {
+        if (checkpointMs <= 0 || System.currentTimeMillis() - lastCheckpointMs < checkpointMs) return;
+        try { checkpoint(); }
+        catch (IOException e) { System.err.println("[Leaderboard] checkpoint failed: " + e.getMessage()); }
+    }
+
+    private Row row(String token) { return rows.computeIfAbsent(token, Row::new); }
+
+    private void bump(Row r, int started, int wins, int losses, int forfeits) {
+        r.started += started; r.wins += wins; r.losses += losses; r.forfeits += forfeits;
+        version++;
+        if (r.heapIdx >= 0) siftDown(r.heapIdx);                      // key grew: move away from the root
+        else if (heapSize < topK) { heap[heapSize] = r; r.heapIdx = heapSize++; siftUp(r.heapIdx); }
+        else if (RANK.compare(r, heap[0]) > 0) {                      // beats the weakest of the top K
+            heap[0].heapIdx = -1;
+            heap[0] = r; r.heapIdx = 0;
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int p = (i - 1) >>> 1;
+            if (RANK.compare(heap[i], heap[p]) >= 0) break;
+            swap(i, p); i = p;
+        }
+    }
+    private void siftDown(int i) {
+        while (true) {
+            int l = 2 * i + 1, r = l + 1, m = i;
+            if (l < heapSize && RANK.compare(heap[l], heap[m]) < 0) m = l;
+            if (r < heapSize && RANK.compare(heap[r], heap[m]) < 0) m = r;
+            if (m == i) return;
+            swap(i, m); i = m;
+        }
+    }
+    private void swap(int i, int j) {
+        Row t = heap[i]; heap[i] = heap[j]; heap[j] = t;
+        heap[i].heapIdx = i; heap[j].heapIdx = j;
+    }
+
+    // ---------- queries (any thread) ----------
+
+    /** Rows [page*size, page*size+size) of the top K, best first. */
+    public ObjectNode page(int page, int size) {
+        List<Entry> v = view();
+        size = Math.max(1, Math.min(size, 200));
+        int from = (int) Math.min((long) Math.max(0, page) * size, v.size()), to = Math.min(from + size, v.size());
+
+        ObjectNode n = M.createObjectNode();
+        n.put("page", Math.max(0, page));
+        n.put("size", size);
+        n.put("ranked", v.size());
+        synchronized (this) { n.put("players", rows.size()); }
+        ArrayNode a = n.putArray("rows");
+        for (int i = from; i < to; i++) {
+            Entry e = v.get(i);
+            ObjectNode o = a.addObject();
+            o.put("rank", i + 1);
+            o.put("player", e.player());
+            o.put("wins", e.wins());
+            o.put("losses", e.losses());
+            o.put("forfeits", e.forfeits());
+            o.put("started", e.started());
+        }
+        return n;
+    }
+
+    public String pageJson(int page, int size) {
+        try { return M.writeValueAsString(page(page, size)); }
+        catch (Exception e) { return "{\"error\":\"leaderboard_json\"}"; }
+    }
+
+    private List<Entry> view() {
+        synchronized (this) {
+            if (viewVersion != version) {
+                Row[] top = Arrays.copyOf(heap, heapSize);
+                Arrays.sort(top, RANK.reversed());
+                ArrayList<Entry> out = new ArrayList<>(top.length);
+                for (Row r : top) out.add(new Entry(shorten(r.token), r.started, r.wins, r.losses, r.forfeits));
+                view = List.copyOf(out);
+                viewVersion = version;
+            }
+            return view;
+        }
+    }
+    private static String shorten(String t) { return t.length() > 8 ? t.substring(0, 8) + "…" : t; }
+
+    // ---------- checkpoint ----------
+
+    /** Load the last checkpoint (if any); returns the {segment, offset} to replay from. */
+    synchronized long[] restore() throws IOException {
+        if (!Files.exists(checkpointFile)) return new long[]{0, 0};
+        JsonNode root;
+        try { root = M.readTree(checkpointFile.toFile()); }
+        catch (IOException bad) {
+            System.err.println("[Leaderboard] unreadable checkpoint, full replay: " + bad.getMessage());
+            return new long[]{0, 0};
+        }
+        root.path("players").fields().forEachRemaining(e -> {
+            JsonNode s = e.getValue();
+            bump(row(e.getKey()), s.path(0).asInt(), s.path(1).asInt(), s.path(2).asInt(), s.path(3).asInt());
+        });
+        segment = root.path("segment").asInt();
+        offset  = root.path("offset").asLong();
+        return new long[]{segment, offset};
+    }
+
+    /** Forget everything (full rebuild from the log follows). */
+    synchronized void clear() {
+        rows.clear();
+        Arrays.fill(heap, null);
+        heapSize = 0;
+        segment = 0; offset = 0;
+        version++;
+    }
+
+    synchronized void checkpoint() throws IOException {
+        ObjectNode root = M.createObjectNode();
+        root.put("segment", segment);
+        root.put("offset", offset);
+        ObjectNode players = root.putObject("players");
+        for (Row r : rows.values()) players.putArray(r.token).add(r.started).add(r.wins).add(r.losses).add(r.forfeits);
+        Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        Files.write(tmp, M.writeValueAsBytes(root));
+        Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastCheckpointMs = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,293 @@
+package server.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import common.AbilityType;
+import common.PointDTO;
+import common.cmd.*;
+import config.GameConfig;
+import common.util.RecordLog;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Binary per-room match recording: level config, per-side seeds and every applied command, for headless replay.
+ *  Each {@link RecordLog} frame is one record:
+ *  <pre>
+ *   HEADER : kind | magic | version | roomId | level | config JSON | seedA | seedB | dtMs | startedAtMs
+ *   CHUNK  : kind | tick | digestA | digestB | count | { Δtick side cmd }*     keyframe + the commands after it
+ *   END    : kind | tick | hasResult [ winner | reason | passed coins wire (A) | passed coins wire (B) ]
+ *  </pre>
+ *  Ticks are LevelSession steps: a command stamped t is applied by step t+1, a keyframe at t is the state after
+ *  t steps. Integers are zigzag varints, so a typical command is 6–12 bytes.
+ */
+public final class MatchRecording {
+    private static final ObjectMapper M = new ObjectMapper();
+    private static final int MAGIC = 0x50335243;   // "P3RC"
+    private static final int VERSION = 1;
+    private static final byte HEADER = 1, CHUNK = 2, END = 3;
+
+    public static final int SIDE_A = 0, SIDE_B = 1;
+
+    public record Header(String roomId, String level, GameConfig config, long seedA, long seedB, int dtMs, long startedAtMs) {}
+    public record Command(long tick, int side, ClientCommand cmd) {}
+    public record Keyframe(long tick, long digestA, long digestB) {}
+    public record End(long tick, String winner, String reason,
+                      boolean passedA, int coinsA, double wireA,
+                      boolean passedB, int coinsB, double wireB) {}
+
+    private MatchRecording() {}
+
+    // ================= writing =================
+
+    /** Recorder for one room; calls come from the tick thread, close may race in from a session thread. */
+    public static final class Writer implements Closeable {
+        private final FileChannel ch;
+        private final RecordLog.Framer framer = new RecordLog.Framer(0);
+        private ByteArrayOutputStream events = new ByteArrayOutputStream(4096);
+        private DataOutputStream out = new DataOutputStream(events);
+        private Keyframe chunkStart;
+        private long lastTick;
+        private int count;
+        private boolean closed;
+
+        private Writer(Path file, Header h) throws IOException {
+            Files.createDirectories(file.getParent());
+            ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            DataOutputStream d = new DataOutputStream(b);
+            d.writeByte(HEADER);
+            d.writeInt(MAGIC);
+            d.writeShort(VERSION);
+            d.writeUTF(h.roomId());
+            d.writeUTF(h.level());
+            byte[] cfg = M.writeValueAsBytes(h.config());
+            writeVar(d, cfg.length);
+            d.write(cfg);
+            d.writeLong(h.seedA());
+            d.writeLong(h.seedB());
+            writeVar(d, h.dtMs());
+            d.writeLong(h.startedAtMs());
+            emit(b.toByteArray());
+        }
+
+        public synchronized void command(int side, long tick, ClientCommand c) {
+            if (closed || chunkStart == null) return;
+            try {
+                writeVar(out, tick - lastTick);
+                out.writeByte(side);
+                writeCmd(out, c);
+                lastTick = tick;
+                count++;
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("[Recording] command skipped: " + e.getMessage());
+            }
+        }
+
+        /** State digests after {@code tick} steps; closes the running chunk and starts the next. */
+        public synchronized void keyframe(long tick, long digestA, long digestB) {
+            if (closed) return;
+            flushChunk();
+            chunkStart = new Keyframe(tick, digestA, digestB);
+            lastTick = tick;
+        }
+
+        public synchronized void end(End e) {
+            if (closed) return;
+            flushChunk();
+            try {
+                ByteArrayOutputStream b = new ByteArrayOutputStream();
+                DataOutputStream d = new DataOutputStream(b);
+                d.writeByte(END);
+                writeVar(d, e.tick());
+                d.writeBoolean(e.winner() != null);
+                if (e.winner() != null) {
+                    d.writeUTF(e.winner());
+                    d.writeUTF(e.reason() == null ? "" : e.reason());
+                    d.writeBoolean(e.passedA()); writeVar(d, e.coinsA()); d.writeDouble(e.wireA());
+                    d.writeBoolean(e.passedB()); writeVar(d, e.coinsB()); d.writeDouble(e.wireB());
+                }
+                emit(b.toByteArray());
+            } catch (IOException io) {
+                System.err.println("[Recording] end failed: " + io.getMessage());
+            }
+            closeQuietly();
+        }
+
+        /** Close without a result (room torn down before the judge ran). */
+        @Override public synchronized void close() {
+            if (closed) return;
+            flushChunk();
+            closeQuietly();
+        }
+
+        private void flushChunk() {
+            if (chunkStart == null) return;
+            try {
+                out.flush();
+                ByteArrayOutputStream b = new ByteArrayOutputStream(events.size() + 32);
+                DataOutputStream d = new DataOutputStream(b);
+                d.writeByte(CHUNK);
+                writeVar(d, chunkStart.tick());
+                d.writeLong(chunkStart.digestA());
+                d.writeLong(chunkStart.digestB());
+                writeVar(d, count);
+                events.writeTo(d);
+                emit(b.toByteArray());
+            } catch (IOException io) {
+                System.err.println("[Recording] chunk write failed: " + io.getMessage());
+            }
+            events = new ByteArrayOutputStream(4096);
+            out = new DataOutputStream(events);
+            count = 0;
+            chunkStart = null;
+        }
+
+        private void emit(byte[] record) throws IOException {
+            long at = framer.position();
+            ByteBuffer buf = framer.frame(List.of(record));
+            while (buf.hasRemaining()) at += ch.write(buf, at);
+        }
+
+        private void closeQuietly() {
+            closed = true;
+            try { ch.close(); } catch (IOException ignore) { }
+        }
+    }
+
+    /** Start recording {@code <dir>/<roomId>.rec}. */
+    public static Writer create(Path dir, Header h) throws IOException {
+        return new Writer(dir.resolve(h.roomId() + ".rec"), h);
+    }
+
+    // ================= reading =================
+
+    /** A whole recording in memory (commands in tick order, keyframes, optional end). */
+    public record Recording(Header header, List<Command> commands, List<Keyframe> keyframes, End end) {}
+
+    public static Recording read(Path file) throws IOException {
+        Header[] header = {null};
+        End[] end = {null};
+        List<Command> cmds = new ArrayList<>();
+        List<Keyframe> keys = new ArrayList<>();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            RecordLog.scan(ch, 0, (off, payload) -> {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+                switch (in.readByte()) {
+                    case HEADER -> header[0] = readHeader(in);
+                    case CHUNK  -> {
+                        long tick = readVar(in);
+                        Keyframe k = new Keyframe(tick, in.readLong(), in.readLong());
+                        keys.add(k);
+                        long n = readVar(in);
+                        for (long i = 0; i < n; i++) {
+                            tick += readVar(in);
+                            int side = in.readByte();
+                            cmds.add(new Command(tick, side, readCmd(in)));
+                        }
+                    }
+                    case END -> {
+                        long tick = readVar(in);
+                        if (!in.readBoolean()) { end[0] = new End(tick, null, null, false, 0, 0, false, 0, 0); break; }
+                        String w = in.readUTF(), r = in.readUTF();
+                        end[0] = new End(tick, w, r,
+                                in.readBoolean(), (int) readVar(in), in.readDouble(),
+                                in.readBoolean(), (int) readVar(in), in.readDouble());
+                    }
+                    default -> { /* newer record kind: skip */ }
+                }
+            });
+        }
+        if (header[0] == null) throw new IOException("not a match recording: " + file);
+        return new Recording(header[0], cmds, keys, end[0]);
+    }
+
+    private static Header readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("bad magic");
+        int v = in.readShort();
+        if (v != VERSION) throw new IOException("unsupported recording version " + v);
+        String room = in.readUTF(), level = in.readUTF();
+        byte[] cfg = new byte[(int) readVar(in)];
+        in.readFully(cfg);
+        return new Header(room, level, M.readValue(cfg, GameConfig.class),
+                in.readLong(), in.readLong(), (int) readVar(in), in.readLong());
+    }
+
+    // ================= command codec =================
+
+    private static final byte ADD_LINE = 1, REMOVE_LINE = 2, MOVE_SYSTEM = 3, ADD_BEND = 4,
+                              MOVE_BEND = 5, USE_ABILITY = 6, READY = 7, LAUNCH = 8, CHAT = 9;
+    private static final AbilityType[] ABILITIES = AbilityType.values();
+
+    private static void writeCmd(DataOutputStream o, ClientCommand c) throws IOException {
+        switch (c) {
+            case AddLineCmd a -> { o.writeByte(ADD_LINE); writeVar(o, a.seq()); ends(o, a.fromSystemId(), a.fromOutputIndex(), a.toSystemId(), a.toInputIndex()); }
+            case RemoveLineCmd r -> { o.writeByte(REMOVE_LINE); writeVar(o, r.seq()); ends(o, r.fromSystemId(), r.fromOutputIndex(), r.toSystemId(), r.toInputIndex()); }
+            case MoveSystemCmd m -> { o.writeByte(MOVE_SYSTEM); writeVar(o, m.seq()); writeVar(o, m.systemId()); writeVar(o, m.x()); writeVar(o, m.y()); }
+            case AddBendCmd b -> {
+                o.writeByte(ADD_BEND); writeVar(o, b.seq()); ends(o, b.fromSystemId(), b.fromOutputIndex(), b.toSystemId(), b.toInputIndex());
+                point(o, b.footA()); point(o, b.middle()); point(o, b.footB());
+            }
+            case MoveBendCmd m -> {
+                o.writeByte(MOVE_BEND); writeVar(o, m.seq()); ends(o, m.fromSystemId(), m.fromOutputIndex(), m.toSystemId(), m.toInputIndex());
+                writeVar(o, m.bendIndex()); point(o, m.newMiddle());
+            }
+            case UseAbilityCmd u -> {
+                o.writeByte(USE_ABILITY); writeVar(o, u.seq()); o.writeByte(u.ability().ordinal());
+                ends(o, u.fromSystemId(), u.fromOutputIndex(), u.toSystemId(), u.toInputIndex()); point(o, u.at());
+            }
+            case ReadyCmd r  -> { o.writeByte(READY);  writeVar(o, r.seq()); }
+            case LaunchCmd l -> { o.writeByte(LAUNCH); writeVar(o, l.seq()); }
+            case ChatCmd ch  -> { o.writeByte(CHAT);   writeVar(o, ch.seq()); o.writeUTF(ch.text() == null ? "" : ch.text()); }
+            default -> throw new IllegalArgumentException("unrecordable command " + c.getClass().getSimpleName());
+        }
+    }
+
+    private static ClientCommand readCmd(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        long seq = readVar(in);
+        return switch (kind) {
+            case ADD_LINE    -> new AddLineCmd(seq, iv(in), iv(in), iv(in), iv(in));
+            case REMOVE_LINE -> new RemoveLineCmd(seq, iv(in), iv(in), iv(in), iv(in));
+            case MOVE_SYSTEM -> new MoveSystemCmd(seq, iv(in), iv(in), iv(in));
+            case ADD_BEND    -> new AddBendCmd(seq, iv(in), iv(in), iv(in), iv(in), point(in), point(in), point(in));
+            case MOVE_BEND   -> new MoveBendCmd(seq, iv(in), iv(in), iv(in), iv(in), iv(in), point(in));
+            case USE_ABILITY -> {
+                AbilityType a = ABILITIES[in.readByte()];
+                yield new UseAbilityCmd(seq, a, iv(in), iv(in), iv(in), iv(in), point(in));
+            }
+            case READY  -> new ReadyCmd(seq);
+            case LAUNCH -> new LaunchCmd(seq);
+            case CHAT   -> new ChatCmd(seq, in.readUTF());
+            default -> throw new IOException("unknown command kind " + kind);
+        };
+    }
+
+    private static void ends(DataOutputStream o, int fs, int fo, int ts, int ti) throws IOException {
+        writeVar(o, fs); writeVar(o, fo); writeVar(o, ts); writeVar(o, ti);
+    }
+    private static void point(DataOutputStream o, PointDTO p) throws IOException {
+        writeVar(o, p == null ? 0 : p.x()); writeVar(o, p == null ? 0 : p.y());
+    }
+    private static PointDTO point(DataInputStream in) throws IOException { return new PointDTO(iv(in), iv(in)); }
+    private static int iv(DataInputStream in) throws IOException { return (int) readVar(in); }
+
+    // zigzag LEB128
+    private static void writeVar(DataOutput o, long v) throws IOException {
+        long z = (v << 1) ^ (v >> 63);
+        while ((z & ~0x7FL) != 0) { o.writeByte((int) ((z & 0x7F) | 0x80)); z >>>= 7; }
+        o.writeByte((int) z);
+    }
+    private static long readVar(DataInput in) throws IOException {
+        long z = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            z |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return (z >>> 1) ^ -(z & 1);
+        }
+        throw new IOException("varint too long");
+    }
+}
@@ -0,0 +1,273 @@
+package server.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import common.util.RecordLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/** Rotating segments of {@link RecordLog} frames: events-00000001.log, events-00000002.log, …
+ *  – The highest-numbered segment is active; it rotates by size or age.
+ *  – Each segment has an index (key → record offsets) kept in memory while active and
+ *    written next to it as events-N.idx when sealed; a missing .idx is rebuilt on first query.
+ *  – Sealed segments past the retention count move to archive/; archived ones past archiveKeep are deleted.
+ *  – Queries memory-map only the segments whose index holds the key.
+ *  Appends/rotation come from the single Store writer thread; queries may run on any thread.
+ */
+final class SegmentedLog implements Closeable {
+    private static final ObjectMapper M = new ObjectMapper();
+    private static final String PREFIX = "events-", LOG = ".log", IDX = ".idx";
+
+    private final Path dir, archiveDir;
+    private final long segmentBytes, segmentAgeMs;
+    private final int  retainSegments, archiveKeep;
+    private final Function<byte[], String[]> keysOf;     // used when an index has to be rebuilt from data
+
+    /** key → record offsets; arrays are replaced (never mutated) so readers need no lock. */
+    private static final class SegmentIndex {
+        final ConcurrentHashMap<String, long[]> offsets = new ConcurrentHashMap<>();
+        void add(String key, long off) {
+            offsets.merge(key, new long[]{off}, (a, b) -> { long[] c = Arrays.copyOf(a, a.length + 1); c[a.length] = b[0]; return c; });
+        }
+        /** Forget offsets at or past {@code end} (arrays are ascending: appends only). */
+        void cut(long end) {
+            offsets.replaceAll((k, a) -> {
+                int n = a.length;
+                while (n > 0 && a[n - 1] >= end) n--;
+                return n == a.length ? a : Arrays.copyOf(a, n);
+            });
+            offsets.values().removeIf(a -> a.length == 0);
+        }
+    }
+
+    private final ConcurrentSkipListMap<Integer, Path> sealed = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<Integer, SegmentIndex> sealedIndex = new ConcurrentHashMap<>();
+
+    // ---- active segment (writer thread; queries read the immutable Active snapshot) ----
+    private record Active(int no, Path path, SegmentIndex index) {}
+    private volatile Active current;
+    private FileChannel      active;
+    private RecordLog.Framer framer;
+    private long             activeOpenedMs;
+
+    SegmentedLog(Path dir, long segmentBytes, long segmentAgeMs, int retainSegments, int archiveKeep,
+                 Function<byte[], String[]> keysOf) {
+        this.dir = dir;
+        this.archiveDir = dir.resolve("archive");
+        this.segmentBytes = Math.min(Math.max(4096, segmentBytes), Integer.MAX_VALUE / 2);  // mapped offsets stay int
+        this.segmentAgeMs = segmentAgeMs;
+        this.retainSegments = Math.max(1, retainSegments);
+        this.archiveKeep = archiveKeep;
+        this.keysOf = keysOf;
+    }
+
+    static Path segmentPath(Path dir, int no) { return dir.resolve(String.format("%s%08d%s", PREFIX, no, LOG)); }
+    private static Path indexPath(Path log) {
+        String n = log.getFileName().toString();
+        return log.resolveSibling(n.substring(0, n.length() - LOG.length()) + IDX);
+    }
+
+    /** Segment files of {@code dir} in order (used by tools too). */
+    static List<Path> listSegments(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return List.of();
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(p -> { String n = p.getFileName().toString(); return n.startsWith(PREFIX) && n.endsWith(LOG); })
+                    .sorted().toList();
+        }
+    }
+    private static int segmentNo(Path p) {
+        String n = p.getFileName().toString();
+        return Integer.parseInt(n.substring(PREFIX.length(), n.length() - LOG.length()));
+    }
+
+    // ---------- lifecycle ----------
+
+    void open() throws IOException {
+        Files.createDirectories(dir);
+        List<Path> segs = listSegments(dir);
+        if (segs.isEmpty()) {
+            openActive(1);
+            return;
+        }
+        for (int i = 0; i < segs.size() - 1; i++) sealed.put(segmentNo(segs.get(i)), segs.get(i));
+        Path last = segs.get(segs.size() - 1);
+        openActive(segmentNo(last));
+        // the active index lives only in memory: rebuild it from the (recovered) segment
+        SegmentIndex idx = current.index();
+        RecordLog.scan(active, 0, (off, payload) -> { for (String k : keysOf.apply(payload)) idx.add(k, off); });
+        active.position(framer.position());
+    }
+
+    private void openActive(int no) throws IOException {
+        Path p = segmentPath(dir, no);
+        active = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        framer = new RecordLog.Framer(RecordLog.recover(active));
+        current = new Active(no, p, new SegmentIndex());
+        activeOpenedMs = System.currentTimeMillis();
+    }
+
+    Path activePath() { return current.path(); }
+    int  activeNo()   { return current.no(); }
+    /** Offset just past the last record of the active segment (writer thread). */
+    long position()   { return framer.position(); }
+
+    /** A point in the log to roll back to: segment number + offset. */
+    record Mark(int no, long off) {}
+    Mark mark()       { return new Mark(current.no(), framer.position()); }
+
+    /** Visit records from ({@code fromNo}, {@code fromOff}) onwards in write order, archived segments included. */
+    void replay(int fromNo, long fromOff, RecordLog.Visitor v) throws IOException {
+        ConcurrentSkipListMap<Integer, Path> all = new ConcurrentSkipListMap<>();
+        for (Path p : listSegments(archiveDir)) all.put(segmentNo(p), p);
+        for (Path p : listSegments(dir))        all.put(segmentNo(p), p);
+        for (Map.Entry<Integer, Path> e : all.tailMap(fromNo).entrySet()) {
+            try (FileChannel ch = FileChannel.open(e.getValue(), StandardOpenOption.READ)) {
+                RecordLog.scan(ch, e.getKey() == fromNo ? fromOff : 0, v);
+            }
+        }
+    }
+
+    // ---------- writer thread ----------
+
+    /** Seal the active segment if it is over size or age; true if it did (everything written so far is forced). */
+    boolean rotateIfDue() throws IOException {
+        if (framer.position() == 0 || (framer.position() < segmentBytes
+                && (segmentAgeMs <= 0 || System.currentTimeMillis() - activeOpenedMs < segmentAgeMs))) return false;
+        rotate();
+        return true;
+    }
+
+    /** Frame and write one batch into the active segment; keys[i] index payloads[i]. */
+    void append(List<byte[]> payloads, List<String[]> keys) throws IOException {
+        long[] offsets = new long[payloads.size()];
+        long at = framer.position();
+        ByteBuffer buf = framer.frame(payloads, offsets);
+        while (buf.hasRemaining()) at += active.write(buf, at);
+        SegmentIndex idx = current.index();
+        for (int i = 0; i < offsets.length; i++) for (String k : keys.get(i)) idx.add(k, offsets[i]);
+    }
+
+    void force() throws IOException { active.force(false); }
+
+    /** After a failed write or force: cut everything written since {@code m}, whole records included, so
+     *  nothing whose append was reported failed can come back on replay. Sealed segments were forced by
+     *  rotate(), so a mark in an older segment only empties the active one. */
+    void rollback(Mark m) throws IOException {
+        long off = m.no() == current.no() ? m.off() : 0;
+        active.truncate(off);
+        framer = new RecordLog.Framer(off);
+        current.index().cut(off);
+    }
+
+    private void rotate() throws IOException {
+        active.force(false);
+        active.close();
+        int no = current.no();
+        Path p = current.path();
+        SegmentIndex idx = current.index();
+        writeIndex(p, idx);
+        sealedIndex.put(no, idx);
+        sealed.put(no, p);
+        openActive(no + 1);
+        applyRetention();
+    }
+
+    private void applyRetention() throws IOException {
+        while (sealed.size() > retainSegments) {
+            Map.Entry<Integer, Path> oldest = sealed.pollFirstEntry();
+            sealedIndex.remove(oldest.getKey());
+            Files.createDirectories(archiveDir);
+            Path log = oldest.getValue(), idx = indexPath(log);
+            Files.move(log, archiveDir.resolve(log.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            if (Files.exists(idx)) Files.move(idx, archiveDir.resolve(idx.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("[Store] archived " + log.getFileName());
+        }
+        if (archiveKeep < 0) return;
+        List<Path> archived = new ArrayList<>(listSegments(archiveDir));
+        while (archived.size() > archiveKeep) {
+            Path log = archived.remove(0);
+            Files.deleteIfExists(log);
+            Files.deleteIfExists(indexPath(log));
+            System.out.println("[Store] deleted archived " + log.getFileName());
+        }
+    }
+
+    // ---------- index files ----------
+
+    private static void writeIndex(Path log, SegmentIndex idx) throws IOException {
+        ObjectNode root = M.createObjectNode();
+        ObjectNode keys = root.putObject("keys");
+        idx.offsets.forEach((k, offs) -> { ArrayNode a = keys.putArray(k); for (long o : offs) a.add(o); });
+        Path out = indexPath(log), tmp = out.resolveSibling(out.getFileName() + ".tmp");
+        Files.write(tmp, M.writeValueAsBytes(root));
+        Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private SegmentIndex sealedIndex(int no, Path log) throws IOException {
+        SegmentIndex cached = sealedIndex.get(no);
+        if (cached != null) return cached;
+        SegmentIndex idx = new SegmentIndex();
+        Path ip = indexPath(log);
+        if (Files.exists(ip)) {
+            JsonNode keys = M.readTree(ip.toFile()).path("keys");
+            keys.fields().forEachRemaining(e -> {
+                long[] offs = new long[e.getValue().size()];
+                for (int i = 0; i < offs.length; i++) offs[i] = e.getValue().get(i).asLong();
+                idx.offsets.put(e.getKey(), offs);
+            });
+        } else {
+            try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ)) {
+                RecordLog.scan(ch, 0, (off, payload) -> { for (String k : keysOf.apply(payload)) idx.add(k, off); });
+            }
+            writeIndex(log, idx);
+        }
+        sealedIndex.put(no, idx);
+        return idx;
+    }
+
+    // ---------- queries (any thread) ----------
+
+    /** Payloads of every record indexed under {@code key}, oldest first, from live (non-archived) segments. */
+    List<byte[]> query(String key) {
+        List<byte[]> out = new ArrayList<>();
+        Active a = current;                              // if it rotates meanwhile, its path and index stay valid
+        for (Map.Entry<Integer, Path> e : sealed.headMap(a.no()).entrySet()) {
+            try { read(e.getValue(), sealedIndex(e.getKey(), e.getValue()).offsets.get(key), out); }
+            catch (IOException | UncheckedIOException ignore) { /* archived meanwhile */ }
+        }
+        try { read(a.path(), a.index().offsets.get(key), out); }   // offsets are indexed only after their bytes were written
+        catch (IOException ignore) { }
+        return out;
+    }
+
+    private static void read(Path log, long[] offsets, List<byte[]> out) throws IOException {
+        if (offsets == null || offsets.length == 0) return;
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ)) {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            for (long off : offsets) {
+                byte[] payload = RecordLog.readAt(map, off);
+                if (payload != null) out.add(payload);
+            }
+        }
+    }
+
+    @Override public void close() throws IOException {
+        if (active != null && active.isOpen()) { active.force(false); active.close(); }
+    }
+}
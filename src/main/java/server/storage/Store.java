@@ -2,111 +2,331 @@ package server.storage;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import common.jfr.Phase3Events;
+import common.util.RecordLog;
+import server.ops.LatencyHistogram;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.Instant;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/** Append-only server event log: JSON events in {@link RecordLog} frames (length + CRC32C + sync markers),
+ *  stored in rotating, indexed segments ({@link SegmentedLog}) that can be queried by room or token.
+ *  – Callers only enqueue; a single writer thread batches events into one write + fsync (group commit).
+ *  – Each helper returns a future that completes once the event is durable under the chosen policy.
+ *  – A full queue drops the event (future fails) instead of blocking the caller, so the tick thread never waits on disk.
+ */
 public final class Store implements Closeable {
     private static final ObjectMapper M = new ObjectMapper();
 
+    /** When appended bytes are forced to disk. */
+    public enum Durability { PER_BATCH, PERIODIC, NONE }
+
+    /** Writer tuning; {@link #defaults()} reads -Dphase3.store.* overrides. */
+    public record Options(int queueCapacity, int maxBatch, long maxLatencyMs,
+                          Durability durability, long fsyncPeriodMs,
+                          long segmentBytes, long segmentAgeMs, int retainSegments, int archiveKeep) {
+        public static Options defaults() {
+            return new Options(
+                    Integer.getInteger("phase3.store.queue", 4096),
+                    Integer.getInteger("phase3.store.batch", 256),
+                    Long.getLong("phase3.store.latencyMs", 5),
+                    Durability.valueOf(System.getProperty("phase3.store.durability", "PER_BATCH")),
+                    Long.getLong("phase3.store.fsyncPeriodMs", 200),
+                    Long.getLong("phase3.store.segmentBytes", 64L << 20),
+                    Long.getLong("phase3.store.segmentAgeMs", 24L * 3600_000),
+                    Integer.getInteger("phase3.store.retainSegments", 16),
+                    Integer.getInteger("phase3.store.archiveKeep", -1));     // -1 = never delete archives
+        }
+    }
+
+    private record Pending(ObjectNode event, byte[] payload, String[] keys, CompletableFuture<Void> done, long enqNs) {}
+
     private final Path dir;
-    private final Path file;
-    private RandomAccessFile raf;
-    private FileChannel channel;
-    private BufferedWriter appender;
+    private final Path single;      // .../events.log    (one-file RecordLog format, becomes segment 1)
+    private final Path legacy;      // .../events.ndjson (pre-RecordLog format, imported once)
+    private final Options opts;
+    private final SegmentedLog log;
+    private final Leaderboard leaderboard;
 
-    public Store(Path dir) { this.dir = dir; this.file = dir.resolve("events.ndjson"); }
+    // ---- group-commit writer ----
+    private final ArrayBlockingQueue<Pending> queue;
+    private Thread writer;
+    private volatile boolean running;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final LatencyHistogram appendLatency = new LatencyHistogram();   // enqueue → durable (per policy)
+
+    public Store(Path dir) { this(dir, Options.defaults()); }
+    public Store(Path dir, Options opts) {
+        this.dir = dir; this.single = dir.resolve("events.log"); this.legacy = dir.resolve("events.ndjson"); this.opts = opts;
+        this.log = new SegmentedLog(dir, opts.segmentBytes(), opts.segmentAgeMs(), opts.retainSegments(), opts.archiveKeep(),
+                Store::keysOf);
+        this.leaderboard = new Leaderboard(dir.resolve("leaderboard.json"));
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, opts.queueCapacity()));
+    }
 
     public synchronized void open() throws IOException {
         Files.createDirectories(dir);
-        if (!Files.exists(file)) Files.createFile(file);
-        raf = new RandomAccessFile(file.toFile(), "rw");
-        channel = raf.getChannel();
-        raf.seek(raf.length());
-        appender = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
-        sanitizeTail();
-        System.out.println("[Store] writing to: " + file.toAbsolutePath()); // <— add this
-    }
-
-    private void sanitizeTail() throws IOException {
-        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
-            long goodBytes = 0;
-            String ln;
-            while ((ln = br.readLine()) != null) {
-                try { M.readTree(ln); goodBytes += (ln + System.lineSeparator()).getBytes(StandardCharsets.UTF_8).length; }
-                catch (Exception bad) { break; }
-            }
-            if (goodBytes < raf.length()) {
-                channel.truncate(goodBytes);
-                channel.force(true);
-                raf.seek(goodBytes);
+        if (SegmentedLog.listSegments(dir).isEmpty()) {
+            Path first = SegmentedLog.segmentPath(dir, 1);
+            if (Files.exists(single)) Files.move(single, first);
+            else if (Files.exists(legacy)) importLegacy(first);
+        }
+        log.open();                                          // recovers the active segment's tail, O(tail)
+        replayLeaderboard();
+
+        running = true;
+        writer = new Thread(this::writerLoop, "StoreWriter");
+        writer.setDaemon(true);
+        writer.start();
+        System.out.println("[Store] writing to: " + log.activePath().toAbsolutePath() + " durability=" + opts.durability());
+    }
+
+    /** Checkpointed stats plus the events written after the checkpoint. */
+    private void replayLeaderboard() throws IOException {
+        long t0 = System.nanoTime();
+        long[] from = leaderboard.restore();
+        if (from[0] > log.activeNo() || (from[0] == log.activeNo() && from[1] > log.position())) {
+            // checkpoint counted records the tail recovery dropped (durability NONE, or an older build)
+            System.err.println("[Leaderboard] checkpoint at " + from[0] + ":" + from[1] + " is past the log end "
+                    + log.activeNo() + ":" + log.position() + ", rebuilding from the start");
+            leaderboard.clear();
+            from = new long[]{0, 0};
+        }
+        long[] n = {0};
+        log.replay((int) from[0], from[1], (off, payload) -> {
+            try { leaderboard.apply(M.readTree(payload)); n[0]++; } catch (IOException bad) { /* skip */ }
+        });
+        leaderboard.position(log.activeNo(), log.position());
+        System.out.printf("[Store] leaderboard: replayed %d event(s) after checkpoint in %.1f ms%n",
+                n[0], (System.nanoTime() - t0) / 1e6);
+    }
+
+    /** One-time conversion of an old NDJSON log; the original is kept as events.ndjson.bak. */
+    private void importLegacy(Path first) throws IOException {
+        Path tmp = dir.resolve("events.log.tmp");
+        long n = RecordLog.importNdjson(legacy, tmp);
+        Files.move(tmp, first, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(legacy, dir.resolve("events.ndjson.bak"), StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("[Store] imported " + n + " legacy events from " + legacy.getFileName());
+    }
+
+    /** Index keys of an event: its room and every player token it mentions. */
+    static String[] keysOf(ObjectNode n) {
+        ArrayList<String> keys = new ArrayList<>(3);
+        String room = n.path("roomId").asText(null);
+        if (room != null) keys.add(roomKey(room));
+        for (String f : TOKEN_FIELDS) {
+            String t = n.path(f).asText(null);
+            if (t != null) keys.add(tokenKey(t));
+        }
+        return keys.toArray(new String[0]);
+    }
+    private static String[] keysOf(byte[] payload) {
+        try { return keysOf((ObjectNode) M.readTree(payload)); }
+        catch (Exception bad) { return new String[0]; }
+    }
+    private static final String[] TOKEN_FIELDS = {"aToken", "bToken", "winnerToken", "loserToken"};
+    private static String roomKey(String roomId) { return "room:" + roomId; }
+    private static String tokenKey(String token) { return "token:" + token; }
+
+    /** Serialise on the caller, hand off to the writer; never blocks. */
+    private CompletableFuture<Void> append(ObjectNode n) {
+        n.put("ts", Instant.now().toEpochMilli());
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (!running) {
+            done.completeExceptionally(new IOException("store not open"));
+            return done;
+        }
+        byte[] payload = n.toString().getBytes(StandardCharsets.UTF_8);
+        if (!queue.offer(new Pending(n, payload, keysOf(n), done, System.nanoTime()))) {
+            long d = dropped.incrementAndGet();
+            if ((d & (d - 1)) == 0) System.err.println("[Store] queue full, dropped " + d + " event(s) so far");
+            done.completeExceptionally(new IOException("store queue full"));
+        }
+        return done;
+    }
+
+    // ---- writer thread ----
+    private void writerLoop() {
+        final ArrayList<Pending> batch    = new ArrayList<>(opts.maxBatch());
+        final ArrayList<Pending> unsynced = new ArrayList<>();      // PERIODIC: written, waiting for the next force
+        SegmentedLog.Mark rollback = null;                          // start of the oldest written-but-not-forced record
+        long lastForceNs = System.nanoTime();
+        final long periodNs = TimeUnit.MILLISECONDS.toNanos(Math.max(1, opts.fsyncPeriodMs()));
+
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(Math.max(1, opts.fsyncPeriodMs()), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    // gather until the batch is full or the first event has waited maxLatency
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(opts.maxLatencyMs());
+                    while (batch.size() < opts.maxBatch()) {
+                        if (queue.drainTo(batch, opts.maxBatch() - batch.size()) > 0) continue;
+                        long left = deadline - System.nanoTime();
+                        if (left <= 0 || !running) break;
+                        Pending next = queue.poll(left, TimeUnit.NANOSECONDS);
+                        if (next == null) break;
+                        batch.add(next);
+                    }
+                    if (log.rotateIfDue()) complete(unsynced, null);     // rotation forced them
+                    if (unsynced.isEmpty()) rollback = log.mark();
+                    writeBatch(batch);
+                }
+
+                long now = System.nanoTime();
+                switch (opts.durability()) {
+                    case PER_BATCH -> {
+                        if (!batch.isEmpty()) { log.force(); complete(batch, null); }
+                    }
+                    case PERIODIC -> {
+                        unsynced.addAll(batch);
+                        if (!unsynced.isEmpty() && now - lastForceNs >= periodNs) {
+                            log.force(); lastForceNs = now; complete(unsynced, null);
+                        }
+                    }
+                    case NONE -> complete(batch, null);
+                }
+                if (unsynced.isEmpty()) rollback = null;
+                leaderboard.maybeCheckpoint();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                System.err.println("[Store] append failed: " + e.getMessage());
+                complete(batch, e);
+                complete(unsynced, e);
+                // the failed events must not reappear on replay: cut back to where the first of them started
+                if (rollback != null) {
+                    try { log.rollback(rollback); }
+                    catch (IOException again) { System.err.println("[Store] rollback failed: " + again.getMessage()); }
+                    rollback = null;
+                }
             }
+            batch.clear();
+        }
+        // shutdown: whatever was written gets one last force
+        try { log.force(); complete(unsynced, null); }
+        catch (IOException e) { complete(unsynced, e); }
+        try { leaderboard.checkpoint(); }
+        catch (IOException e) { System.err.println("[Leaderboard] checkpoint failed: " + e.getMessage()); }
+    }
+
+    private void writeBatch(ArrayList<Pending> batch) throws IOException {
+        Phase3Events.StoreAppend jfr = null;
+        if (Phase3Events.STORE_APPEND.isEnabled()) { jfr = new Phase3Events.StoreAppend(); jfr.begin(); }
+        ArrayList<byte[]>   payloads = new ArrayList<>(batch.size());
+        ArrayList<String[]> keys     = new ArrayList<>(batch.size());
+        for (Pending p : batch) { payloads.add(p.payload()); keys.add(p.keys()); }
+        log.append(payloads, keys);
+        if (jfr != null) {
+            long bytes = 0;
+            for (byte[] p : payloads) bytes += p.length;
+            jfr.events = batch.size(); jfr.bytes = bytes;
+            jfr.oldestWaitNs = System.nanoTime() - batch.get(0).enqNs();
+            jfr.commit();
         }
+        batches.incrementAndGet();
     }
 
-    private synchronized void append(ObjectNode n) {
-        try {
-            n.put("ts", Instant.now().toEpochMilli());
-            String s = n.toString();
-            appender.write(s);
-            appender.write(System.lineSeparator());
-            appender.flush();
-            channel.force(true);
-        } catch (IOException e) {
-            System.err.println("[Store] append failed: " + e.getMessage());
+    /** Events become durable (per policy) here: only now do they count on the leaderboard, so a checkpoint
+     *  never covers records that tail recovery could still truncate. Everything written so far is in list. */
+    private void complete(ArrayList<Pending> list, IOException err) {
+        long now = System.nanoTime();
+        for (Pending p : list) {
+            if (err == null) {
+                leaderboard.apply(p.event());
+                appendLatency.record(now - p.enqNs());
+                p.done().complete(null);
+            }
+            else p.done().completeExceptionally(err);
         }
+        if (err == null && !list.isEmpty()) leaderboard.position(log.activeNo(), log.position());
+        list.clear();
     }
 
     /* ========== Public helpers (tiny schema) ========== */
 
     // Called when a room is created and START is sent
-    public void matchStarted(String roomId, String level, String aToken, String bToken) {
+    public CompletableFuture<Void> matchStarted(String roomId, String level, String aToken, String bToken) {
         ObjectNode n = M.createObjectNode();
         n.put("type", "match_started");
         n.put("roomId", roomId);
         n.put("level", level);
         n.put("aToken", aToken);
         n.put("bToken", bToken);
-        append(n);
+        return append(n);
     }
 
     // Called when room flips BUILD -> ACTIVE (first time)
-    public void matchActive(String roomId) {
+    public CompletableFuture<Void> matchActive(String roomId) {
         ObjectNode n = M.createObjectNode();
         n.put("type", "match_active");
         n.put("roomId", roomId);
-        append(n);
+        return append(n);
     }
 
     // Called when a player leaves during ACTIVE (forfeit win)
-    public void matchForfeit(String roomId, String winnerToken, String loserToken, String reason) {
+    public CompletableFuture<Void> matchForfeit(String roomId, String winnerToken, String loserToken, String reason) {
         ObjectNode n = M.createObjectNode();
         n.put("type", "match_forfeit");
         n.put("roomId", roomId);
         n.put("winnerToken", winnerToken);
         n.put("loserToken", loserToken);
         n.put("reason", reason);
-        append(n);
+        return append(n);
     }
 
     // Called when room ends (cleanup)
-    public void matchEnded(String roomId, String reason) {
+    public CompletableFuture<Void> matchEnded(String roomId, String reason) {
         ObjectNode n = M.createObjectNode();
         n.put("type", "match_ended");
         n.put("roomId", roomId);
         n.put("reason", reason);
-        append(n);
+        return append(n);
     }
 
-    public Path file() { return file; }
+    /* ========== Queries (any thread; mmap reads of the segments that index the key) ========== */
 
+    public List<ObjectNode> eventsForRoom(String roomId) { return query(roomKey(roomId)); }
+    public List<ObjectNode> eventsForToken(String token) { return query(tokenKey(token)); }
+
+    private List<ObjectNode> query(String key) {
+        List<ObjectNode> out = new ArrayList<>();
+        for (byte[] payload : log.query(key)) {
+            try { out.add((ObjectNode) M.readTree(payload)); } catch (Exception ignore) { }
+        }
+        return out;
+    }
+
+    public Leaderboard leaderboard() { return leaderboard; }
+    public Path dir()  { return dir; }
+    public Path file() { return log.activePath(); }
+    public long droppedEvents() { return dropped.get(); }
+    public long batchesWritten() { return batches.get(); }
+    public LatencyHistogram appendLatency() { return appendLatency; }
+
+    /** Stops accepting events, lets the writer drain and force what is queued, then closes the file. */
     @Override public synchronized void close() throws IOException {
-        if (appender != null) appender.close();
-        if (channel != null) channel.close();
-        if (raf != null) raf.close();
+        running = false;
+        if (writer != null) {
+            try { writer.join(5_000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            writer = null;
+        }
+        ArrayList<Pending> late = new ArrayList<>();                // raced with close(): never written
+        queue.drainTo(late);
+        complete(late, new IOException("store closed"));
+        log.close();
     }
 }
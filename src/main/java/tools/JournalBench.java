@@ -0,0 +1,64 @@
+package tools;
+
+import client.storage.Journal;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/** Microbenchmark: latency {@link Journal#append} adds to a command send, synchronous fsync vs group commit.
+ *  <pre>
+ *  JournalBench [appends=2000] [gapMicros=200] [dir=tmp]
+ *  </pre>
+ *  gapMicros spaces appends out like UI drag commands; 0 measures back-to-back throughput.
+ */
+public final class JournalBench {
+    private static final ObjectMapper M = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        int n       = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long gapNs  = (args.length > 1 ? Long.parseLong(args[1]) : 200) * 1_000;
+        Path root   = args.length > 2 ? Paths.get(args[2]) : Files.createTempDirectory("journal-bench");
+
+        System.out.printf("%-18s %8s %8s %8s %8s %10s%n", "mode", "p50_us", "p99_us", "max_us", "avg_us", "total_ms");
+        run("sync (fsync each)", root.resolve("sync"),  0, 1,  n, gapNs);
+        run("group 2ms/32",      root.resolve("g2"),    2, 32, n, gapNs);
+        run("group 5ms/32",      root.resolve("g5"),    5, 32, n, gapNs);
+        run("group 20ms/256",    root.resolve("g20"),  20, 256, n, gapNs);
+        if (args.length <= 2) delete(root);
+    }
+
+    private static void run(String label, Path dir, long fsyncMs, int every, int n, long gapNs) throws Exception {
+        delete(dir);
+        Journal j = new Journal(dir, fsyncMs, every);
+        j.open();
+        ObjectNode cmd = M.createObjectNode();
+        cmd.put("type", "AddLineCmd").put("fromSystem", 3).put("fromOutputIndex", 1).put("toSystem", 7).put("toInputIndex", 0);
+
+        long[] lat = new long[n];
+        long t0 = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            long s = System.nanoTime();
+            j.append(new Journal.Entry(i + 1, "00112233445566778899aabbccddeeff", cmd));
+            lat[i] = System.nanoTime() - s;
+            if (gapNs > 0) { long until = System.nanoTime() + gapNs; while (System.nanoTime() < until) Thread.onSpinWait(); }
+        }
+        j.close();                                              // includes the final flush: total is time to durable
+        long total = System.nanoTime() - t0;
+
+        Arrays.sort(lat);
+        double avg = Arrays.stream(lat).average().orElse(0);
+        System.out.printf("%-18s %8.1f %8.1f %8.1f %8.1f %10.1f%n", label,
+                lat[n / 2] / 1e3, lat[(int) (n * 0.99)] / 1e3, lat[n - 1] / 1e3, avg / 1e3, total / 1e6);
+    }
+
+    private static void delete(Path p) throws Exception {
+        if (!Files.exists(p)) return;
+        try (Stream<Path> s = Files.walk(p)) {
+            s.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package tools;
+
+import common.util.RecordLog;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/** Debug helper for RecordLog files (server events-N.log segments, client cmd-N.log segments).
+ *  <pre>
+ *  LogTool dump   &lt;file.log&gt; [out.ndjson]   records → NDJSON (stdout if no out)
+ *  LogTool pack   &lt;in.ndjson&gt; &lt;out.log&gt;    NDJSON → records
+ *  LogTool verify &lt;file.log&gt;                 valid length vs file size, last sync marker
+ *  </pre>
+ */
+public final class LogTool {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) { usage(); return; }
+        Path in = Paths.get(args[1]);
+        switch (args[0]) {
+            case "dump" -> {
+                Writer out = (args.length > 2)
+                        ? Files.newBufferedWriter(Paths.get(args[2]), StandardCharsets.UTF_8)
+                        : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                long n = RecordLog.exportNdjson(in, out);
+                if (args.length > 2) { out.close(); System.out.println("wrote " + n + " records to " + args[2]); }
+            }
+            case "pack" -> {
+                if (args.length < 3) { usage(); return; }
+                long n = RecordLog.importNdjson(in, Paths.get(args[2]));
+                System.out.println("packed " + n + " records into " + args[2]);
+            }
+            case "verify" -> {
+                try (FileChannel ch = FileChannel.open(in, StandardOpenOption.READ)) {
+                    long[] count = {0};
+                    long valid = RecordLog.scan(ch, 0, (off, payload) -> count[0]++);
+                    long size = ch.size();
+                    System.out.printf("%s: %d records, valid=%d size=%d lastSync=%d%s%n",
+                            in, count[0], valid, size, RecordLog.lastSyncBefore(ch, size),
+                            valid == size ? "" : "  (torn/corrupt tail: " + (size - valid) + " bytes)");
+                }
+            }
+            default -> usage();
+        }
+    }
+
+    private static void usage() {
+        System.out.println("usage: LogTool dump <file.log> [out.ndjson] | pack <in.ndjson> <out.log> | verify <file.log>");
+    }
+}
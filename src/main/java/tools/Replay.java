@@ -0,0 +1,112 @@
+package tools;
+
+import model.LevelTemplate;
+import model.SystemManager;
+import server.LevelSession;
+import server.MatchResult;
+import server.PlayerStats;
+import server.WinJudge;
+import server.storage.MatchRecording;
+import server.storage.MatchRecording.Command;
+import server.storage.MatchRecording.Keyframe;
+import server.storage.MatchRecording.Recording;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.util.List;
+
+/** Headless re-simulation of a server match recording (~/.phase3/server/recordings/&lt;roomId&gt;.rec).
+ *  <pre>
+ *  Replay &lt;file.rec&gt; [--until TICK] [--verbose]
+ *  </pre>
+ *  Steps both LevelSessions as fast as the CPU allows, checks every keyframe digest on the way (so a
+ *  divergence is pinned to one keyframe interval) and finally re-judges the match against the recorded result.
+ *  Exit code 0 = everything matched, 1 = divergence, 2 = usage/IO error.
+ */
+public final class Replay {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: Replay <file.rec> [--until TICK] [--verbose]");
+            System.exit(2);
+        }
+        long until = Long.MAX_VALUE;
+        boolean verbose = false;
+        for (int i = 1; i < args.length; i++) {
+            if ("--until".equals(args[i]) && i + 1 < args.length) until = Long.parseLong(args[++i]);
+            else if ("--verbose".equals(args[i])) verbose = true;
+        }
+
+        Recording rec = MatchRecording.read(Paths.get(args[0]));
+        var h = rec.header();
+        long endTick = rec.end() != null ? rec.end().tick()
+                : rec.keyframes().isEmpty() ? 0 : rec.keyframes().get(rec.keyframes().size() - 1).tick();
+        long last = Math.min(endTick, until);
+        System.out.printf("room %s level=%s seeds=%d/%d commands=%d keyframes=%d end=%s%n",
+                h.roomId(), h.level(), h.seedA(), h.seedB(), rec.commands().size(), rec.keyframes().size(),
+                rec.end() == null ? "none" : rec.end().tick() + " " + rec.end().winner());
+
+        PrintStream stdout = System.out;
+        if (!verbose) System.setOut(new PrintStream(OutputStream.nullOutputStream()));   // the model logs a lot
+        int diverged;
+        long t0 = System.nanoTime();
+        long steps;
+        String verdict;
+        try {
+            LevelTemplate level = LevelTemplate.compile(h.config());    // the same construction path rooms use
+            SystemManager smA = level.instantiate(null, h.seedA());
+            SystemManager smB = level.instantiate(null, h.seedB());
+            LevelSession a = new LevelSession(h.level(), smA, Long.MAX_VALUE / 4);
+            LevelSession b = new LevelSession(h.level(), smB, Long.MAX_VALUE / 4);
+
+            List<Command> cmds = rec.commands();
+            List<Keyframe> keys = rec.keyframes();
+            int ci = 0, ki = 0;
+            diverged = 0;
+            while (ki < keys.size() && keys.get(ki).tick() == 0) {
+                diverged += check(stdout, keys.get(ki++), a, b);
+            }
+            for (steps = 0; steps < last; steps++) {
+                while (ci < cmds.size() && cmds.get(ci).tick() == steps) {
+                    Command c = cmds.get(ci++);
+                    (c.side() == MatchRecording.SIDE_A ? a : b).enqueue(c.cmd());
+                }
+                a.step(h.dtMs());
+                b.step(h.dtMs());
+                while (ki < keys.size() && keys.get(ki).tick() == steps + 1) {
+                    diverged += check(stdout, keys.get(ki++), a, b);
+                }
+            }
+            verdict = judge(rec, a, b, steps == endTick);
+        } finally {
+            System.setOut(stdout);
+        }
+        double ms = (System.nanoTime() - t0) / 1e6;
+        System.out.printf("replayed %d ticks in %.1f ms (%.0f ticks/s, %.0fx real time)%n",
+                steps, ms, steps / (ms / 1000), steps * h.dtMs() / Math.max(ms, 1e-3));
+        System.out.println(verdict);
+        System.exit(diverged == 0 && !verdict.startsWith("MISMATCH") ? 0 : 1);
+    }
+
+    private static int check(PrintStream out, Keyframe k, LevelSession a, LevelSession b) {
+        long da = a.stateDigest(), db = b.stateDigest();
+        if (da == k.digestA() && db == k.digestB()) return 0;
+        out.printf("keyframe %d diverged:%s%s%n", k.tick(),
+                da != k.digestA() ? " A" : "", db != k.digestB() ? " B" : "");
+        return 1;
+    }
+
+    private static String judge(Recording rec, LevelSession a, LevelSession b, boolean atEnd) {
+        var e = rec.end();
+        if (e == null || e.winner() == null) return "no recorded result (room closed before judging)";
+        if (!atEnd) return "stopped before the recorded end; result not checked";
+        PlayerStats pA = new PlayerStats(a.isLevelPassed(), a.score(), a.sm.getWireUsedPx());
+        PlayerStats pB = new PlayerStats(b.isLevelPassed(), b.score(), b.sm.getWireUsedPx());
+        MatchResult r = new WinJudge().decide(pA, pB);
+        boolean same = r.winner().name().equals(e.winner()) && r.reason().equals(e.reason())
+                && pA.levelsPassed() == e.passedA() && pA.coins() == e.coinsA() && pA.wireUsed() == e.wireA()
+                && pB.levelsPassed() == e.passedB() && pB.coins() == e.coinsB() && pB.wireUsed() == e.wireB();
+        return (same ? "MATCH " : "MISMATCH ") + "recorded=" + e.winner() + " (" + e.reason() + ") A=" + e.coinsA() + "c B=" + e.coinsB()
+                + "c  replayed=" + r.winner() + " (" + r.reason() + ") A=" + pA.coins() + "c B=" + pB.coins() + "c";
+    }
+}
@@ -0,0 +1,57 @@
+package tools;
+
+import config.ConfigManager;
+import config.GameConfig;
+import model.LevelTemplate;
+import model.LevelsManager;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+/** Microbenchmark: authoritative models created per second for a room (two sides of one level).
+ *  <pre>
+ *  RoomBench [seconds=3]
+ *  </pre>
+ *  "build" walks the GameConfig every time (the old per-room path), "template" clones a precompiled
+ *  {@link LevelTemplate}. Run from a directory with gameConfig.json / levels.json.
+ */
+public final class RoomBench {
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 3;
+        List<GameConfig> levels = ConfigManager.getInstance().getAllLevels();
+
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));   // model constructors log
+        try {
+            stdout.printf("%-10s %-10s %12s %10s%n", "level", "mode", "rooms/s", "us/room");
+            for (GameConfig cfg : levels) {
+                LevelTemplate t = LevelTemplate.compile(cfg);
+                run(stdout, cfg.levelName(), "build", seconds, seed -> {
+                    sink = LevelsManager.build(cfg, null, seed);
+                    sink = LevelsManager.build(cfg, null, ~seed);
+                });
+                run(stdout, cfg.levelName(), "template", seconds, seed -> {
+                    sink = t.instantiate(null, seed);
+                    sink = t.instantiate(null, ~seed);
+                });
+            }
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    private interface Room { void create(long seed); }
+
+    private static void run(PrintStream out, String level, String mode, double seconds, Room r) {
+        long warmEnd = System.nanoTime() + 500_000_000L;
+        for (long s = 0; System.nanoTime() < warmEnd; s++) r.create(s);
+
+        long n = 0, t0 = System.nanoTime(), end = t0 + (long) (seconds * 1e9);
+        while (System.nanoTime() < end) r.create(n++);
+        double el = (System.nanoTime() - t0) / 1e9;
+        out.printf("%-10s %-10s %12.0f %10.1f%n", level, mode, n / el, el * 1e6 / n);
+    }
+}
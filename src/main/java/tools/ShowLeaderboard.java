@@ -2,6 +2,7 @@ package tools;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import common.util.RecordLog;
 
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
@@ -13,7 +14,7 @@ public final class ShowLeaderboard {
     public static void main(String[] args) throws Exception {
         final Path p = (args.length > 0)
                 ? Paths.get(args[0])
-                : Paths.get(System.getProperty("user.home"), ".phase3", "server", "events.ndjson");
+                : Paths.get(System.getProperty("user.home"), ".phase3", "server");
 
         if (!Files.exists(p)) {
             System.out.println("No data at " + p.toAbsolutePath());
@@ -23,32 +24,43 @@ public final class ShowLeaderboard {
         int seenStarted = 0, seenActive = 0, seenForfeit = 0, seenEnded = 0;
         Map<String, Stats> stats = new HashMap<>();
 
-        try (var br = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
-            String ln;
-            while ((ln = br.readLine()) != null) {
-                JsonNode n;
-                try { n = M.readTree(ln); } catch (Exception ignore) { continue; }
-                String type = n.path("type").asText("");
+        // a store directory holds RecordLog segments (archive/ first, then live ones); a single .log file is
+        // RecordLog-framed too; an .ndjson path (old server or LogTool export) is read line by line
+        List<String> lines = new ArrayList<>();
+        if (p.toString().endsWith(".ndjson")) {
+            lines = Files.readAllLines(p, StandardCharsets.UTF_8);
+        } else {
+            final List<String> sink = lines;
+            for (Path seg : Files.isDirectory(p) ? segments(p) : List.of(p)) {
+                try (var ch = java.nio.channels.FileChannel.open(seg, StandardOpenOption.READ)) {
+                    RecordLog.scan(ch, 0, (off, payload) -> sink.add(new String(payload, StandardCharsets.UTF_8)));
+                }
+            }
+        }
 
-                switch (type) {
-                    case "match_started" -> {
-                        String a = n.path("aToken").asText("");
-                        String b = n.path("bToken").asText("");
-                        stats.computeIfAbsent(a, Stats::new).started++;
-                        stats.computeIfAbsent(b, Stats::new).started++;
-                        seenStarted++;
-                    }
-                    case "match_active" -> { seenActive++; }
-                    case "match_forfeit" -> {
-                        String w = n.path("winnerToken").asText("");
-                        String l = n.path("loserToken").asText("");
-                        stats.computeIfAbsent(w, Stats::new).wins++;
-                        stats.computeIfAbsent(l, Stats::new).losses++;
-                        seenForfeit++;
-                    }
-                    case "match_ended" -> { seenEnded++; }
-                    default -> { /* ignore unknown */ }
+        for (String ln : lines) {
+            JsonNode n;
+            try { n = M.readTree(ln); } catch (Exception ignore) { continue; }
+            String type = n.path("type").asText("");
+
+            switch (type) {
+                case "match_started" -> {
+                    String a = n.path("aToken").asText("");
+                    String b = n.path("bToken").asText("");
+                    stats.computeIfAbsent(a, Stats::new).started++;
+                    stats.computeIfAbsent(b, Stats::new).started++;
+                    seenStarted++;
+                }
+                case "match_active" -> { seenActive++; }
+                case "match_forfeit" -> {
+                    String w = n.path("winnerToken").asText("");
+                    String l = n.path("loserToken").asText("");
+                    stats.computeIfAbsent(w, Stats::new).wins++;
+                    stats.computeIfAbsent(l, Stats::new).losses++;
+                    seenForfeit++;
                 }
+                case "match_ended" -> { seenEnded++; }
+                default -> { /* ignore unknown */ }
             }
         }
 
@@ -83,4 +95,17 @@ public final class ShowLeaderboard {
         int wins, losses, started;
         Stats(String p) { this.player = p; }
     }
+
+    /** events-*.log of the store dir in write order: archived segments, then live ones. */
+    private static List<Path> segments(Path dir) throws java.io.IOException {
+        List<Path> out = new ArrayList<>();
+        for (Path d : List.of(dir.resolve("archive"), dir)) {
+            if (!Files.isDirectory(d)) continue;
+            try (var s = Files.list(d)) {
+                s.filter(f -> { String n = f.getFileName().toString(); return n.startsWith("events-") && n.endsWith(".log"); })
+                 .sorted().forEach(out::add);
+            }
+        }
+        return out;
+    }
 }
@@ -13,6 +13,9 @@ import java.util.Map;
 
 import view.render.*;
 
+import static model.System.BOX_H;
+import static model.System.BOX_W;
+
 /**
  * Thin orchestrator panel. Delegates drawing and picking to small classes.
  * Public API matches the old GamePanel to avoid controller churn.
@@ -20,8 +23,8 @@ import view.render.*;
 public class GamePanel extends JPanel {
 
     // === Public constants kept for compatibility ===
-    public static final int W  = 90;
-    public static final int H  = 70;
+    public static final int W  = BOX_W;    // model.System box size
+    public static final int H  = BOX_H;
     public static final int PS = 12;
 
     // === Model / DTO state ===
@@ -43,6 +46,11 @@ public class GamePanel extends JPanel {
 
     private java.util.List<java.util.Map<String,Object>> hudMy  = java.util.List.of();
     private java.util.List<java.util.Map<String,Object>> hudOpp = java.util.List.of();
+
+    // === Debug overlay (F3 or -Dphase3.hud.debug=true) ===
+    private volatile boolean debugHud = Boolean.getBoolean("phase3.hud.debug");
+    private volatile java.util.List<String> debugLines = java.util.List.of();
+    private volatile java.util.function.Consumer<Boolean> onDebugHud = on -> {};
     public GamePanel() { this(null); }
 
     public GamePanel(SystemManager model) {
@@ -62,6 +70,15 @@ public class GamePanel extends JPanel {
 
         // HUD adds labels to this panel
         hud.installOn(this);
+
+        getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("F3"), "toggleDebugHud");
+        getActionMap().put("toggleDebugHud", new AbstractAction() {
+            @Override public void actionPerformed(java.awt.event.ActionEvent e) {
+                debugHud = !debugHud;
+                onDebugHud.accept(debugHud);
+                repaint();
+            }
+        });
     }
 
     /* ===== Public API (unchanged) ===== */
@@ -73,6 +90,20 @@ public class GamePanel extends JPanel {
 
     public StateDTO getSnapshot()       { return snapshot; }
 
+    public boolean isDebugHud() { return debugHud; }
+
+    /** Told the current state now and on every F3 toggle (e.g. to switch command tracing on and off). */
+    public void setDebugHudListener(java.util.function.Consumer<Boolean> l) {
+        this.onDebugHud = (l == null ? on -> {} : l);
+        onDebugHud.accept(debugHud);
+    }
+
+    /** Lines for the debug overlay; only drawn while it is toggled on. */
+    public void setDebugLines(java.util.List<String> lines) {
+        this.debugLines = (lines == null ? java.util.List.of() : lines);
+        if (debugHud) repaint();
+    }
+
     /** API kept for compatibility; HUD now auto-computes from uiData/model. */
     public void setWireHud(Integer used, Integer cap) { /* no-op by design */ }
 
@@ -189,6 +220,7 @@ public class GamePanel extends JPanel {
         wires.paint(g2, model, snapshot, uiData);
         preview.paint(g2, previewA, previewB, hMid, hA, hB);
         packets.paint(g2, model, snapshot);
+        if (debugHud) hud.paintDebug(g2, debugLines, getHeight());
     }
 
 
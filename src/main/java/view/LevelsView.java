@@ -1,6 +1,5 @@
 package view;
 
-import config.GameConfig;
 
 import javax.swing.*;
 import java.awt.*;
@@ -13,11 +12,10 @@ import java.util.List;
 public final class LevelsView extends JPanel {
     private final java.util.List<JButton> levelButtons = new java.util.ArrayList<>();
 
-    public LevelsView(java.util.List<config.GameConfig> levels) {
+    public LevelsView(java.util.List<String> levelNames) {
         setLayout(new java.awt.GridLayout(0, 3, 8, 8));
-        for (int i = 0; i < levels.size(); i++) {
-            var cfg = levels.get(i);
-            JButton b = new JButton(cfg.levelName());
+        for (int i = 0; i < levelNames.size(); i++) {
+            JButton b = new JButton(levelNames.get(i));
             // optional but handy:
             b.putClientProperty("levelIndex", i);
             levelButtons.add(b);
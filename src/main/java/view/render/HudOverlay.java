@@ -71,6 +71,23 @@ public final class HudOverlay {
         drawWireHud(g2, usedPx, capPx, panelWidth);
     }
 
+    /** Debug overlay (F3): monospaced lines bottom-left, e.g. the command latency breakdown. */
+    public void paintDebug(Graphics2D g2, java.util.List<String> lines, int panelHeight) {
+        if (lines == null || lines.isEmpty()) return;
+        Font old = g2.getFont();
+        g2.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        FontMetrics fm = g2.getFontMetrics();
+        int w = 0;
+        for (String l : lines) w = Math.max(w, fm.stringWidth(l));
+        int lh = fm.getHeight(), h = lines.size() * lh + 8;
+        int x = 10, y = panelHeight - h - 10;
+        g2.setColor(new Color(0, 0, 0, 170));
+        g2.fillRoundRect(x, y, w + 12, h, 8, 8);
+        g2.setColor(new Color(220, 255, 220));
+        for (int i = 0; i < lines.size(); i++) g2.drawString(lines.get(i), x + 6, y + 4 + fm.getAscent() + i * lh);
+        g2.setFont(old);
+    }
+
     private static Object getValue(Map<String,Object> m, String k, Object def) {
         if(!m.containsKey(k)) {
             System.out.println("Missing key: " + k);